@@ -19,10 +19,8 @@
  */
 package com.adobe.acs.samples.models;
 
-import com.day.cq.search.PredicateGroup;
-import com.day.cq.search.Query;
-import com.day.cq.search.QueryBuilder;
-import com.day.cq.search.result.SearchResult;
+import com.adobe.acs.samples.search.querybuilder.SampleQueryHelper;
+import com.adobe.acs.samples.services.SamplePageCountService;
 import com.day.cq.wcm.api.Page;
 import com.day.cq.wcm.api.PageManager;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -36,10 +34,12 @@ import org.apache.sling.models.annotations.injectorspecific.OSGiService;
 import org.apache.sling.models.annotations.injectorspecific.Self;
 import org.apache.sling.models.annotations.injectorspecific.SlingObject;
 import org.apache.sling.models.annotations.injectorspecific.ValueMapValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Named;
-import javax.jcr.Session;
+import javax.jcr.RepositoryException;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Map;
@@ -89,6 +89,7 @@ import java.util.Map;
  * For Jackson Annotations: https://github.com/FasterXML/jackson-annotations/wiki/Jackson-Annotations
  */
 public class SampleSlingModelExporter {
+    private static final Logger log = LoggerFactory.getLogger(SampleSlingModelExporter.class);
 
     @Self
     private SlingHttpServletRequest request;
@@ -131,7 +132,11 @@ public class SampleSlingModelExporter {
     // Inject OSGi services
     @OSGiService
     @Required
-    private QueryBuilder queryBuilder;
+    private SampleQueryHelper queryHelper;
+
+    @OSGiService
+    @Required
+    private SamplePageCountService pageCountService;
 
     // Injection will occur over all Injectors based on Ranking;
     // Force an Injector using @Source(..)
@@ -152,14 +157,27 @@ public class SampleSlingModelExporter {
         // better to lazy-execute the logic in the getter and persist the result in  model state if it is requested again.
         page = resourceResolver.adaptTo(PageManager.class).getContainingPage(resource);
 
-        final Map<String, String> map = new HashMap<String, String>();
-        // Injected fields can be used to define logic
-        map.put("path", page.getPath());
-        map.put("type", "cq:Page");
-
-        Query query = queryBuilder.createQuery(PredicateGroup.create(map), resourceResolver.adaptTo(Session.class));
-        final SearchResult result = query.getResult();
-        this.size = result.getHits().size();
+        // Read the page count from the incrementally maintained page count index; this is an O(1) lookup rather than a
+        // query (and index scan) per render. Note the index is maintained by a service user, so it counts all pages,
+        // including those the current user cannot read; only the query fallback below respects the user's access.
+        this.size = pageCountService.getDescendantPageCount(page.getPath());
+
+        if (this.size == SamplePageCountService.UNKNOWN) {
+            // The page is not covered by the page count index (or it is still being built), so fall back to querying.
+            final Map<String, String> map = new HashMap<String, String>();
+            // Injected fields can be used to define logic
+            map.put("path", page.getPath());
+            map.put("type", "cq:Page");
+
+            // Only the number of hits is needed, so count them without loading any Hits. Whether this is a precise count
+            // or a (cheaper) estimate is configured on the SampleQueryHelper OSGi service.
+            try {
+                this.size = queryHelper.count(resourceResolver, map).getCount();
+            } catch (RepositoryException e) {
+                this.size = 0;
+                log.error("Could not count the pages under [ {} ]", page.getPath(), e);
+            }
+        }
     }
 
     /**
@@ -198,7 +216,8 @@ public class SampleSlingModelExporter {
     /**
      * This getter exposes the work of a @PostConstruct method.
      *
-     * @return the number of cq:Pages that exist under this resource.
+     * @return the number of cq:Pages that exist under this resource. When served from the SamplePageCountService,
+     * this includes pages the current user cannot read.
      */
     public long getSize() {
         return this.size;
@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.resourceproviders.impl;
+
+import org.apache.sling.api.resource.ValueMap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable, flyweight ValueMap for the synthetic number resources exposed by the SampleResourceProvider.
+ *
+ * Rather than populating a new HashMap (and wrapping it in a ValueMapDecorator) for every resolved resource, each
+ * instance only holds the primitive values that make the resource unique (the number and a timestamp). The set of
+ * property names is fixed and shared via a Schema, and the property values are only derived when they are asked for.
+ *
+ * This pattern is handy when a ResourceProvider serves huge numbers of resources whose properties are rarely read,
+ * or are computed from a small amount of state.
+ */
+final class NumberValueMap extends AbstractMap<String, Object> implements ValueMap {
+
+    /** The schema used for resources returned via getResource(..) */
+    static final Schema RESOLVED = new Schema("gotAt");
+
+    /** The schema used for resources returned via listChildren(..) */
+    static final Schema LISTED = new Schema("listedAt");
+
+    private static final int SAMPLE_DATA = 0;
+    private static final int TIMESTAMP = 1;
+    private static final int MEANING_OF_LIFE = 2;
+
+    // Integer.valueOf(42) is served from the Integer cache, but keep a constant to make the intent obvious
+    private static final Integer MEANING_OF_LIFE_VALUE = 42;
+
+    private final Schema schema;
+    private final int number;
+    private final long timestamp;
+
+    NumberValueMap(final Schema schema, final int number, final long timestamp) {
+        this.schema = schema;
+        this.number = number;
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public Object get(final Object key) {
+        final int slot = schema.slotOf(key);
+        return slot < 0 ? null : valueAt(slot);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return schema.slotOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return schema.keys.length;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        // Entries are created on iteration; nothing is cached on this instance.
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+                    private int slot = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < schema.keys.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+
+                        final int current = slot++;
+                        return new SimpleImmutableEntry<String, Object>(schema.keys[current], valueAt(current));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return schema.keys.length;
+            }
+        };
+    }
+
+    @Override
+    public <T> T get(final String name, final Class<T> type) {
+        return convert(get(name), type);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(final String name, final T defaultValue) {
+        if (defaultValue == null) {
+            return (T) get(name);
+        }
+
+        final T value = get(name, (Class<T>) defaultValue.getClass());
+        return value == null ? defaultValue : value;
+    }
+
+    private Object valueAt(final int slot) {
+        switch (slot) {
+            case SAMPLE_DATA:
+                return "This is sample data for the number " + number;
+            case TIMESTAMP:
+                return new Date(timestamp);
+            case MEANING_OF_LIFE:
+                return MEANING_OF_LIFE_VALUE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Minimal type conversion for the handful of types this ValueMap holds. Conversions that are not supported
+     * return null (as ValueMap.get(name, type) is specified to do) rather than throwing.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T convert(final Object value, final Class<T> type) {
+        if (value == null || type == null) {
+            return null;
+        } else if (type.isInstance(value)) {
+            return (T) value;
+        } else if (type == String.class) {
+            return (T) String.valueOf(value);
+        } else if (value instanceof Date && type == Calendar.class) {
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTime((Date) value);
+            return (T) calendar;
+        } else if (value instanceof Number) {
+            final Number numberValue = (Number) value;
+            if (type == Long.class) {
+                return (T) Long.valueOf(numberValue.longValue());
+            } else if (type == Integer.class) {
+                return (T) Integer.valueOf(numberValue.intValue());
+            } else if (type == Double.class) {
+                return (T) Double.valueOf(numberValue.doubleValue());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The fixed set of property names shared by every NumberValueMap of a given kind.
+     */
+    static final class Schema {
+        private final String[] keys;
+
+        private Schema(final String timestampProperty) {
+            this.keys = new String[]{ "sampleData", timestampProperty, "meaningOfLife" };
+        }
+
+        private int slotOf(final Object key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.resourceproviders.impl;
+
+/**
+ * Matches paths of the form [prefix][number], such as /numbers/number-8, and extracts the number.
+ *
+ * ResourceProvider.getResource(..) is called for every path under the provider's root, including all the paths the
+ * provider does not know about, so it should reject those as cheaply as possible. This matcher does not allocate
+ * (no substrings, no concatenation) and does not use exceptions for control flow, as Integer.parseInt(..) does
+ * for malformed input; creating a NumberFormatException (and filling in its stack trace) per miss is costly.
+ *
+ * Instances are immutable and thread-safe, so create them once and share them.
+ */
+public final class NumberedPathMatcher {
+
+    /** Returned by match(..) if the path does not match */
+    public static final int NO_MATCH = -1;
+
+    private final String prefix;
+    private final int min;
+    private final int max;
+
+    /**
+     * @param prefix the literal path prefix preceding the number, ex. "/numbers/number-"
+     * @param min the smallest number to accept; must be zero or greater
+     * @param max the largest number to accept
+     */
+    public NumberedPathMatcher(final String prefix, final int min, final int max) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Invalid number range [ " + min + ", " + max + " ]");
+        }
+
+        this.prefix = prefix;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @param path the path to match
+     * @return the number at the end of the path, or NO_MATCH if the path does not consist of the prefix followed by
+     * only the digits of a number in the accepted range
+     */
+    public int match(final String path) {
+        if (path == null) {
+            return NO_MATCH;
+        }
+
+        final int length = path.length();
+        final int start = prefix.length();
+
+        // startsWith(..) compares in place, without creating a substring
+        if (length == start || !path.startsWith(prefix)) {
+            return NO_MATCH;
+        }
+
+        long number = 0;
+
+        for (int i = start; i < length; i++) {
+            final char c = path.charAt(i);
+
+            if (c < '0' || c > '9') {
+                return NO_MATCH;
+            }
+
+            number = number * 10 + (c - '0');
+
+            // Bail as soon as the number is out of range; this also guards against overflow on very long inputs
+            if (number > max) {
+                return NO_MATCH;
+            }
+        }
+
+        return number < min ? NO_MATCH : (int) number;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.resourceproviders.impl;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.io.JSONWriter;
+import org.osgi.service.component.annotations.Component;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.apache.sling.api.servlets.ServletResolverConstants.*;
+
+/**
+ * Pages through the children of the SampleResourceProvider's root, ex. GET /numbers.json?offset=20&limit=10
+ *
+ * Sling's listChildren(..) has no notion of paging; a caller that only wants children 20 to 29 would have to create
+ * (and skip) children 0 to 19 first. This servlet asks the provider for just the requested window, and writes each
+ * child as it is created, so neither the provider nor the servlet holds more than one child at a time.
+ *
+ * Resulting JSON object would look like:
+ *
+ * {
+ *     "offset": 20,
+ *     "limit": 10,
+ *     "total": 101,
+ *     "children": [
+ *          { "path": "/numbers/number-20", "sampleData": "This is sample data for the number 20", ... },
+ *          ...
+ *     ]
+ * }
+ */
+@Component(
+        service = { Servlet.class },
+        property = {
+                SLING_SERVLET_RESOURCE_TYPES + "=" + SampleResourceProvider.ROOT_RESOURCE_TYPE,
+                SLING_SERVLET_METHODS + "=GET",
+                SLING_SERVLET_EXTENSIONS + "=json"
+        }
+)
+public class SampleNumbersListServlet extends SlingSafeMethodsServlet {
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 1000;
+
+    @Override
+    protected final void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response)
+            throws ServletException, IOException {
+        final int offset = Math.max(0, NumberUtils.toInt(request.getParameter("offset"), 0));
+        final int limit = Math.min(MAX_LIMIT, Math.max(0, NumberUtils.toInt(request.getParameter("limit"), DEFAULT_LIMIT)));
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        final JSONWriter json = new JSONWriter(response.getWriter());
+
+        try {
+            json.object();
+            json.key("offset").value(offset);
+            json.key("limit").value(limit);
+            json.key("total").value(SampleResourceProvider.countNumbers());
+            json.key("children").array();
+
+            final Iterator<Resource> children =
+                    SampleResourceProvider.listNumbers(request.getResourceResolver(), offset, limit);
+
+            while (children.hasNext()) {
+                final Resource child = children.next();
+
+                json.object();
+                json.key("path").value(child.getPath());
+
+                for (final Map.Entry<String, Object> property : child.getValueMap().entrySet()) {
+                    json.key(property.getKey()).value(property.getValue());
+                }
+
+                json.endObject();
+            }
+
+            json.endArray();
+            json.endObject();
+        } catch (JSONException e) {
+            throw new ServletException("Could not write the children of [ " + request.getResource().getPath() + " ]", e);
+        }
+    }
+}
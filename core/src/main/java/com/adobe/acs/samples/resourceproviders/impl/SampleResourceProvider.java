@@ -20,15 +20,28 @@
 
 package com.adobe.acs.samples.resourceproviders.impl;
 
-import org.apache.commons.lang3.StringUtils;
+import com.adobe.acs.samples.util.BoundedCache;
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
 import org.apache.sling.api.resource.*;
-import org.apache.sling.api.wrappers.ValueMapDecorator;
 import org.apache.sling.spi.resource.provider.ResolveContext;
 import org.apache.sling.spi.resource.provider.ResourceContext;
 import org.apache.sling.spi.resource.provider.ResourceProvider;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
-
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This sample resource provider generates synthetic resources that represent numbers between 0 and 100 at paths that look like: /numbers/number-###
@@ -41,6 +54,9 @@ import java.util.*;
  * resourceResolver.getResource("numbers").listChildren() => lists resources /numbers/number-0 -> /numbers/number-100
  * etc.
  *
+ * Children are created lazily as they are iterated. Sling's listChildren(..) has no notion of paging, so pages of
+ * children are served by the SampleNumbersListServlet instead, ex. GET /numbers.json?offset=20&limit=10
+ *
  * In this example a sling:resourceType if "acs-samples/content/number" is set on them, so one could do something like
  *
  * <div data-sly-resource='/numbers/number-1'/>
@@ -49,6 +65,12 @@ import java.util.*;
  *
  * These are a number of other extra flags/methods to support authorization and modifiability of resources (which you have to implement yourself in the ResourceProvider)
  *
+ * Resolved resources can optionally be cached per ResourceResolver (see the Cfg below). The cache is this provider's
+ * "provider state": ResourceProvider.authenticate(..) creates one cache per ResourceResolver, Sling passes it back via
+ * ResolveContext.getProviderState(), refresh() clears it and logout(..) discards it. Since the cached Resources hold
+ * a reference to the ResourceResolver that resolved them, caches must never be shared across ResourceResolvers.
+ * The cache hit/miss counters are published over JMX (see SampleResourceProviderMBean).
+ *
  * ResourceProvider JavaDocs: https://sling.apache.org/apidocs/sling10/org/apache/sling/spi/resource/provider/ResourceProvider.html
  * Another sample code: https://github.com/apache/sling-org-apache-sling-launchpad-test-services/blob/master/src/main/java/org/apache/sling/launchpad/testservices/resourceprovider/PlanetsResourceProvider.java
  */
@@ -57,19 +79,120 @@ import java.util.*;
         property = {
                 ResourceProvider.PROPERTY_NAME + "=acs-aem-sample.sample-resource-provider",
                 ResourceProvider.PROPERTY_ROOT + "=" + SampleResourceProvider.ROOT,
-                ResourceProvider.PROPERTY_REFRESHABLE + "=true"
+                ResourceProvider.PROPERTY_REFRESHABLE + "=true",
+                // "lazy" authentication asks Sling to call authenticate(..) the first time a ResourceResolver uses this
+                // provider; this is used to create the per-ResourceResolver cache (the provider state).
+                ResourceProvider.PROPERTY_AUTHENTICATE + "=" + ResourceProvider.AUTHENTICATE_LAZY
         },
         immediate = true
 )
-public class SampleResourceProvider extends ResourceProvider<Object> {
+@Designate(ocd = SampleResourceProvider.Cfg.class)
+public class SampleResourceProvider extends ResourceProvider<BoundedCache<String, Resource>> implements SampleResourceProviderMBean {
+    private static final Logger log = LoggerFactory.getLogger(SampleResourceProvider.class);
 
     public static final String ROOT = "/numbers";
 
+    /** The resource type of the ROOT resource; the SampleNumbersListServlet pages through its children */
+    public static final String ROOT_RESOURCE_TYPE = "acs-samples/content/numbers";
+
     private static final int MIN_NUMBER = 0;
     private static final int MAX_NUMBER = 100;
 
+    // Matches /numbers/number-### paths; this is immutable so it can be shared by all calls.
+    private static final NumberedPathMatcher NUMBER_PATH_MATCHER =
+            new NumberedPathMatcher(ROOT + "/number-", MIN_NUMBER, MAX_NUMBER);
+
+    // Counters are shared across all ResourceResolvers' caches; LongAdder keeps increments cheap under contention.
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    private volatile Cfg cfg;
+
+    private ServiceRegistration<DynamicMBean> mbeanRegistration;
+
+    @Activate
+    protected void activate(final Cfg cfg, final BundleContext bundleContext) throws NotCompliantMBeanException {
+        modified(cfg);
+
+        // This component is registered as a ResourceProvider, so it cannot also be the DynamicMBean service itself;
+        // register an MBean that delegates to it instead. The JMX whiteboard picks it up via the jmx.objectname.
+        final Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("jmx.objectname", "com.adobe.acs.samples:type=SampleResourceProvider");
+
+        this.mbeanRegistration = bundleContext.registerService(DynamicMBean.class,
+                new AnnotatedStandardMBean(this, SampleResourceProviderMBean.class), properties);
+    }
+
+    @Modified
+    protected void modified(final Cfg cfg) {
+        // Changes only apply to caches created after this point; existing ResourceResolvers keep their cache settings.
+        this.cfg = cfg;
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (mbeanRegistration != null) {
+            mbeanRegistration.unregister();
+            mbeanRegistration = null;
+        }
+    }
+
     @Override
-    public Resource getResource(final ResolveContext<Object> resolveContext,
+    public BoundedCache<String, Resource> authenticate(final Map<String, Object> authenticationInfo) throws LoginException {
+        final Cfg config = this.cfg;
+
+        if (config == null || !config.cache_enabled()) {
+            // No provider state; getResource(..) will not cache.
+            return null;
+        }
+
+        // A ResourceResolver is only used by one thread at a time, so one (exact LRU) segment is enough
+        return new BoundedCache<String, Resource>(config.cache_max_size(), config.cache_ttl(), 1);
+    }
+
+    @Override
+    public void logout(final BoundedCache<String, Resource> cache) {
+        if (cache != null) {
+            cache.clear();
+            log.debug("Resource cache hits [ {} ] misses [ {} ]", cacheHits.sum(), cacheMisses.sum());
+        }
+    }
+
+    @Override
+    public void refresh(final ResolveContext<BoundedCache<String, Resource>> resolveContext) {
+        // This provider is registered with PROPERTY_REFRESHABLE=true, so ResourceResolver.refresh() is passed on here.
+        final BoundedCache<String, Resource> cache = resolveContext.getProviderState();
+
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public boolean isCacheEnabled() {
+        final Cfg config = this.cfg;
+        return config != null && config.cache_enabled();
+    }
+
+    /**
+     * @return the number of getResource(..) calls served from a cache, across all ResourceResolvers.
+     */
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return the number of getResource(..) calls for valid paths that had to build the resource while caching was
+     * enabled.
+     */
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public Resource getResource(final ResolveContext<BoundedCache<String, Resource>> resolveContext,
                                 final String path,
                                 final ResourceContext resourceContext,
                                 final Resource parentResource) {
@@ -79,27 +202,36 @@ public class SampleResourceProvider extends ResourceProvider<Object> {
         // Make getResource() return as fast as possible!
         // Return null early if getResource() cannot/should not process the resource request
 
-        // If path is a root, return a Synthetic Sling Folder
-        // This could be any "type" of SyntheticResource
+        // If path is a root, return a Synthetic resource
+        // This could be any "type" of SyntheticResource; a custom type lets servlets (such as the
+        // SampleNumbersListServlet) be registered against it
         if (ROOT.equals(path)) {
-            return new SyntheticResource(resourceResolver, path, "sling:Folder");
+            return new SyntheticResource(resourceResolver, path, ROOT_RESOURCE_TYPE);
         }
 
         // Parse the path to figure out what it "resolves" to in the custom implementation
         // In this case well look for integer value at the end of a path formatted like: /numbers/number-###
-        String numberStr = StringUtils.substringAfter(path, ROOT + "/number-");
-        int number;
-        try {
-            number = Integer.parseInt(numberStr);
-            // Do some checking to make sure the path make sense for the provider
-            if (number < MIN_NUMBER || number > MAX_NUMBER) {
-                // If it doesnt, return null
-                return null;
-            }
-        } catch (NumberFormatException e) {
+        // The matcher also checks the number is in range, and returns NO_MATCH (without throwing) if it is not.
+        // Matching is cheaper than a cache lookup, so paths the provider does not know about never touch the cache.
+        final int number = NUMBER_PATH_MATCHER.match(path);
+        if (number == NumberedPathMatcher.NO_MATCH) {
+            // If the path doesn't make sense for the provider, return null
             return null;
         }
 
+        // The content of these resources is deterministic, so if this ResourceResolver has a cache, check it first.
+        final BoundedCache<String, Resource> cache = resolveContext.getProviderState();
+        if (cache != null) {
+            final Resource cached = cache.get(path);
+
+            if (cached != null) {
+                cacheHits.increment();
+                return cached;
+            }
+
+            cacheMisses.increment();
+        }
+
         // Note that ResourceMetadata is NOT the data that populates a resources ValueMap; that is done below via the ProvidedResourceWrapper
         ResourceMetadata resourceMetaData = new ResourceMetadata();
 
@@ -116,73 +248,138 @@ public class SampleResourceProvider extends ResourceProvider<Object> {
         // Create the synthetic resource
         final Resource numberResource = new SyntheticResource(resourceResolver, resourceMetaData, resourceType);
 
-        // Make a call to some other system using the path/request and resolve the data to return on the "Provided" resource's ValueMap
-        final Map<String, Object> properties = new HashMap<>();
-
-        // Mocking some data that represents this resource
-        properties.put("sampleData", "This is sample data for the number " + number);
-        properties.put("gotAt", new Date());
-        properties.put("meaningOfLife", 42);
+        // Make a call to some other system using the path/request and resolve the data to return on the "Provided" resource's ValueMap.
+        // Since this data is derived entirely from the number, use a flyweight ValueMap that only stores the number
+        // (and a timestamp) and derives the property values when they are read; rather than populating a new HashMap
+        // and ValueMapDecorator for every resolved resource. See NumberValueMap.
+        final ValueMap properties = new NumberValueMap(NumberValueMap.RESOLVED, number, System.currentTimeMillis());
 
         // Add the properties for this resource by wrapping the synthetic resource with a ResourceWrapper (defined below)
         // that exposes a custom ValueMap via this resources .adaptTo(ValueMap.class)
-        return new ProvidedResourceWrapper(numberResource, properties);
+        final Resource providedResource = new ProvidedResourceWrapper(numberResource, properties);
+
+        if (cache != null) {
+            cache.put(path, providedResource);
+        }
+
+        return providedResource;
     }
 
     @Override
-    public Iterator<Resource> listChildren(final ResolveContext<Object> resolveContext, final Resource parentResource) {
-        final List<Resource> numberResources = new ArrayList<Resource>();
-
+    public Iterator<Resource> listChildren(final ResolveContext<BoundedCache<String, Resource>> resolveContext, final Resource parentResource) {
         // This example will only list children of the registered root
         if (!ROOT.equals(parentResource.getPath())) {
             return null;
         }
 
-        // Collect some resources to list - this is often from a third party system.
-        // In this case well generate a list of resources that represent numbers get and create a list of resources in a similar fashion as in getResource
-        for (int i = 0; i <= 100; i++) {
-            ResourceMetadata resourceMetaData = new ResourceMetadata();
+        // List every child; the children are still created lazily, one at a time, as the caller iterates.
+        return listNumbers(resolveContext.getResourceResolver(), 0, -1);
+    }
 
-            // Create the "path" for this resource; this pathing scheme must be compatible with getResource(..)
-            resourceMetaData.setResolutionPath("/content/numbers/number-" + i);
-            resourceMetaData.put("index", String.valueOf(i));
+    /**
+     * Lists a window of the children of the provider root without materializing the children in memory.
+     *
+     * Collect some resources to list - this is often from a third party system. Rather than building a List of every
+     * child up front (which for large/remote data sets means one huge allocation spike), return an Iterator that
+     * creates each child only when it is requested.
+     *
+     * @param resourceResolver the resource resolver the children are resolved by
+     * @param offset the index of the first child to return (0 based)
+     * @param limit the maximum number of children to return; a negative value means no limit
+     * @return a lazy iterator over the requested children
+     */
+    static Iterator<Resource> listNumbers(final ResourceResolver resourceResolver, final int offset, final int limit) {
+        final long first = (long) MIN_NUMBER + Math.max(offset, 0);
+        final long last = limit < 0 ? MAX_NUMBER : Math.min((long) MAX_NUMBER, first + limit - 1);
 
-            // This resourceType is completely customizable
-            // Often it is set in the OSGi Properties if the value is fixed for all resources this provider returns
-            // It is important to ensure that any scripts associated w this resourceType stay in the Sling APIs and
-            // do not drop down to the JCR Node APIs as this synthetic resource is a Sling abstraction and the JCR APIs
-            // will see it as an invalid path/resource.
-            final String resourceType = "acs-samples/content/number";
+        if (first > last) {
+            return Collections.emptyIterator();
+        }
 
-            // Create the synthetic resource
-            final Resource numberResource = new SyntheticResource(resolveContext.getResourceResolver(), resourceMetaData, resourceType);
+        return new NumberResourceIterator(resourceResolver, (int) first, (int) last);
+    }
 
-            // Create a ValueMap representation of this resource, this might come from a 3rd party system
-            final Map<String, Object> properties = new HashMap<String, Object>();
+    /**
+     * @return the number of children of the provider root
+     */
+    static int countNumbers() {
+        return MAX_NUMBER - MIN_NUMBER + 1;
+    }
 
-            // Mocking some data that represents this resource
-            properties.put("sampleData", "This is sample data for the number " + i);
-            properties.put("listedAt", new Date());
-            properties.put("meaningOfLife", 42);
+    /**
+     * Creates the provided resource for a single listed number; this is called lazily by the NumberResourceIterator.
+     */
+    private static Resource createNumberResource(final ResourceResolver resourceResolver, final int number,
+                                                 final NumberValueMap.Schema schema) {
+        ResourceMetadata resourceMetaData = new ResourceMetadata();
 
-            // Add the properties for this resource by wrapping the synthetic resource with a ResourceWrapper (defined below)
-            // that exposes a custom ValueMap via this resources .adaptTo(ValueMap.class)
-            numberResources.add(new ProvidedResourceWrapper(numberResource, properties));
-        }
+        // Create the "path" for this resource; this pathing scheme must be compatible with getResource(..)
+        resourceMetaData.setResolutionPath(ROOT + "/number-" + number);
+        resourceMetaData.put("index", String.valueOf(number));
+
+        // This resourceType is completely customizable
+        // Often it is set in the OSGi Properties if the value is fixed for all resources this provider returns
+        // It is important to ensure that any scripts associated w this resourceType stay in the Sling APIs and
+        // do not drop down to the JCR Node APIs as this synthetic resource is a Sling abstraction and the JCR APIs
+        // will see it as an invalid path/resource.
+        final String resourceType = "acs-samples/content/number";
+
+        // Create the synthetic resource
+        final Resource numberResource = new SyntheticResource(resourceResolver, resourceMetaData, resourceType);
 
-        return numberResources.iterator();
+        // Make a call to some other system using the path/request and resolve the data to return on the "Provided" resource's ValueMap.
+        // The data is derived entirely from the number, so use the same flyweight ValueMap as getResource(..)
+        final ValueMap properties = new NumberValueMap(schema, number, System.currentTimeMillis());
+
+        // Add the properties for this resource by wrapping the synthetic resource with a ResourceWrapper (defined below)
+        // that exposes a custom ValueMap via this resources .adaptTo(ValueMap.class)
+        return new ProvidedResourceWrapper(numberResource, properties);
     }
 
+    /**
+     * Lazy Iterator over a contiguous range of number resources; each resource is created in next() and is never
+     * held by the iterator, so memory use is constant regardless of how many children are listed.
+     */
+    private static final class NumberResourceIterator implements Iterator<Resource> {
+        private final ResourceResolver resourceResolver;
+        private final int last;
+        private int next;
+
+        private NumberResourceIterator(final ResourceResolver resourceResolver, final int first, final int last) {
+            this.resourceResolver = resourceResolver;
+            this.next = first;
+            this.last = last;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next <= last;
+        }
+
+        @Override
+        public Resource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            return createNumberResource(resourceResolver, next++, NumberValueMap.LISTED);
+        }
+    }
 
     /**
      * Custom Resource Wrapper that is used to expose a custom ValueMap via the "Provided" resource's .adaptTo(ValueMap.class);
      */
-    private class ProvidedResourceWrapper extends ResourceWrapper {
+    private static class ProvidedResourceWrapper extends ResourceWrapper {
         private final ValueMap properties;
 
-        public ProvidedResourceWrapper(Resource resource, Map<String, Object> properties) {
+        public ProvidedResourceWrapper(Resource resource, ValueMap properties) {
             super(resource);
-            this.properties = new ValueMapDecorator(properties);
+            this.properties = properties;
+        }
+
+        @Override
+        public final ValueMap getValueMap() {
+            return this.properties;
         }
 
         @Override
@@ -195,4 +392,25 @@ public class SampleResourceProvider extends ResourceProvider<Object> {
             return (AdapterType) this.properties;
         }
     }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Resource Provider")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Cache enabled",
+                description = "Cache resolved resources per ResourceResolver."
+        )
+        boolean cache_enabled() default false;
+
+        @AttributeDefinition(
+                name = "Cache max size",
+                description = "The maximum number of resources cached per ResourceResolver; least recently used resources are evicted first."
+        )
+        int cache_max_size() default 1000;
+
+        @AttributeDefinition(
+                name = "Cache TTL",
+                description = "The time in milliseconds a cached resource is served before it is resolved again."
+        )
+        long cache_ttl() default 60000;
+    }
 }
@@ -0,0 +1,41 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.resourceproviders.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+/**
+ * The JMX management interface for the SampleResourceProvider's resource cache; see it under com.adobe.acs.samples
+ * in the Felix Web Console's JMX tab (/system/console/jmx) or any JMX client.
+ */
+@Description("ACS AEM Samples - Sample Resource Provider")
+public interface SampleResourceProviderMBean {
+
+    @Description("True if resolved resources are cached per ResourceResolver")
+    boolean isCacheEnabled();
+
+    @Description("The number of resources served from a cache, across all ResourceResolvers")
+    long getCacheHits();
+
+    @Description("The number of resources that had to be built while caching was enabled")
+    long getCacheMisses();
+}
@@ -0,0 +1,222 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2016 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.resources;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A parallel variant of the SampleResourceVisitor, for counting resources of a node type under very large trees
+ * (ex. dam:Assets under a DAM with millions of assets).
+ *
+ * The tree is walked depth-first on a ForkJoinPool. A task walks the tree on its own thread until it has visited the
+ * fork threshold number of resources; it then stops and hands the sub-trees it has not walked yet off as new tasks,
+ * in batches of the batch size, which the pool distributes across its threads. Forking depends on the amount of work
+ * a task has done rather than on how many children a resource has, so deep, narrow trees are split just like wide ones.
+ *
+ * ResourceResolvers are NOT thread-safe, so each task obtains its own service ResourceResolver, and closes it before
+ * forking any sub-tasks. Since each ResourceResolver holds a repository session, the number of ResourceResolvers open
+ * at once is capped via a Semaphore. Tasks never wait on other tasks while holding a ResourceResolver, so the cap
+ * cannot deadlock the pool.
+ *
+ * This can be called like so...
+ *
+ * SampleParallelResourceVisitor visitor = new SampleParallelResourceVisitor(resourceResolverFactory, "sample-service",
+ *      "dam:Asset", 10000, 100, 4, 4);
+ *
+ * long count = visitor.count("/content/dam");
+ */
+public class SampleParallelResourceVisitor {
+    private static final Logger log = LoggerFactory.getLogger(SampleParallelResourceVisitor.class);
+
+    private final ResourceResolverFactory resourceResolverFactory;
+    private final Map<String, Object> authInfo;
+    private final String nodeType;
+    private final int forkThreshold;
+    private final int batchSize;
+    private final int parallelism;
+    private final Semaphore resourceResolvers;
+
+    /**
+     * @param resourceResolverFactory the factory to obtain a service ResourceResolver per task from
+     * @param subService the sub-service name the service user is mapped to; it must be able to read the whole tree
+     * @param nodeType the node type to count. Also do not traverse nodes under this.
+     * @param forkThreshold the number of resources a task visits before it forks the rest of its sub-trees; as each
+     *                      task opens a ResourceResolver, this should be large enough to outweigh that cost
+     * @param batchSize the number of sub-tree paths handed to each forked task
+     * @param maxResourceResolvers the maximum number of ResourceResolvers open at once
+     * @param parallelism the number of threads to traverse with
+     */
+    public SampleParallelResourceVisitor(final ResourceResolverFactory resourceResolverFactory,
+                                         final String subService,
+                                         final String nodeType,
+                                         final int forkThreshold,
+                                         final int batchSize,
+                                         final int maxResourceResolvers,
+                                         final int parallelism) {
+        this.resourceResolverFactory = resourceResolverFactory;
+        this.authInfo = Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, (Object) subService);
+        this.nodeType = nodeType;
+        this.forkThreshold = Math.max(1, forkThreshold);
+        this.batchSize = Math.max(1, batchSize);
+        this.resourceResolvers = new Semaphore(Math.max(1, maxResourceResolvers));
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Counts the resources of the node type at and under the root path. This blocks until the traversal completes.
+     *
+     * This can be called concurrently; each call counts into its own accumulator.
+     *
+     * @param rootPath the path of the tree to count
+     * @return the number of resources of the node type
+     * @throws LoginException if a service ResourceResolver could not be obtained
+     */
+    public long count(final String rootPath) throws LoginException {
+        // LongAdder is a thread-safe counter that does not contend on a single value when many threads increment it.
+        final LongAdder count = new LongAdder();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            pool.invoke(new SubtreeTask(Collections.singletonList(rootPath), count));
+        } catch (ServiceLoginException e) {
+            throw e.getLoginException();
+        } finally {
+            pool.shutdown();
+        }
+
+        return count.sum();
+    }
+
+    /**
+     * Traverses the trees at a list of paths.
+     */
+    private final class SubtreeTask extends RecursiveAction {
+        private final List<String> paths;
+        private final LongAdder count;
+
+        private SubtreeTask(final List<String> paths, final LongAdder count) {
+            this.paths = paths;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            final List<String> forks = new ArrayList<String>();
+
+            resourceResolvers.acquireUninterruptibly();
+            try (ResourceResolver resourceResolver = resourceResolverFactory.getServiceResourceResolver(authInfo)) {
+                traverse(resourceResolver, forks);
+            } catch (LoginException e) {
+                throw new ServiceLoginException(e);
+            } finally {
+                resourceResolvers.release();
+            }
+
+            // The ResourceResolver is closed and the permit released BEFORE forking, so this task does not hold a
+            // ResourceResolver while it waits for its sub-tasks.
+            if (!forks.isEmpty()) {
+                final List<SubtreeTask> tasks = new ArrayList<SubtreeTask>();
+
+                for (int i = 0; i < forks.size(); i += batchSize) {
+                    tasks.add(new SubtreeTask(forks.subList(i, Math.min(i + batchSize, forks.size())), count));
+                }
+
+                invokeAll(tasks);
+            }
+        }
+
+        /**
+         * Depth-first traversal on the current thread, until forkThreshold resources have been visited; the paths of
+         * the sub-trees not walked by then are added to forks.
+         */
+        private void traverse(final ResourceResolver resourceResolver, final List<String> forks) {
+            // An explicit stack rather than recursion, so the traversal can stop at any point and hand off the rest.
+            final Deque<Resource> stack = new ArrayDeque<Resource>();
+
+            for (final String path : paths) {
+                final Resource resource = resourceResolver.getResource(path);
+
+                if (resource != null) {
+                    stack.push(resource);
+                }
+            }
+
+            int visited = 0;
+
+            while (!stack.isEmpty()) {
+                if (visited >= forkThreshold) {
+                    // Hand the remaining sub-trees off by path, as Resources are bound to this task's ResourceResolver.
+                    while (!stack.isEmpty()) {
+                        forks.add(stack.pop().getPath());
+                    }
+
+                    log.debug("Forking [ {} ] sub-trees after visiting [ {} ] resources", forks.size(), visited);
+                    return;
+                }
+
+                final Resource resource = stack.pop();
+                visited++;
+
+                if (StringUtils.equals(nodeType, resource.getValueMap().get("jcr:primaryType", String.class))) {
+                    // Count it, and do not traverse under it.
+                    count.increment();
+                    continue;
+                }
+
+                final Iterator<Resource> children = resource.listChildren();
+                while (children.hasNext()) {
+                    stack.push(children.next());
+                }
+            }
+        }
+    }
+
+    /**
+     * Carries a LoginException out of a ForkJoin task, as tasks cannot throw checked exceptions.
+     */
+    private static final class ServiceLoginException extends RuntimeException {
+        private ServiceLoginException(final LoginException cause) {
+            super(cause);
+        }
+
+        private LoginException getLoginException() {
+            return (LoginException) getCause();
+        }
+    }
+}
@@ -23,9 +23,31 @@ package com.adobe.acs.samples.resources;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.AbstractResourceVisitor;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.Pattern;
+
 
 /**
  * JavaDocs: https://docs.adobe.com/content/docs/en/cq/5-6-1/javadoc/index.html?org/apache/sling/api/resource/AbstractResourceVisitor.html
@@ -45,14 +67,80 @@ import org.slf4j.LoggerFactory;
  * srv.accept(rootResource);
  * srv.getCount();
  *
+ * Long running traversals can be limited by a node, time and/or depth budget. If the node or time budget runs out,
+ * the traversal stops and a Checkpoint is saved, from which a later run (ex. in the next maintenance window, with a new
+ * ResourceResolver) can continue:
+ *
+ * SampleResourceVisitor srv = new SampleResourceVisitor("dam:Asset");
+ * srv.setNodeBudget(100000);
+ * srv.setTimeBudget(TimeUnit.MINUTES.toMillis(10));
+ *
+ * srv.accept(rootResource);
+ *
+ * if (srv.getCheckpoint() != null) {
+ *     // Persist the checkpoint (it is Serializable) and later...
+ *     srv.resume(resourceResolver, checkpoint);
+ * }
+ *
+ * Sub-trees that are known to be of no interest can be pruned by node type and/or path glob (where * matches within a
+ * path segment, and ** matches across segments; a trailing /** also matches the path before it, so /a/** prunes /a and
+ * everything under it); pruned resources are neither visited nor traversed:
+ *
+ * srv.setPrunedNodeTypes("rep:ACL", "cq:PageContent");
+ * srv.setPrunedPathGlobs("/content/dam/archive/**", "/content/dam/projects/tmp-*");
+ *
+ * When only a count is needed, count(..) picks the cheapest strategy: it traverses up to a number of resources to
+ * estimate the size of the tree, and if the tree is larger than that and an Oak index covers the node type, it asks the
+ * index via JCR-SQL2 queries for the rest, instead of traversing it:
+ *
+ * int count = srv.count(rootResource, 10000);
+ * srv.getStrategy(); // TRAVERSAL or QUERY
  */
 public class SampleResourceVisitor extends AbstractResourceVisitor {
     private static final Logger log = LoggerFactory.getLogger(SampleResourceVisitor.class);
 
+    // Budget value meaning "no limit"
+    public static final long UNLIMITED = -1;
+
+    // count(..) issues up to one query per sub-tree the probe did not reach; beyond this many, traversing is cheaper
+    private static final int MAX_QUERIES = 1000;
+
     private int count = 0;
 
     private String nodeType = "dam:Asset";
 
+    private long nodeBudget = UNLIMITED;
+    private long timeBudget = UNLIMITED;
+    private long depthBudget = UNLIMITED;
+
+    private Checkpoint checkpoint;
+
+    private Strategy strategy;
+
+    private TypeLookup typeLookup = TypeLookup.NODE;
+    private Set<String> prunedNodeTypes = Collections.emptySet();
+    private List<Pattern> prunedPaths = Collections.emptyList();
+
+    // The resource being visited by the traversal, and its primary type, so visit(Resource) does not read it again
+    private Resource visiting;
+    private String visitingPrimaryType;
+
+    /**
+     * How the primary type of each resource is determined.
+     */
+    public enum TypeLookup {
+        /**
+         * Read the primary type from the JCR Node's type metadata (falling back to the ValueMap for non-JCR
+         * resources). This avoids building a ValueMap for every node in the traversal.
+         *
+         * Note: Resource.getResourceType() would be cheaper still, but it returns the sling:resourceType if one is set,
+         * so it is only equal to the primary type for nodes without one.
+         */
+        NODE,
+        /** Read the jcr:primaryType property via the resource's ValueMap. */
+        VALUE_MAP
+    }
+
     /**
      * A custom cstor is not required but allows you to pass in state used by the visitor.
      * Common examples are passing in Writers that collect data written during the traversal.
@@ -72,6 +160,83 @@ public class SampleResourceVisitor extends AbstractResourceVisitor {
         return this.count;
     }
 
+    /**
+     * @param nodeBudget the maximum number of resources to visit per accept(..)/resume(..) call, or UNLIMITED
+     */
+    public final void setNodeBudget(final long nodeBudget) {
+        this.nodeBudget = nodeBudget;
+    }
+
+    /**
+     * @param timeBudget the maximum time in milliseconds to traverse for per accept(..)/resume(..) call, or UNLIMITED
+     */
+    public final void setTimeBudget(final long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Resources deeper than the depth budget (relative to the resource passed to accept(..), which is at depth 0) are
+     * not traversed. Unlike the node and time budgets, this prunes the traversal rather than stopping it.
+     *
+     * @param depthBudget the maximum depth to traverse to, or UNLIMITED
+     */
+    public final void setDepthBudget(final long depthBudget) {
+        this.depthBudget = depthBudget;
+    }
+
+    /**
+     * The strategy count(..) used.
+     */
+    public enum Strategy {
+        /** The count was collected by traversing the tree */
+        TRAVERSAL,
+        /** The count was read from an Oak index via a JCR-SQL2 query */
+        QUERY
+    }
+
+    /**
+     * @return the strategy the last count(..) used, or null if count(..) has not been called.
+     */
+    public final Strategy getStrategy() {
+        return this.strategy;
+    }
+
+    /**
+     * @param typeLookup how to determine the primary type of each resource
+     */
+    public final void setTypeLookup(final TypeLookup typeLookup) {
+        this.typeLookup = typeLookup;
+    }
+
+    /**
+     * @param nodeTypes resources of these primary types are not visited, and their sub-trees are not traversed
+     */
+    public final void setPrunedNodeTypes(final String... nodeTypes) {
+        final Set<String> types = new HashSet<String>();
+        Collections.addAll(types, nodeTypes);
+        this.prunedNodeTypes = types;
+    }
+
+    /**
+     * @param globs resources whose paths match any of these globs are not visited, and their sub-trees are not traversed
+     */
+    public final void setPrunedPathGlobs(final String... globs) {
+        final List<Pattern> patterns = new ArrayList<Pattern>();
+
+        for (final String glob : globs) {
+            patterns.add(toPattern(glob));
+        }
+
+        this.prunedPaths = patterns;
+    }
+
+    /**
+     * @return the checkpoint saved when the last accept(..)/resume(..) ran out of budget, or null if it completed.
+     */
+    public final Checkpoint getCheckpoint() {
+        return this.checkpoint;
+    }
+
     /**
      * The accept(..) method is the entry point to the visitor.
      *
@@ -81,6 +246,9 @@ public class SampleResourceVisitor extends AbstractResourceVisitor {
      * certain sub-trees aren't of interest. For example, if you are traversing and collecting all Assets, you know
      * that nothing under dam:Asset is of interest to you.
      *
+     * This implementation walks the tree iteratively (rather than recursively via traverseChildren(..)), keeping a
+     * stack of the pending siblings at each level; this is what allows the traversal to stop and be resumed.
+     *
      * @param resource the resource
      */
     @Override
@@ -88,19 +256,406 @@ public class SampleResourceVisitor extends AbstractResourceVisitor {
         // Don't try to traverse null resources
         if (resource == null) { return; }
 
-        // Visit the resource to work; typically the check if work should be done is in visit(..) and not in here in
-        // accept(..)
-        this.visit(resource);
+        final Deque<Iterator<Resource>> pending = new ArrayDeque<Iterator<Resource>>();
+        pending.push(Collections.singletonList(resource).iterator());
+
+        this.traverse(pending, null);
+    }
+
+    /**
+     * Continues a traversal from a checkpoint saved by a previous accept(..) or resume(..).
+     *
+     * Pending resources are resolved (by path) via the provided ResourceResolver; resources that no longer exist are
+     * skipped.
+     *
+     * @param resourceResolver the resource resolver to resolve the pending resources with
+     * @param checkpoint the checkpoint to continue from
+     */
+    public void resume(final ResourceResolver resourceResolver, final Checkpoint checkpoint) {
+        final Deque<Iterator<Resource>> pending = new ArrayDeque<Iterator<Resource>>();
+
+        // The levels are stored from the root down, so pushing them in order puts the deepest level on top.
+        for (final List<String> siblings : checkpoint.getPendingSiblings()) {
+            pending.push(new PathIterator(resourceResolver, siblings));
+        }
+
+        this.count = checkpoint.getCount();
+        this.traverse(pending, checkpoint.getLastVisitedPath());
+    }
+
+    /**
+     * Counts the resources of the node type at and under the root, choosing between traversing the tree and querying an
+     * Oak index.
+     *
+     * The tree is traversed for up to probeSize resources. If the traversal completes within that, the tree is small and
+     * its count is returned. Otherwise, if an Oak index covers the node type under the root, the sub-trees the probe did
+     * not reach are counted via queries, and added to the probe's count; if not, the traversal continues from where the
+     * probe stopped. Queries are only considered if no pruning or depth budget is set, as a query cannot apply them, and
+     * if the probe left few enough sub-trees that one query each is cheaper than traversing them.
+     *
+     * Both strategies count the same resources: those whose primary type is the node type, and that are not under
+     * another such resource (as the traversal does not traverse under them).
+     *
+     * Note: this ignores the node and time budgets.
+     *
+     * @param root the root of the tree to count
+     * @param probeSize the number of resources to traverse before considering a query
+     * @return the number of resources of the node type
+     */
+    public int count(final Resource root, final long probeSize) {
+        if (root == null) { return 0; }
+
+        final long originalNodeBudget = this.nodeBudget;
+        final long originalTimeBudget = this.timeBudget;
+
+        this.count = 0;
+        this.strategy = Strategy.TRAVERSAL;
+
+        try {
+            this.nodeBudget = probeSize;
+            this.timeBudget = UNLIMITED;
+            this.accept(root);
+
+            final Checkpoint probe = this.checkpoint;
+
+            if (probe == null) {
+                // The whole tree was traversed within the probe
+                return this.count;
+            }
+
+            final boolean queryable = depthBudget == UNLIMITED && prunedNodeTypes.isEmpty() && prunedPaths.isEmpty()
+                    && countPending(probe) <= MAX_QUERIES;
+
+            if (queryable && this.hasIndex(root.getResourceResolver(), root.getPath())) {
+                try {
+                    this.count = probe.getCount() + this.countByQuery(root.getResourceResolver(), probe);
+                    this.strategy = Strategy.QUERY;
+                    this.checkpoint = null;
+                    return this.count;
+                } catch (RepositoryException e) {
+                    log.warn("Could not count [ {} ] under [ {} ] via a query; traversing instead",
+                            nodeType, root.getPath(), e);
+                }
+            }
+
+            // Keep traversing from where the probe stopped
+            this.nodeBudget = UNLIMITED;
+            this.resume(root.getResourceResolver(), probe);
+            return this.count;
+        } finally {
+            this.nodeBudget = originalNodeBudget;
+            this.timeBudget = originalTimeBudget;
+        }
+    }
+
+    /**
+     * Checks for an enabled Oak index that can answer "all nodes of the node type under the root": either a property
+     * index on jcr:primaryType declaring the node type (such as the default nodetype index), or a Lucene index with an
+     * index rule for the node type. The index must also cover the whole tree under the root, as per its includedPaths,
+     * excludedPaths and (for Lucene) queryPaths. Note: the ResourceResolver must be able to read /oak:index, otherwise
+     * this returns false.
+     */
+    private boolean hasIndex(final ResourceResolver resourceResolver, final String rootPath) {
+        final Resource indexes = resourceResolver.getResource("/oak:index");
+
+        if (indexes == null) {
+            return false;
+        }
+
+        for (final Resource index : indexes.getChildren()) {
+            final ValueMap properties = index.getValueMap();
+            final String type = properties.get("type", String.class);
+
+            final boolean answers;
+            if ("property".equals(type)) {
+                answers = contains(properties.get("propertyNames", String[].class), "jcr:primaryType")
+                        && contains(properties.get("declaringNodeTypes", String[].class), nodeType);
+            } else if ("lucene".equals(type)) {
+                answers = index.getChild("indexRules/" + nodeType) != null
+                        && isUnderAny(rootPath, properties.get("queryPaths", String[].class));
+            } else {
+                answers = false;
+            }
+
+            if (answers
+                    && isUnderAny(rootPath, properties.get("includedPaths", String[].class))
+                    && !overlapsAny(rootPath, properties.get("excludedPaths", String[].class))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Counts the resources of the node type in the sub-trees a probe did not reach: each pending resource is checked
+     * itself, and the descendants of those that are not of the node type are queried.
+     */
+    private int countByQuery(final ResourceResolver resourceResolver, final Checkpoint probe) throws RepositoryException {
+        final Session session = resourceResolver.adaptTo(Session.class);
+
+        if (session == null) {
+            throw new RepositoryException("The root resource is not backed by a JCR Session");
+        }
+
+        int total = 0;
+
+        for (final List<String> siblings : probe.getPendingSiblings()) {
+            for (final String path : siblings) {
+                final Resource resource = resourceResolver.getResource(path);
+
+                if (resource == null) {
+                    continue;
+                } else if (StringUtils.equals(nodeType, this.getPrimaryType(resource))) {
+                    // Counted, and (as when traversing) not looked under
+                    total++;
+                } else {
+                    total += this.countDescendantsByQuery(session, path);
+                }
+            }
+        }
+
+        return total;
+    }
+
+    private int countDescendantsByQuery(final Session session, final String path) throws RepositoryException {
+        final String statement = "SELECT [jcr:path] FROM [" + nodeType + "] AS n WHERE ISDESCENDANTNODE(n, '"
+                + path.replace("'", "''") + "')";
+
+        final NodeIterator nodes = session.getWorkspace().getQueryManager()
+                .createQuery(statement, Query.JCR_SQL2).execute().getNodes();
+
+        // Whether each ancestor folder is (or is under) a resource of the node type. Many hits share the same few
+        // ancestors, so this is far smaller than the number of hits.
+        final Map<String, Boolean> matchedAncestors = new HashMap<String, Boolean>();
+        int total = 0;
+
+        while (nodes.hasNext()) {
+            final Node node = nodes.nextNode();
+
+            // The query also returns sub-types, and resources under other resources of the node type; the traversal
+            // counts neither.
+            if (StringUtils.equals(nodeType, node.getPrimaryNodeType().getName())
+                    && !this.isUnderMatch(session, StringUtils.substringBeforeLast(node.getPath(), "/"), path,
+                    matchedAncestors)) {
+                total++;
+            }
+        }
+
+        return total;
+    }
+
+    private boolean isUnderMatch(final Session session, final String path, final String root,
+                                 final Map<String, Boolean> matchedAncestors) throws RepositoryException {
+        if (path.length() <= root.length()) {
+            // The query root and its ancestors were checked by countByQuery(..)
+            return false;
+        }
+
+        final Boolean known = matchedAncestors.get(path);
+        if (known != null) {
+            return known;
+        }
+
+        final boolean matched = (session.nodeExists(path)
+                && StringUtils.equals(nodeType, session.getNode(path).getPrimaryNodeType().getName()))
+                || this.isUnderMatch(session, StringUtils.substringBeforeLast(path, "/"), root, matchedAncestors);
+
+        matchedAncestors.put(path, matched);
+        return matched;
+    }
+
+    private static int countPending(final Checkpoint checkpoint) {
+        int pending = 0;
+
+        for (final List<String> siblings : checkpoint.getPendingSiblings()) {
+            pending += siblings.size();
+        }
+
+        return pending;
+    }
+
+    /**
+     * @return true if there are no paths (so no restriction), or the path is at or under one of them
+     */
+    private static boolean isUnderAny(final String path, final String[] paths) {
+        if (paths == null || paths.length == 0) {
+            return true;
+        }
+
+        for (final String candidate : paths) {
+            if (isSameOrDescendant(path, candidate)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if any of the paths is at, under or above the path
+     */
+    private static boolean overlapsAny(final String path, final String[] paths) {
+        if (paths != null) {
+            for (final String candidate : paths) {
+                if (isSameOrDescendant(path, candidate) || isSameOrDescendant(candidate, path)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isSameOrDescendant(final String path, final String ancestor) {
+        return path.equals(ancestor) || "/".equals(ancestor) || path.startsWith(ancestor + "/");
+    }
+
+    private static boolean contains(final String[] values, final String value) {
+        return values != null && Arrays.asList(values).contains(value);
+    }
+
+    private void traverse(final Deque<Iterator<Resource>> pending, final String resumedFrom) {
+        final long startedAt = System.currentTimeMillis();
+        long visited = 0;
+        String lastVisitedPath = resumedFrom;
+
+        this.checkpoint = null;
+
+        while (!pending.isEmpty()) {
+            final Iterator<Resource> siblings = pending.peek();
+
+            if (!siblings.hasNext()) {
+                // Done with this level
+                pending.pop();
+                continue;
+            }
+
+            if ((nodeBudget != UNLIMITED && visited >= nodeBudget)
+                    || (timeBudget != UNLIMITED && System.currentTimeMillis() - startedAt >= timeBudget)) {
+                this.checkpoint = new Checkpoint(lastVisitedPath, toPaths(pending), this.count);
+                log.info("Traversal budget exhausted after visiting [ {} ] resources; stopped after [ {} ]",
+                        visited, lastVisitedPath);
+                return;
+            }
+
+            final Resource resource = siblings.next();
+            lastVisitedPath = resource.getPath();
+
+            // Read the type ONCE per resource; it is used to prune, visit and decide whether to traverse.
+            final String primaryType = this.getPrimaryType(resource);
+
+            if (this.isPruned(lastVisitedPath, primaryType)) {
+                continue;
+            }
+
+            // Visit the resource to work; typically the check if work should be done is in visit(..) and not in here in
+            // accept(..). This goes through visit(Resource), so subclasses overriding either visit(..) are called.
+            this.visiting = resource;
+            this.visitingPrimaryType = primaryType;
+            try {
+                this.visit(resource);
+            } finally {
+                this.visiting = null;
+                this.visitingPrimaryType = null;
+            }
+            visited++;
+
+            // Check if the current resource's sub-tree should be traversed. The resource is at depth (pending.size() - 1)
+            // so its children are at depth pending.size().
+            if (!StringUtils.equals(this.nodeType, primaryType)
+                    && (depthBudget == UNLIMITED || pending.size() <= depthBudget)) {
+                // in this case, the resource's type is not a dam:Asset (so its probably a sling:OrderFolder) so keep
+                // traversing to look for dam:Assets
+                pending.push(resource.listChildren());
+            } else {
+                // The resource is a dam:Asset so we know we dont need to traverse its children as this is the lowest
+                // level we want to go (or the depth budget has been reached).
+            }
+        }
+    }
+
+    private String getPrimaryType(final Resource resource) {
+        if (typeLookup == TypeLookup.NODE) {
+            // For JCR-backed resources this returns the Node the resource already holds
+            final Node node = resource.adaptTo(Node.class);
+
+            if (node != null) {
+                try {
+                    return node.getPrimaryNodeType().getName();
+                } catch (RepositoryException e) {
+                    log.warn("Could not read the primary type of [ {} ] from its node", resource.getPath(), e);
+                }
+            }
+        }
+
+        return resource.getValueMap().get("jcr:primaryType", String.class);
+    }
+
+    private boolean isPruned(final String path, final String primaryType) {
+        if (primaryType != null && prunedNodeTypes.contains(primaryType)) {
+            return true;
+        }
+
+        for (final Pattern pattern : prunedPaths) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Converts a path glob to a regex; ** matches anything (including /), * and ? match within a single path segment.
+     * A trailing /** also matches the path without it, so the root of the sub-tree is pruned along with its descendants.
+     */
+    private static Pattern toPattern(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        final boolean subTree = glob.endsWith("/**");
+        final int length = subTree ? glob.length() - "/**".length() : glob.length();
+
+        for (int i = 0; i < length; i++) {
+            final char c = glob.charAt(i);
+
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        if (subTree) {
+            regex.append("(?:/.*)?");
+        }
+
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Drains the pending sibling iterators into paths, ordered from the root level down.
+     */
+    private static List<List<String>> toPaths(final Deque<Iterator<Resource>> pending) {
+        final List<List<String>> levels = new ArrayList<List<String>>();
+        final Iterator<Iterator<Resource>> fromRoot = pending.descendingIterator();
+
+        while (fromRoot.hasNext()) {
+            final Iterator<Resource> siblings = fromRoot.next();
+            final List<String> paths = new ArrayList<String>();
+
+            while (siblings.hasNext()) {
+                paths.add(siblings.next().getPath());
+            }
 
-        // Check if the current resource's sub-tree should be traversed.
-        if (!StringUtils.equals(this.nodeType,resource.getValueMap().get("jcr:primaryType", String.class))) {
-            // in this case, the resource's type is not a dam:Asset (so its probably a sling:OrderFolder) so keep
-            // traversing to look for dam:Assets
-            this.traverseChildren(resource.listChildren());
-        } else {
-            // The resource is a dam:Asset so we know we dont need to traverse its children as this is the lowest
-            // level we want to go.
+            levels.add(Collections.unmodifiableList(paths));
         }
+
+        return Collections.unmodifiableList(levels);
     }
 
     /**
@@ -110,10 +665,86 @@ public class SampleResourceVisitor extends AbstractResourceVisitor {
      */
     @Override
     protected void visit(final Resource resource) {
-        if (StringUtils.equals(this.nodeType,resource.getValueMap().get("jcr:primaryType", String.class))) {
+        // During a traversal, the primary type has already been read to decide whether to prune the resource
+        this.visit(resource, resource == this.visiting ? this.visitingPrimaryType : this.getPrimaryType(resource));
+    }
+
+    /**
+     * Same as visit(..) but with the resource's primary type already looked up, so it is not read again. Called via
+     * visit(Resource), so overriding either method works.
+     *
+     * @param resource the resource
+     * @param primaryType the resource's primary type
+     */
+    protected void visit(final Resource resource, final String primaryType) {
+        if (StringUtils.equals(this.nodeType, primaryType)) {
             // Do some work with the resource... This can be anything.
             // In our case we simply increment our counter.
             this.count++;
         }
     }
+
+    /**
+     * A resumable position in a traversal: the last visited path, and the paths still to be visited at each level of
+     * the tree (from the root level down). This is Serializable so it can be persisted between runs.
+     */
+    public static final class Checkpoint implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String lastVisitedPath;
+        private final List<List<String>> pendingSiblings;
+        private final int count;
+
+        private Checkpoint(final String lastVisitedPath, final List<List<String>> pendingSiblings, final int count) {
+            this.lastVisitedPath = lastVisitedPath;
+            this.pendingSiblings = pendingSiblings;
+            this.count = count;
+        }
+
+        public String getLastVisitedPath() {
+            return lastVisitedPath;
+        }
+
+        public List<List<String>> getPendingSiblings() {
+            return pendingSiblings;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Lazily resolves pending paths when resuming; missing resources are skipped.
+     */
+    private static final class PathIterator implements Iterator<Resource> {
+        private final ResourceResolver resourceResolver;
+        private final Iterator<String> paths;
+        private Resource next;
+
+        private PathIterator(final ResourceResolver resourceResolver, final List<String> paths) {
+            this.resourceResolver = resourceResolver;
+            this.paths = paths.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && paths.hasNext()) {
+                next = resourceResolver.getResource(paths.next());
+            }
+
+            return next != null;
+        }
+
+        @Override
+        public Resource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final Resource resource = next;
+            next = null;
+            return resource;
+        }
+    }
 }
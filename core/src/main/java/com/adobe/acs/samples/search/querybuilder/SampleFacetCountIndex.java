@@ -0,0 +1,59 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder;
+
+import java.util.Map;
+
+/**
+ * Serves precomputed facet counts for configured (path, node type, property) facets, so facets over "every node of a
+ * type under a path" can be returned without reading every hit's values.
+ *
+ * Note: the counts are computed by a service user, so they cover nodes the querying user may not be allowed to read.
+ * Callers must only serve them to users who can read every counted node; the SampleFacetPredicateEvaluator does so by
+ * comparing the number of hits the user's query returned with getNodeCount().
+ */
+public interface SampleFacetCountIndex {
+
+    /**
+     * @param path the path all nodes are at or under
+     * @param nodeType the node type of the nodes (including its subtypes)
+     * @param propertyRelPath the (relative) path of the property whose values are counted
+     * @return the counts, or null if this facet is not configured, or its counts are not available yet
+     */
+    FacetCounts getCounts(String path, String nodeType, String propertyRelPath);
+
+    /**
+     * A consistent snapshot of the counts of one facet.
+     */
+    interface FacetCounts {
+
+        /**
+         * @return the number of nodes counted, including those without a value
+         */
+        int getNodeCount();
+
+        /**
+         * @return the number of nodes with each distinct value, in the order the values were first indexed
+         */
+        Map<String, Integer> getCounts();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder;
+
+import org.apache.sling.api.resource.ResourceResolver;
+
+import javax.jcr.RepositoryException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the distinct values of a property across a set of (search hit) nodes; the basis of a facet.
+ */
+public interface SampleFacetCounter {
+
+    /**
+     * Counts how many of the nodes have each distinct value of the property. A node with a multi-valued property
+     * counts once towards each of its distinct values; blank values are not counted.
+     *
+     * Large sets of paths may be read in parallel, each thread via its own clone of the ResourceResolver (and so its
+     * own JCR Session), so the ResourceResolver's user sees exactly the same nodes it would on the calling thread.
+     *
+     * @param resourceResolver the resource resolver to read the nodes with (or to clone for worker threads)
+     * @param paths the paths of the nodes
+     * @param propertyRelPath the (relative) path of the property to count the values of
+     * @return the count of each value, in the order the values were first seen
+     * @throws RepositoryException if the nodes could not be read
+     */
+    Map<String, Integer> count(ResourceResolver resourceResolver, List<String> paths, String propertyRelPath)
+            throws RepositoryException;
+}
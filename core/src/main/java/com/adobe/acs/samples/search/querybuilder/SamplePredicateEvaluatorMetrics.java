@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder;
+
+import java.util.Map;
+
+/**
+ * Collects metrics for filtering PredicateEvaluators, such as the SampleFilteringPredicateEvaluator.
+ *
+ * PredicateEvaluator methods are called very often (canFilter(..) several times per query, includes(..) once per
+ * candidate row), so logging from them floods the logs. Recording into counters costs next to nothing, and the
+ * counters can be read on demand; SamplePredicateEvaluatorMetricsMBeanImpl exposes them over JMX.
+ */
+public interface SamplePredicateEvaluatorMetrics {
+
+    /**
+     * Records that a predicate was compiled, which happens once per predicate (query), not once per canFilter(..)
+     * call.
+     *
+     * @param predicateType the predicate type, ex. "json"
+     * @param filterable whether the compiled predicate can filter
+     */
+    void recordCompiledPredicate(String predicateType, boolean filterable);
+
+    /**
+     * Records the filtering of one candidate row.
+     *
+     * @param predicateType the predicate type, ex. "json"
+     * @param included whether the row was included in the result
+     * @param nanos the time spent filtering the row, in nanoseconds
+     */
+    void recordRow(String predicateType, boolean included, long nanos);
+
+    /**
+     * @return a snapshot of the counters, by predicate type
+     */
+    Map<String, Counters> getCounters();
+
+    /**
+     * The counters of one predicate type.
+     */
+    interface Counters {
+
+        /**
+         * @return the number of predicates compiled
+         */
+        long getCompiledPredicates();
+
+        /**
+         * @return the number of compiled predicates that could filter
+         */
+        long getFilterablePredicates();
+
+        /**
+         * @return the number of candidate rows passed to includes(..)
+         */
+        long getRowsIn();
+
+        /**
+         * @return the number of candidate rows included in results
+         */
+        long getRowsOut();
+
+        /**
+         * @return the cumulative time spent in includes(..), in nanoseconds
+         */
+        long getFilterTimeNanos();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.search.querybuilder;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import javax.jcr.RepositoryException;
+import java.util.Map;
+
+/**
+ * Shared helper for executing QueryBuilder queries in a resource-friendly way.
+ */
+public interface SampleQueryHelper {
+
+    /**
+     * Executes the QueryBuilder query described by the predicates and hands each hit to the handler, one at a time.
+     *
+     * The query is executed once, and its results are iterated lazily in a single pass: each hit's resource is resolved
+     * only when the iteration reaches it, and no list of Hits is built, regardless of the size of the result set.
+     * As there is only one query, no hit is skipped or repeated, and the index never re-reads rows it already returned.
+     *
+     * Any p.offset in the predicates is applied once, as the number of hits to skip; p.limit and p.guessTotal are
+     * managed by this method.
+     *
+     * @param resourceResolver the resource resolver whose security context the query executes in
+     * @param predicates the QueryBuilder predicates
+     * @param handler the handler each hit is passed to
+     * @return the number of hits passed to the handler
+     * @throws RepositoryException if the hits could not be read
+     */
+    long stream(ResourceResolver resourceResolver, Map<String, String> predicates, HitHandler handler)
+            throws RepositoryException;
+
+    /**
+     * Counts the hits of the QueryBuilder query described by the predicates, without loading any Hit objects.
+     *
+     * Whether the count is precise or estimated (via p.guessTotal, capped to a configured number of rows) is controlled
+     * by this service's OSGi configuration.
+     *
+     * @param resourceResolver the resource resolver whose security context the query executes in
+     * @param predicates the QueryBuilder predicates
+     * @return the count
+     * @throws RepositoryException if the query could not be executed
+     */
+    QueryCount count(ResourceResolver resourceResolver, Map<String, String> predicates) throws RepositoryException;
+
+    /**
+     * The result of count(..).
+     */
+    interface QueryCount {
+
+        /**
+         * @return the number of hits; if estimated, this is a lower bound
+         */
+        long getCount();
+
+        /**
+         * @return true if there are more hits than getCount() reports, as counting stopped at the configured cap
+         */
+        boolean isEstimated();
+    }
+
+    /**
+     * Callback for stream(..).
+     */
+    interface HitHandler {
+
+        /**
+         * @param resource the hit's resource. This is only valid for the duration of the call, as it belongs to the
+         *                 ResourceResolver QueryBuilder opens per query; re-resolve the path via your own
+         *                 ResourceResolver if the resource must outlive this call.
+         * @return true to continue with the next hit, false to stop processing the results
+         * @throws RepositoryException if the hit could not be read
+         */
+        boolean handle(Resource resource) throws RepositoryException;
+    }
+}
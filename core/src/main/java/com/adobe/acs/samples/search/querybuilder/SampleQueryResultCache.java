@@ -0,0 +1,76 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.search.querybuilder;
+
+import org.apache.sling.api.resource.ResourceResolver;
+
+import javax.jcr.RepositoryException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the results (hit paths and total) of QueryBuilder queries.
+ *
+ * Results are cached per canonicalized predicate map AND per set of principals of the calling user, so users with
+ * different access rights never share results. Cached results are invalidated when content under the query's
+ * "path" predicate changes; results of queries whose path is not observed for changes are not cached.
+ */
+public interface SampleQueryResultCache {
+
+    /**
+     * @param resourceResolver the resource resolver whose security context the query executes in
+     * @param predicates the QueryBuilder predicates
+     * @return the (possibly cached) result of the query
+     * @throws RepositoryException if the query could not be executed
+     */
+    CachedResult getResult(ResourceResolver resourceResolver, Map<String, String> predicates) throws RepositoryException;
+
+    /**
+     * @return the number of results served from the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of results that had to be queried
+     */
+    long getMissCount();
+
+    /**
+     * @return the number of results removed from the cache due to size limits, expiry or content changes
+     */
+    long getEvictionCount();
+
+    /**
+     * An immutable query result.
+     */
+    interface CachedResult {
+
+        /**
+         * @return the paths of the hits of the requested result page (as per p.offset/p.limit)
+         */
+        List<String> getPaths();
+
+        /**
+         * @return the total number of matches, as reported by SearchResult.getTotalMatches()
+         */
+        long getTotalMatches();
+    }
+}
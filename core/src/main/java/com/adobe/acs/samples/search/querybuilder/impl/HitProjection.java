@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.day.cq.search.Query;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.io.JSONWriter;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled list of the (relative) properties to write for each hit, ex. "jcr:content/jcr:title jcr:content/cq:tags".
+ *
+ * The properties are grouped by the relative path of the node they are on ("" for the hit node itself), so each
+ * related node is resolved once per hit, and all of its properties are read from it via the JCR Node API.
+ *
+ * Instances are immutable and thread-safe.
+ */
+final class HitProjection {
+    // The QueryBuilder predicate group parameter holding p.properties
+    private static final String PROPERTIES_PARAM = "properties";
+
+    private final Map<String, List<String[]>> propertiesByNode;
+
+    private HitProjection(final Map<String, List<String[]>> propertiesByNode) {
+        this.propertiesByNode = propertiesByNode;
+    }
+
+    /**
+     * @param properties space-separated relative property paths, as in p.properties
+     * @return the compiled projection
+     */
+    static HitProjection compile(final String properties) {
+        final Map<String, List<String[]>> propertiesByNode = new LinkedHashMap<String, List<String[]>>();
+
+        for (final String relPath : StringUtils.split(StringUtils.defaultString(properties))) {
+            final int slash = relPath.lastIndexOf('/');
+            final String nodePath = slash < 0 ? "" : relPath.substring(0, slash);
+
+            // { JSON key, property name }
+            propertiesByNode.computeIfAbsent(nodePath, key -> new ArrayList<String[]>())
+                    .add(new String[]{ relPath, relPath.substring(slash + 1) });
+        }
+
+        return new HitProjection(propertiesByNode);
+    }
+
+    /**
+     * @param properties space-separated relative property paths, as in p.properties; may be blank
+     * @param defaultProperties the relative property paths to use if properties is blank
+     * @return the compiled projection
+     */
+    static HitProjection compile(final String properties, final String[] defaultProperties) {
+        return compile(StringUtils.defaultIfBlank(properties, StringUtils.join(defaultProperties, " ")));
+    }
+
+    /**
+     * Writes the projected properties of the hit node as keys and values into the current JSON object; properties
+     * that do not exist are left out.
+     */
+    void write(final Node hitNode, final JSONWriter jsonWriter) throws RepositoryException, JSONException {
+        for (final Map.Entry<String, List<String[]>> entry : propertiesByNode.entrySet()) {
+            final String nodePath = entry.getKey();
+            final Node node;
+
+            if (nodePath.isEmpty()) {
+                node = hitNode;
+            } else if (hitNode.hasNode(nodePath)) {
+                node = hitNode.getNode(nodePath);
+            } else {
+                // The related node does not exist; none of its properties are written
+                continue;
+            }
+
+            for (final String[] property : entry.getValue()) {
+                if (node.hasProperty(property[1])) {
+                    jsonWriter.key(property[0]);
+                    writeValue(node.getProperty(property[1]), jsonWriter);
+                }
+            }
+        }
+    }
+
+    private static void writeValue(final Property property, final JSONWriter jsonWriter)
+            throws RepositoryException, JSONException {
+        if (property.isMultiple()) {
+            jsonWriter.array();
+            for (final Value value : property.getValues()) {
+                jsonWriter.value(value.getString());
+            }
+            jsonWriter.endArray();
+        } else {
+            jsonWriter.value(property.getString());
+        }
+    }
+
+    /**
+     * Compiles the projection of a query's p.properties once, for ResultHitWriters, which are handed the query along
+     * with every hit. Like the hit writer instances that hold them, instances are not thread-safe.
+     */
+    static final class PerQuery {
+        private final String[] defaultProperties;
+
+        private Query compiledFor;
+        private HitProjection projection;
+
+        /**
+         * @param defaultProperties the relative property paths to use for queries without p.properties
+         */
+        PerQuery(final String[] defaultProperties) {
+            this.defaultProperties = defaultProperties;
+        }
+
+        HitProjection get(final Query query) {
+            if (projection == null || compiledFor != query) {
+                projection = compile(query.getPredicates().get(PROPERTIES_PARAM), defaultProperties);
+                compiledFor = query;
+            }
+
+            return projection;
+        }
+    }
+}
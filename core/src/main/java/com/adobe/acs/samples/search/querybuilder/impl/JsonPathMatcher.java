@@ -0,0 +1,367 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.commons.json.JSONException;
+
+/**
+ * The json predicate's parameters (property, key and value), compiled once so they can be applied to many rows.
+ *
+ * The key may be a dotted path into nested JSON objects, ex. "a.b.c" matches {"a":{"b":{"c":"value"}}}. A key
+ * containing dots is first looked up as a literal top-level member name (ex. {"a.b.c":"value"}), and only if there is
+ * no such member, as a path.
+ *
+ * Rather than building a JSONObject for the whole property value, the JSON is scanned in place: members whose names
+ * do not match the next key segment are skipped without being materialized, and scanning stops as soon as the value
+ * at the key path is found. Only the matched value is ever turned into a String.
+ *
+ * Compared to parsing the whole JSON into a JSONObject, this means:
+ * - Objects and arrays never match. A JSONObject would compare their re-serialized form, which depends on the JSON
+ *   library's key order and formatting, so such matches were not reliable anyway.
+ * - The JSON is only checked for errors up to the matched value; malformed JSON after it is not detected, and the row
+ *   matches as long as the value before the error does.
+ *
+ * Instances are immutable and thread-safe.
+ */
+final class JsonPathMatcher {
+    private final String property;
+    private final String keyPath;
+    private final String[] keys;
+    private final String value;
+    private final boolean filterable;
+
+    JsonPathMatcher(final String property, final String keyPath, final String value) {
+        this.property = property;
+        this.keyPath = keyPath;
+        this.keys = StringUtils.split(keyPath, '.');
+        this.value = value;
+        this.filterable = StringUtils.isNotBlank(property) && StringUtils.isNotBlank(keyPath)
+                && StringUtils.isNotBlank(value);
+    }
+
+    /**
+     * @return true if all of property, key and value were provided, so rows can be filtered
+     */
+    boolean isFilterable() {
+        return filterable;
+    }
+
+    /**
+     * @return the name of the property holding the JSON
+     */
+    String getProperty() {
+        return property;
+    }
+
+    /**
+     * @return the (possibly dotted) key path, as provided to the predicate
+     */
+    String getKeyPath() {
+        return keyPath;
+    }
+
+    /**
+     * @return the value to match
+     */
+    String getValue() {
+        return value;
+    }
+
+    /**
+     * @param extracted a value returned by extract(..)
+     * @return true if the extracted value is the value to match
+     */
+    boolean matches(final String extracted) {
+        return StringUtils.equals(value, extracted);
+    }
+
+    /**
+     * Finds the value at the key path.
+     *
+     * Strings are returned unescaped; numbers, true, false and null are returned as they are written in the JSON.
+     * Objects and arrays are never matched, so null is returned for them.
+     *
+     * @param json the JSON to scan
+     * @return the value at the key path, or null if there is none
+     * @throws JSONException if the JSON is malformed (up to the point where the value was found)
+     */
+    String extract(final String json) throws JSONException {
+        if (keys.length > 1) {
+            // A literal member named by the whole key takes precedence over the path
+            final Cursor literal = new Cursor(json);
+
+            if (literal.seekMember(keyPath)) {
+                return literal.readScalar();
+            }
+        }
+
+        final Cursor cursor = new Cursor(json);
+
+        for (final String key : keys) {
+            if (!cursor.seekMember(key)) {
+                return null;
+            }
+        }
+
+        return cursor.readScalar();
+    }
+
+    /**
+     * A forward-only position in a JSON string.
+     */
+    private static final class Cursor {
+        private final String json;
+        private int pos = 0;
+
+        private Cursor(final String json) {
+            this.json = json;
+        }
+
+        /**
+         * Expects an object at the current position, and moves to the value of its member named name.
+         *
+         * @return true if the member exists; false if the value at the position is not an object or has no such member
+         */
+        private boolean seekMember(final String name) throws JSONException {
+            skipWhitespace();
+
+            if (peek() != '{') {
+                return false;
+            }
+
+            pos++;
+            skipWhitespace();
+
+            if (peek() == '}') {
+                return false;
+            }
+
+            while (true) {
+                skipWhitespace();
+                expect('"');
+                final boolean found = readNameEquals(name);
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+
+                if (found) {
+                    return true;
+                }
+
+                skipValue();
+                skipWhitespace();
+
+                final char c = next();
+                if (c == '}') {
+                    return false;
+                } else if (c != ',') {
+                    throw error("Expected , or } but found " + c);
+                }
+            }
+        }
+
+        /**
+         * Reads a member name (the opening quote is already consumed) and compares it to name, without creating a
+         * String for it.
+         */
+        private boolean readNameEquals(final String name) throws JSONException {
+            int matched = 0;
+            boolean equal = true;
+
+            while (true) {
+                char c = next();
+
+                if (c == '"') {
+                    return equal && matched == name.length();
+                } else if (c == '\\') {
+                    c = readEscape();
+                }
+
+                if (equal) {
+                    equal = matched < name.length() && name.charAt(matched) == c;
+                    matched++;
+                }
+            }
+        }
+
+        private String readScalar() throws JSONException {
+            skipWhitespace();
+            final char c = peek();
+
+            if (c == '"') {
+                pos++;
+                return readString();
+            } else if (c == '{' || c == '[') {
+                return null;
+            }
+
+            final int start = pos;
+            skipLiteral();
+            return json.substring(start, pos);
+        }
+
+        private String readString() throws JSONException {
+            final int start = pos;
+
+            // Fast path: most strings have no escapes, so can be taken as a substring
+            while (pos < json.length()) {
+                final char c = json.charAt(pos);
+                if (c == '"') {
+                    return json.substring(start, pos++);
+                } else if (c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+
+            final StringBuilder sb = new StringBuilder(json.substring(start, pos));
+
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                } else if (c == '\\') {
+                    c = readEscape();
+                }
+                sb.append(c);
+            }
+        }
+
+        private char readEscape() throws JSONException {
+            final char c = next();
+
+            switch (c) {
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    if (pos + 4 > json.length()) {
+                        throw error("Unterminated unicode escape");
+                    }
+                    try {
+                        return (char) Integer.parseInt(json.substring(pos, pos += 4), 16);
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                default:
+                    // \" \\ \/
+                    return c;
+            }
+        }
+
+        private void skipValue() throws JSONException {
+            final char c = peek();
+
+            if (c == '"') {
+                pos++;
+                skipString();
+            } else if (c == '{' || c == '[') {
+                skipContainer();
+            } else {
+                skipLiteral();
+            }
+        }
+
+        private void skipString() throws JSONException {
+            while (true) {
+                final char c = next();
+                if (c == '"') {
+                    return;
+                } else if (c == '\\') {
+                    next();
+                }
+            }
+        }
+
+        /**
+         * Skips a whole object or array, tracking only the nesting depth (and strings, which may contain brackets).
+         */
+        private void skipContainer() throws JSONException {
+            int depth = 0;
+
+            do {
+                final char c = next();
+
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                } else if (c == '"') {
+                    skipString();
+                }
+            } while (depth > 0);
+        }
+
+        private void skipLiteral() throws JSONException {
+            final int start = pos;
+
+            while (pos < json.length()) {
+                final char c = json.charAt(pos);
+                if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                    break;
+                }
+                pos++;
+            }
+
+            if (pos == start) {
+                throw error("Expected a value");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() throws JSONException {
+            if (pos >= json.length()) {
+                throw error("Unexpected end of JSON");
+            }
+            return json.charAt(pos);
+        }
+
+        private char next() throws JSONException {
+            final char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(final char expected) throws JSONException {
+            final char c = next();
+            if (c != expected) {
+                throw error("Expected " + expected + " but found " + c);
+            }
+        }
+
+        private JSONException error(final String message) {
+            return new JSONException(message + " at character " + pos);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.util.BoundedCache;
+
+/**
+ * A bounded LRU cache of values extracted from JSON properties, so the same JSON is not scanned again by every query
+ * that filters on it.
+ *
+ * Keys include the node's last modified time, so a modified node misses the cache (and its stale entries age out).
+ * Note this relies on the last modified time being updated whenever the JSON property is written.
+ */
+final class JsonValueCache {
+    // This is read for every row of every json query, so it must not serialize them on a single lock
+    private final BoundedCache<String, Value> entries;
+
+    JsonValueCache(final int maxSize) {
+        this.entries = new BoundedCache<String, Value>(maxSize, 0);
+    }
+
+    /**
+     * @param path the path of the node holding the JSON
+     * @param lastModified the node's last modified time
+     * @param matcher the matcher the value was extracted by
+     * @return the cache key
+     */
+    static String key(final String path, final long lastModified, final JsonPathMatcher matcher) {
+        return path + '@' + lastModified + '/' + matcher.getProperty() + '/' + matcher.getKeyPath();
+    }
+
+    /**
+     * @return the cached value, or null if the key is not cached
+     */
+    Value get(final String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * @param value the extracted value; may be null if the JSON had no value at the key path
+     */
+    void put(final String key, final String value) {
+        entries.put(key, new Value(value));
+    }
+
+    /**
+     * Wraps extracted values, so a cached "no value" (null) can be told apart from a cache miss.
+     */
+    static final class Value {
+        private final String value;
+
+        private Value(final String value) {
+            this.value = value;
+        }
+
+        String get() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SampleFacetCountIndex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The materialized counts of one facet: the distinct values of a property across all nodes of a type at or under a
+ * path.
+ *
+ * Alongside the counts, the values of every node are kept, so a changed or removed node can be subtracted from the
+ * counts without reading anything from the repository.
+ *
+ * All methods are synchronized; updates are cheap (proportional to the number of values of the node) so contention
+ * is low.
+ */
+final class MaterializedFacet {
+    // Rebuild the counter map once this many of its values have a count of zero, and they are over half of it
+    private static final int MIN_ZEROS_TO_PRUNE = 64;
+
+    private final String path;
+    private final String nodeType;
+    private final String propertyRelPath;
+
+    // Sorted, so all the nodes under a removed path can be found with a range lookup.
+    private final NavigableMap<String, String[]> valuesByPath = new TreeMap<String, String[]>();
+    private StringIntOpenHashMap counts = new StringIntOpenHashMap();
+    private int zeros = 0;
+
+    // While (re)building, the paths the build (or a concurrent change) has put; any other path is stale.
+    private Set<String> built;
+    // While (re)building, the paths changes have put or removed; the build's (older) reads of those are dropped.
+    private Set<String> changed;
+    private Set<String> removed;
+    private boolean ready = false;
+
+    MaterializedFacet(final String path, final String nodeType, final String propertyRelPath) {
+        this.path = path;
+        this.nodeType = nodeType;
+        this.propertyRelPath = propertyRelPath;
+    }
+
+    /**
+     * @param definition a facet definition of the form path|nodeType|propertyRelPath
+     * @return the (empty) facet, or null if the definition is malformed
+     */
+    static MaterializedFacet parse(final String definition) {
+        final String[] parts = definition == null ? new String[0] : definition.split("\\|");
+
+        if (parts.length != 3 || parts[0].isEmpty() || parts[1].isEmpty() || parts[2].isEmpty()) {
+            return null;
+        }
+
+        return new MaterializedFacet(parts[0], parts[1], parts[2]);
+    }
+
+    String getDefinition() {
+        return path + "|" + nodeType + "|" + propertyRelPath;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    String getNodeType() {
+        return nodeType;
+    }
+
+    String getPropertyRelPath() {
+        return propertyRelPath;
+    }
+
+    /**
+     * @return true if the path is, or is under, this facet's path
+     */
+    boolean covers(final String candidate) {
+        return candidate.equals(path) || candidate.startsWith(path + "/");
+    }
+
+    /**
+     * Sets the values of a node, as read after a change to it; replaces (and un-counts) any values it had before.
+     *
+     * @param nodePath the path of the node, which is of this facet's node type
+     * @param values the node's distinct, non-blank values; may be empty
+     */
+    synchronized void put(final String nodePath, final String[] values) {
+        if (built != null) {
+            built.add(nodePath);
+            changed.add(nodePath);
+        }
+
+        set(nodePath, values);
+    }
+
+    /**
+     * Sets the values of a node, as read by a (re)build. The build may have read the node before a change that was
+     * applied since, so nodes put or removed by changes during the build are left as the changes left them.
+     */
+    synchronized void putBuilt(final String nodePath, final String[] values) {
+        if (built == null) {
+            set(nodePath, values);
+        } else if (!changed.contains(nodePath) && !isRemoved(nodePath)) {
+            built.add(nodePath);
+            set(nodePath, values);
+        }
+    }
+
+    /**
+     * Removes a node and all the nodes under it.
+     */
+    synchronized void removeTree(final String nodePath) {
+        if (removed != null) {
+            removed.add(nodePath);
+        }
+
+        uncount(valuesByPath.remove(nodePath));
+
+        // '0' is the character after '/', so this range holds exactly the paths under nodePath + "/"
+        final Iterator<String[]> descendants = valuesByPath.subMap(nodePath + "/", true, nodePath + "0", false)
+                .values().iterator();
+
+        while (descendants.hasNext()) {
+            uncount(descendants.next());
+            descendants.remove();
+        }
+
+        pruneIfSparse();
+    }
+
+    /**
+     * Starts a rebuild; the existing counts keep being served (and updated) until endBuild().
+     */
+    synchronized void startBuild() {
+        built = new HashSet<String>();
+        changed = new HashSet<String>();
+        removed = new HashSet<String>();
+    }
+
+    /**
+     * Ends a rebuild, dropping the nodes that were not seen by it (ex. nodes removed while the component was down).
+     */
+    synchronized void endBuild() {
+        final Iterator<Map.Entry<String, String[]>> entries = valuesByPath.entrySet().iterator();
+
+        while (entries.hasNext()) {
+            final Map.Entry<String, String[]> entry = entries.next();
+
+            if (!built.contains(entry.getKey())) {
+                uncount(entry.getValue());
+                entries.remove();
+            }
+        }
+
+        built = null;
+        changed = null;
+        removed = null;
+        prune();
+        ready = true;
+    }
+
+    /**
+     * Marks the counts as servable, ex. after they were loaded from a snapshot.
+     */
+    synchronized void markReady() {
+        ready = true;
+    }
+
+    /**
+     * @return the counts of the values with a count above zero, or null if the counts are not ready
+     */
+    synchronized SampleFacetCountIndex.FacetCounts getCounts() {
+        if (!ready) {
+            return null;
+        }
+
+        final Map<String, Integer> result = new LinkedHashMap<String, Integer>(counts.size() * 2);
+
+        for (int i = 0; i < counts.size(); i++) {
+            if (counts.countAt(i) > 0) {
+                result.put(counts.keyAt(i), counts.countAt(i));
+            }
+        }
+
+        return new FacetCounts(valuesByPath.size(), Collections.unmodifiableMap(result));
+    }
+
+    /**
+     * @return a copy of the values of every node, for writing a snapshot
+     */
+    synchronized List<Map.Entry<String, String[]>> getEntries() {
+        // The String[]s are never modified once put, so a shallow copy is safe
+        return new ArrayList<Map.Entry<String, String[]>>(new TreeMap<String, String[]>(valuesByPath).entrySet());
+    }
+
+    /**
+     * @return the number of values the counter map holds, including those whose count dropped to zero
+     */
+    synchronized int getCountedValues() {
+        return counts.size();
+    }
+
+    private void set(final String nodePath, final String[] values) {
+        uncount(valuesByPath.put(nodePath, values));
+
+        for (final String value : values) {
+            final int size = counts.size();
+
+            // A count of 1 for a value that was already in the map means it had dropped to zero
+            if (counts.add(value, 1) == 1 && counts.size() == size) {
+                zeros--;
+            }
+        }
+
+        pruneIfSparse();
+    }
+
+    private boolean isRemoved(final String nodePath) {
+        for (String candidate = nodePath; candidate != null; candidate = getParent(candidate)) {
+            if (removed.contains(candidate)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void uncount(final String[] values) {
+        if (values != null) {
+            for (final String value : values) {
+                if (counts.add(value, -1) == 0) {
+                    zeros++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Values whose count dropped to zero stay in the counter map; once they make up most of it, rebuild it without
+     * them, so values that are no longer used do not pile up between rebuilds.
+     */
+    private void pruneIfSparse() {
+        if (zeros >= MIN_ZEROS_TO_PRUNE && zeros * 2 > counts.size()) {
+            prune();
+        }
+    }
+
+    private void prune() {
+        final StringIntOpenHashMap pruned = new StringIntOpenHashMap(counts.size() - zeros);
+
+        for (int i = 0; i < counts.size(); i++) {
+            if (counts.countAt(i) > 0) {
+                pruned.add(counts.keyAt(i), counts.countAt(i));
+            }
+        }
+
+        counts = pruned;
+        zeros = 0;
+    }
+
+    private static String getParent(final String nodePath) {
+        final int slash = nodePath.lastIndexOf('/');
+        return slash > 0 ? nodePath.substring(0, slash) : null;
+    }
+
+    private static final class FacetCounts implements SampleFacetCountIndex.FacetCounts {
+        private final int nodeCount;
+        private final Map<String, Integer> counts;
+
+        private FacetCounts(final int nodeCount, final Map<String, Integer> counts) {
+            this.nodeCount = nodeCount;
+            this.counts = counts;
+        }
+
+        @Override
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        @Override
+        public Map<String, Integer> getCounts() {
+            return counts;
+        }
+    }
+}
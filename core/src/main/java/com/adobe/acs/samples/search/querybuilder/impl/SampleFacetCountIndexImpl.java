@@ -0,0 +1,421 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SampleFacetCountIndex;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Maintains the counts of the configured facets, so the SampleFacetPredicateEvaluator can serve them in
+ * O(buckets) rather than reading every hit.
+ *
+ * The counts are built via a query (in the background) when the component activates, and are then kept up to date
+ * incrementally from resource change events (including those from other cluster members, as this is an
+ * ExternalResourceChangeListener).
+ *
+ * The values of every indexed node are periodically written to a snapshot file in the bundle's data area. On
+ * activation the snapshot is loaded, so counts can be served straight away rather than only once the (potentially
+ * long) rebuild finishes; until then, they may miss changes made while the component was down. Note the path and
+ * values of every indexed node are held on the heap, so only configure facets over a bounded number of nodes.
+ */
+@Component(
+        service = { SampleFacetCountIndex.class, ResourceChangeListener.class },
+        property = {
+                // The paths to listen for changes under can be overridden via the resource.paths OSGi config below;
+                // they must cover the paths of all configured facets.
+                ResourceChangeListener.PATHS + "=/content/wknd",
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        }
+)
+@Designate(ocd = SampleFacetCountIndexImpl.Cfg.class)
+public class SampleFacetCountIndexImpl implements SampleFacetCountIndex, ResourceChangeListener,
+        ExternalResourceChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(SampleFacetCountIndexImpl.class);
+
+    // The ServiceUserMapper must map this sub-service to a user that can read all the nodes of the configured facets.
+    private static final String SERVICE_ACCOUNT_IDENTIFIER = "sample-service";
+
+    private static final String SNAPSHOT_FILE = "facet-counts.bin";
+    private static final int SNAPSHOT_MAGIC = 0x46434931;
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    // Facet definition (path|nodeType|propertyRelPath) -> facet
+    private Map<String, MaterializedFacet> facets;
+    private File snapshotFile;
+    private ScheduledExecutorService executor;
+
+    @Activate
+    protected void activate(final Cfg cfg, final BundleContext bundleContext) {
+        final Map<String, MaterializedFacet> configured = new LinkedHashMap<String, MaterializedFacet>();
+
+        for (final String definition : cfg.facets()) {
+            final MaterializedFacet facet = MaterializedFacet.parse(definition);
+
+            if (facet == null) {
+                log.warn("Ignoring malformed facet definition [ {} ]; expected path|nodeType|propertyRelPath", definition);
+            } else {
+                configured.put(facet.getDefinition(), facet);
+            }
+        }
+
+        this.facets = Collections.unmodifiableMap(configured);
+
+        // Null if the framework has no file system support
+        this.snapshotFile = bundleContext.getDataFile(SNAPSHOT_FILE);
+
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.executor.submit(this::loadSnapshot);
+        this.executor.submit(this::build);
+
+        final long interval = Math.max(1, cfg.snapshot_interval());
+        this.executor.scheduleWithFixedDelay(this::writeSnapshotIfDirty, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        this.executor.shutdownNow();
+
+        try {
+            this.executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.writeSnapshotIfDirty();
+    }
+
+    @Override
+    public FacetCounts getCounts(final String path, final String nodeType, final String propertyRelPath) {
+        final MaterializedFacet facet = facets.get(path + "|" + nodeType + "|" + propertyRelPath);
+        return facet == null ? null : facet.getCounts();
+    }
+
+    @Override
+    public void onChange(final List<ResourceChange> changes) {
+        final List<ResourceChange> updates = new ArrayList<ResourceChange>();
+
+        for (final ResourceChange change : changes) {
+            if (ResourceChange.ChangeType.REMOVED.equals(change.getType())) {
+                // The facet knows the values it counted for the removed nodes, so they need nothing from the repository
+                boolean reread = false;
+
+                for (final MaterializedFacet facet : facets.values()) {
+                    if (facet.covers(change.getPath())) {
+                        facet.removeTree(change.getPath());
+                        dirty.set(true);
+                        reread |= facet.getPropertyRelPath().contains("/");
+                    }
+                }
+
+                // With a relative property path (ex. jcr:content/jcr:title), the removed resource may hold the
+                // property of a counted ancestor, which must then be re-read
+                if (reread) {
+                    updates.add(change);
+                }
+            } else {
+                updates.add(change);
+            }
+        }
+
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        try (ResourceResolver resourceResolver = getServiceResourceResolver()) {
+            for (final ResourceChange change : updates) {
+                for (final MaterializedFacet facet : facets.values()) {
+                    if (facet.covers(change.getPath())) {
+                        update(resourceResolver, facet, change.getPath());
+                    }
+                }
+            }
+        } catch (LoginException e) {
+            log.error("Could not obtain a service resource resolver to update facet counts", e);
+        }
+    }
+
+    /**
+     * Re-reads the node of the facet's node type that the changed (or removed) resource belongs to, if any.
+     */
+    private void update(final ResourceResolver resourceResolver, final MaterializedFacet facet, final String path) {
+        // A change to a property at a relative path (ex. jcr:content/jcr:title) is reported on a descendant of the
+        // node being counted, so also look at as many ancestors as the property path has levels.
+        int levels = StringUtils.countMatches(facet.getPropertyRelPath(), "/");
+        String candidate = path;
+
+        while (candidate != null && facet.covers(candidate)) {
+            final Resource resource = resourceResolver.getResource(candidate);
+
+            if (resource != null && isOfType(resource, facet.getNodeType())) {
+                facet.put(candidate, readValues(resource, facet.getPropertyRelPath()));
+                dirty.set(true);
+                return;
+            } else if (levels-- == 0) {
+                return;
+            }
+
+            candidate = ResourceUtil.getParent(candidate);
+        }
+    }
+
+    private void build() {
+        try (ResourceResolver resourceResolver = getServiceResourceResolver()) {
+            for (final MaterializedFacet facet : facets.values()) {
+                // Like QueryBuilder's path predicate, include the node at the path itself, not only its descendants
+                final String path = facet.getPath().replace("'", "''");
+                final String statement = "SELECT [jcr:path] FROM [" + facet.getNodeType() + "] AS n "
+                        + "WHERE ISSAMENODE(n, '" + path + "') OR ISDESCENDANTNODE(n, '" + path + "')";
+
+                facet.startBuild();
+
+                final Iterator<Resource> resources = resourceResolver.findResources(statement, Query.JCR_SQL2);
+                while (resources.hasNext()) {
+                    final Resource resource = resources.next();
+                    facet.putBuilt(resource.getPath(), readValues(resource, facet.getPropertyRelPath()));
+                }
+
+                facet.endBuild();
+                dirty.set(true);
+
+                log.info("Built facet counts for [ {} ]", facet.getDefinition());
+            }
+        } catch (LoginException e) {
+            log.error("Could not obtain a service resource resolver to build facet counts", e);
+        }
+    }
+
+    /**
+     * @return the distinct, non-blank values of the property; the same values the SampleFacetCounter counts
+     */
+    private static String[] readValues(final Resource resource, final String propertyRelPath) {
+        // Single values are converted to a one-element array
+        final String[] values = resource.getValueMap().get(propertyRelPath, String[].class);
+
+        if (values == null) {
+            return new String[0];
+        }
+
+        final List<String> distinct = new ArrayList<String>(values.length);
+
+        for (final String value : values) {
+            if (StringUtils.isNotBlank(value) && !distinct.contains(value)) {
+                distinct.add(value);
+            }
+        }
+
+        return distinct.toArray(new String[distinct.size()]);
+    }
+
+    /**
+     * @return true if the resource's node is of the node type, or of a subtype, or has it as a mixin; as the
+     * FROM [nodeType] of the build query matches
+     */
+    private static boolean isOfType(final Resource resource, final String nodeType) {
+        final Node node = resource.adaptTo(Node.class);
+
+        try {
+            return node != null && node.isNodeType(nodeType);
+        } catch (RepositoryException e) {
+            log.warn("Could not check the node type of [ {} ]", resource.getPath(), e);
+            return false;
+        }
+    }
+
+    /* Snapshots */
+
+    /**
+     * Loads the snapshot, if there is one, and marks the facets in it as ready.
+     *
+     * The file is memory-mapped, so it is paged in by the OS as it is read rather than copied onto the heap first.
+     * Format (big-endian): magic, facet count, then per facet: definition, node count, then per node: path, value
+     * count, values. Strings are written as a byte length followed by UTF-8 bytes.
+     */
+    private void loadSnapshot() {
+        if (snapshotFile == null || !snapshotFile.isFile()) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                log.warn("Ignoring facet count snapshot [ {} ] with an unknown format", snapshotFile);
+                return;
+            }
+
+            for (int facetCount = buffer.getInt(); facetCount > 0; facetCount--) {
+                // Facets that are no longer configured are read past, and dropped
+                final MaterializedFacet facet = facets.get(readString(buffer));
+
+                for (int nodeCount = buffer.getInt(); nodeCount > 0; nodeCount--) {
+                    final String path = readString(buffer);
+                    final String[] values = new String[buffer.getInt()];
+
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = readString(buffer);
+                    }
+
+                    if (facet != null) {
+                        facet.putBuilt(path, values);
+                    }
+                }
+
+                if (facet != null) {
+                    facet.markReady();
+                }
+            }
+
+            log.info("Loaded facet counts from snapshot [ {} ]", snapshotFile);
+        } catch (IOException | BufferUnderflowException e) {
+            log.warn("Could not load facet count snapshot [ {} ]; waiting for the counts to be built", snapshotFile, e);
+        }
+    }
+
+    private void writeSnapshotIfDirty() {
+        if (snapshotFile == null || !dirty.getAndSet(false)) {
+            return;
+        }
+
+        final File tmp = new File(snapshotFile.getPath() + ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(facets.size());
+
+                for (final MaterializedFacet facet : facets.values()) {
+                    final List<Map.Entry<String, String[]>> entries = facet.getEntries();
+
+                    writeString(out, facet.getDefinition());
+                    out.writeInt(entries.size());
+
+                    for (final Map.Entry<String, String[]> entry : entries) {
+                        writeString(out, entry.getKey());
+                        out.writeInt(entry.getValue().length);
+
+                        for (final String value : entry.getValue()) {
+                            writeString(out, value);
+                        }
+                    }
+                }
+            }
+
+            // Replace the snapshot in one step, so a crash mid-write never leaves a truncated snapshot behind
+            Files.move(tmp.toPath(), snapshotFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty.set(true);
+            log.error("Could not write facet count snapshot [ {} ]", snapshotFile, e);
+        }
+    }
+
+    private static String readString(final MappedByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private ResourceResolver getServiceResourceResolver() throws LoginException {
+        final Map<String, Object> authInfo = Collections.singletonMap(
+                ResourceResolverFactory.SUBSERVICE,
+                (Object) SERVICE_ACCOUNT_IDENTIFIER);
+
+        return resourceResolverFactory.getServiceResourceResolver(authInfo);
+    }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Facet Count Index")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Facets",
+                description = "The facets to maintain counts for, as path|nodeType|propertyRelPath."
+        )
+        String[] facets() default { "/content/wknd|cq:PageContent|jcr:title" };
+
+        @AttributeDefinition(
+                name = "Resource paths",
+                description = "The paths to listen for changes under; must cover the paths of all facets."
+        )
+        String[] resource_paths() default { "/content/wknd" };
+
+        @AttributeDefinition(
+                name = "Snapshot interval",
+                description = "How often (in seconds) changed counts are written to the snapshot file."
+        )
+        long snapshot_interval() default 60;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SampleFacetCounter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts facet values in batches of hit paths.
+ *
+ * Small hit sets are counted on the calling thread. Larger hit sets are split into batches that a fixed pool of
+ * worker threads pull from; each worker reads via its own clone of the caller's ResourceResolver, as JCR Sessions
+ * must not be shared across threads. Each batch is counted into its own StringIntOpenHashMap, and the batch maps are
+ * merged in batch order, so the result (including the order of the values) is the same as a sequential count.
+ */
+@Component(service = SampleFacetCounter.class)
+@Designate(ocd = SampleFacetCounterImpl.Cfg.class)
+public class SampleFacetCounterImpl implements SampleFacetCounter {
+    private static final Logger log = LoggerFactory.getLogger(SampleFacetCounterImpl.class);
+
+    private Cfg cfg;
+    private ExecutorService executor;
+
+    @Activate
+    protected void activate(final Cfg cfg) {
+        this.cfg = cfg;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, cfg.threads()), runnable -> {
+            final Thread thread = new Thread(runnable, "acs-samples-facet-counter-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        this.executor.shutdownNow();
+    }
+
+    @Override
+    public Map<String, Integer> count(final ResourceResolver resourceResolver,
+                                      final List<String> paths,
+                                      final String propertyRelPath) throws RepositoryException {
+        final int batchSize = Math.max(1, cfg.batch_size());
+        final StringIntOpenHashMap counts;
+
+        if (paths.size() < cfg.parallel_threshold() || cfg.threads() <= 1) {
+            counts = countBatch(resourceResolver.adaptTo(Session.class), paths, propertyRelPath);
+        } else {
+            final List<List<String>> batches = new ArrayList<List<String>>();
+            for (int i = 0; i < paths.size(); i += batchSize) {
+                batches.add(paths.subList(i, Math.min(i + batchSize, paths.size())));
+            }
+
+            counts = countInParallel(resourceResolver, batches, propertyRelPath);
+        }
+
+        final Map<String, Integer> result = new LinkedHashMap<String, Integer>(counts.size() * 2);
+        for (int i = 0; i < counts.size(); i++) {
+            result.put(counts.keyAt(i), counts.countAt(i));
+        }
+
+        return Collections.unmodifiableMap(result);
+    }
+
+    private StringIntOpenHashMap countInParallel(final ResourceResolver resourceResolver,
+                                                 final List<List<String>> batches,
+                                                 final String propertyRelPath) throws RepositoryException {
+        final StringIntOpenHashMap[] batchCounts = new StringIntOpenHashMap[batches.size()];
+        final AtomicInteger nextBatch = new AtomicInteger();
+        final List<ResourceResolver> clones = new ArrayList<ResourceResolver>();
+        final List<Future<?>> workers = new ArrayList<Future<?>>();
+
+        try {
+            final int workerCount = Math.min(cfg.threads(), batches.size());
+
+            for (int i = 0; i < workerCount; i++) {
+                // Clone on the calling thread; the clone has the same user (and access rights) as the original.
+                final ResourceResolver clone = resourceResolver.clone(null);
+                clones.add(clone);
+
+                workers.add(executor.submit(() -> {
+                    final Session session = clone.adaptTo(Session.class);
+
+                    // Pull batches until there are none left; fast workers simply take more batches.
+                    for (int batch = nextBatch.getAndIncrement(); batch < batchCounts.length;
+                         batch = nextBatch.getAndIncrement()) {
+                        batchCounts[batch] = countBatch(session, batches.get(batch), propertyRelPath);
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (final Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (LoginException e) {
+            throw new RepositoryException("Could not clone the ResourceResolver for a facet counting worker", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while counting facets", e);
+        } catch (ExecutionException e) {
+            throw new RepositoryException("Could not count facets", e.getCause());
+        } finally {
+            for (final Future<?> worker : workers) {
+                worker.cancel(true);
+            }
+
+            for (final ResourceResolver clone : clones) {
+                clone.close();
+            }
+        }
+
+        // Merge in batch order so values keep the order in which they were first seen
+        final StringIntOpenHashMap counts = new StringIntOpenHashMap();
+        for (final StringIntOpenHashMap batchCount : batchCounts) {
+            counts.merge(batchCount);
+        }
+
+        log.debug("Counted [ {} ] values of [ {} ] in [ {} ] batches", counts.size(), propertyRelPath, batches.size());
+
+        return counts;
+    }
+
+    private static StringIntOpenHashMap countBatch(final Session session,
+                                                   final List<String> paths,
+                                                   final String propertyRelPath) throws RepositoryException {
+        final StringIntOpenHashMap counts = new StringIntOpenHashMap();
+
+        for (final String path : paths) {
+            final Node node;
+
+            try {
+                node = session.getNode(path);
+            } catch (PathNotFoundException e) {
+                // Removed since the query ran
+                continue;
+            }
+
+            if (!node.hasProperty(propertyRelPath)) {
+                continue;
+            }
+
+            final Property property = node.getProperty(propertyRelPath);
+
+            if (!property.isMultiple()) {
+                final String value = property.getString();
+
+                if (StringUtils.isNotBlank(value)) {
+                    counts.increment(value);
+                }
+            } else {
+                // Each distinct value counts once per node; multi-value properties are short, so a list will do
+                final List<String> distinct = new ArrayList<String>();
+
+                for (final Value value : property.getValues()) {
+                    final String string = value.getString();
+
+                    if (StringUtils.isNotBlank(string) && !distinct.contains(string)) {
+                        distinct.add(string);
+                        counts.increment(string);
+                    }
+                }
+            }
+        }
+
+        return counts;
+    }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Facet Counter")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Batch size",
+                description = "The number of hits each worker reads per batch."
+        )
+        int batch_size() default 1000;
+
+        @AttributeDefinition(
+                name = "Parallel threshold",
+                description = "Hit sets at least this large are counted by the worker threads; smaller ones are counted on the calling thread."
+        )
+        int parallel_threshold() default 10000;
+
+        @AttributeDefinition(
+                name = "Threads",
+                description = "The number of worker threads, and so the most JCR Sessions one count may open."
+        )
+        int threads() default 4;
+    }
+}
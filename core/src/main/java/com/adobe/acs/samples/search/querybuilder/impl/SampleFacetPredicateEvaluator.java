@@ -1,22 +1,28 @@
 package com.adobe.acs.samples.search.querybuilder.impl;
 
+import com.adobe.acs.samples.search.querybuilder.SampleFacetCountIndex;
+import com.adobe.acs.samples.search.querybuilder.SampleFacetCounter;
 import com.day.cq.search.Predicate;
+import com.day.cq.search.PredicateGroup;
 import com.day.cq.search.eval.AbstractPredicateEvaluator;
 import com.day.cq.search.eval.EvaluationContext;
+import com.day.cq.search.facets.Bucket;
+import com.day.cq.search.facets.Facet;
 import com.day.cq.search.facets.FacetExtractor;
-import com.day.cq.search.facets.extractors.DistinctValuesFacetExtractor;
+import com.day.cq.search.facets.buckets.SimpleBucket;
+import com.day.cq.search.facets.extractors.FacetImpl;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
-import javax.jcr.Session;
-import javax.jcr.Value;
-import javax.jcr.ValueFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 @Component(
         // Note that a @Component will register to all implemented interfaces if no 'service=' is provided
@@ -52,87 +58,268 @@ public class SampleFacetPredicateEvaluator extends AbstractPredicateEvaluator {
         map.put("2_facet.title", "Description");
         map.put("2_facet.value", "jcr:description");
 
+        // Optionally, only put hits under this path into buckets; defaults to /content/wknd
+        map.put("2_facet.scope", "/content/wknd");
+
     */
 
     public static final String TITLE = "title";
     public static final String VALUE = "value";
+    public static final String SCOPE = "scope";
+
+    private static final String PATH = "path";
+    private static final String TYPE = "type";
+    private static final String ORDERBY = "orderby";
+
+    // Only hits under this path are put into buckets, unless the predicate's scope parameter says otherwise
+    private static final String DEFAULT_SCOPE = "/content/wknd";
+
+    /**
+     * How the hits of a query relate to the facet's scope; decided once per query rather than checked per hit.
+     */
+    private enum ScopeMatch {
+        /** The query's path is in the scope, so every hit is */
+        ALL,
+        /** The query's path and the scope do not overlap, so no hit is */
+        NONE,
+        /** The query's path is above the scope (or unknown), so each hit must be checked */
+        SOME
+    }
+
+    @Reference
+    private SampleFacetCounter facetCounter;
+
+    @Reference
+    private SampleFacetCountIndex facetCountIndex;
 
     @Override
     public FacetExtractor getFacetExtractor(final Predicate p, final EvaluationContext context) {
+        // Sample Facet Extractor is a custom private Facet Extractor defined below.
+        final SampleFacetExtractor extractor =
+                new SampleFacetExtractor(p, context.getResourceResolver(), getScope(p), getScopeMatch(p));
+
+        // If the counts of this facet are maintained by the SampleFacetCountIndex, serve those rather than reading
+        // the values of every hit.
+        final SampleFacetCountIndex.FacetCounts precomputed = this.getPrecomputedCounts(p);
+
+        if (precomputed != null) {
+            return new PrecomputedFacetExtractor(p, precomputed, extractor);
+        }
+
+        return extractor;
+    }
+
+    private static String getScope(final Predicate p) {
+        return StringUtils.defaultIfBlank(p.get(SCOPE), DEFAULT_SCOPE);
+    }
+
+    /**
+     * The query's path predicate restricts every hit to be at or under its path, which often decides the scope check
+     * for all hits at once: if the query path is in the scope, no hit needs checking.
+     *
+     * Note: the scope cannot be pushed into the query itself, as this predicate must not change the query's hits.
+     */
+    private static ScopeMatch getScopeMatch(final Predicate p) {
+        final String scope = getScope(p);
+        final String queryPath = getQueryPath(p);
+
+        if (queryPath == null) {
+            return ScopeMatch.SOME;
+        } else if (isAtOrUnder(queryPath, scope)) {
+            return ScopeMatch.ALL;
+        } else if (isAtOrUnder(scope, queryPath)) {
+            return ScopeMatch.SOME;
+        } else {
+            return ScopeMatch.NONE;
+        }
+    }
 
-        try {
-            // Sample Facet Extractor is a custom private Facet Extractor defined below.
-            return new SampleFacetExtractor(p, context.getSession());
-        } catch (RepositoryException e) {
+    /**
+     * @return the path of the query's path predicate, or null if it has none (or it may be OR'd or negated)
+     */
+    private static String getQueryPath(final Predicate p) {
+        final PredicateGroup group = p.getParent();
+
+        if (group == null || group.isNegated() || !group.allRequired()) {
             return null;
         }
+
+        for (final Predicate sibling : group) {
+            if (PATH.equals(sibling.getType())) {
+                return sibling.get(PATH);
+            }
+        }
+
+        return null;
     }
 
-    // This extends DistinctValuesFacetExtractor
-    private final class SampleFacetExtractor extends DistinctValuesFacetExtractor {
-        private final Session session;
-        private final ValueFactory valueFactory;
+    private static boolean isAtOrUnder(final String path, final String ancestor) {
+        return StringUtils.equals(path, ancestor) || StringUtils.startsWith(path, ancestor + "/");
+    }
+
+    /**
+     * Precomputed counts are for ALL the nodes of a type under a path, so they can only be used if the query is
+     * exactly that: a path predicate (without options such as path.flat), a type predicate, and no other predicates
+     * that could filter out hits.
+     *
+     * @return the precomputed counts, or null if the query does not match a precomputed facet
+     */
+    private SampleFacetCountIndex.FacetCounts getPrecomputedCounts(final Predicate p) {
+        final PredicateGroup group = p.getParent();
+
+        if (group == null || group.isNegated() || !group.allRequired()) {
+            return null;
+        }
+
+        String path = null;
+        String type = null;
+
+        for (final Predicate sibling : group) {
+            if (PATH.equals(sibling.getType()) && sibling.getParameters().size() == 1) {
+                path = sibling.get(PATH);
+            } else if (TYPE.equals(sibling.getType())) {
+                type = sibling.get(TYPE);
+            } else if (!p.getType().equals(sibling.getType()) && !ORDERBY.equals(sibling.getType())) {
+                return null;
+            }
+        }
+
+        if (path == null || type == null || !isAtOrUnder(path, getScope(p))) {
+            return null;
+        }
+
+        return facetCountIndex.getCounts(path, type, p.get(VALUE));
+    }
+
+    /**
+     * Builds the Facet the way DistinctValuesFacetExtractor does: one bucket per distinct value, whose predicate is
+     * the facet predicate with the "value" parameter set to the bucket's value.
+     */
+    private static Facet toFacet(final Predicate predicateTemplate, final Map<String, Integer> counts) {
+        final List<Bucket> buckets = new ArrayList<Bucket>(counts.size());
+
+        for (final Map.Entry<String, Integer> entry : counts.entrySet()) {
+            final Predicate bucketPredicate = predicateTemplate.clone();
+            bucketPredicate.set(VALUE, entry.getKey());
+
+            buckets.add(new CountedBucket(bucketPredicate, getBucketValue(entry.getKey()), entry.getValue()));
+        }
+
+        return new FacetImpl(buckets);
+    }
+
+    private static String getBucketValue(String value) {
+        // Used to format or transform the bucket value to Display (Bucket.getValue()).
+        // This is called once per bucket (distinct value), not once per hit.
+        return StringUtils.upperCase(value);
+    }
+
+    // This implements FacetExtractor directly, rather than extending DistinctValuesFacetExtractor, so the hits can be
+    // counted in bulk (and in parallel) by the SampleFacetCounter, instead of one by one on the query thread into
+    // boxed maps. The resulting Facet is the same as DistinctValuesFacetExtractor's.
+    private final class SampleFacetExtractor implements FacetExtractor {
+        private final Predicate predicateTemplate;
+        private final ResourceResolver resourceResolver;
         private final String valueProperty;
+        private final String scope;
+        private final ScopeMatch scopeMatch;
+
+        // Hits are only collected while the query runs; their values are read in getFacet()
+        private final List<String> paths = new ArrayList<String>();
 
         // Pass in any context as the FacetExtractor is a POJO
-        private SampleFacetExtractor(final Predicate p, final Session session) throws RepositoryException {
-            // propertyRelPath: The property path; This is the value of p.get("value") for this custom Predicate; Should be unique
-            // nodePathFilter: Can provide a filter to skip hit Nodes when extracting Facets
-            // predicateTemplate: Usually p.clone();
-            // valueParameterName: The Predicate parameter name that holds the value; This is less important here.
-            super(p.get(VALUE),
-                    null,
-                    p.clone(),
-                    VALUE);
-
-            this.session = session;
-            this.valueFactory = this.session.getValueFactory();
+        private SampleFacetExtractor(final Predicate p, final ResourceResolver resourceResolver,
+                                     final String scope, final ScopeMatch scopeMatch) {
+            this.predicateTemplate = p.clone();
+            this.resourceResolver = resourceResolver;
             this.valueProperty = p.get(VALUE);
-        }
-
-        // Helper method to transform a value to a Value as this is what the Buckets return
-        private final Value createValue(String name) {
-            return this.valueFactory.createValue(name);
+            this.scope = scope;
+            this.scopeMatch = scopeMatch;
         }
 
         @Override
-        protected String getBucketValue(String value) {
-            // Used to format or transform the bucket value to Display (Bucket.getValue())
-            return StringUtils.upperCase(value);
+        public void handleNode(final Node hit) throws RepositoryException {
+            // This method is called for every Hit result
+
+            // Perform some logic here to figure out if you want to put this hit into a bucket.
+            // Out of scope hits are never read; only their paths are looked at, and only if the query's path
+            // did not already decide the scope for all hits.
+            if (scopeMatch == ScopeMatch.ALL) {
+                paths.add(hit.getPath());
+            } else if (scopeMatch == ScopeMatch.SOME) {
+                final String path = hit.getPath();
+
+                if (isAtOrUnder(path, scope)) {
+                    paths.add(path);
+                }
+            }
         }
 
         @Override
-        protected List getValues(Node hit) throws RepositoryException {
-            // This method is called for every Hit result
-            // This method is used to create a list of Values that will then automatically be split into various Buckets
+        public Facet getFacet() {
+            final Map<String, Integer> counts;
 
-            final List<Value> values = new ArrayList<Value>();
+            try {
+                // Note: The values are read via Property.getString(); like values will be grouped in the same Bucket
+                counts = facetCounter.count(resourceResolver, paths, valueProperty);
+            } catch (RepositoryException e) {
+                log.error("Could not count the values of [ {} ] for the facet", valueProperty, e);
+                return null;
+            }
 
-            // Note: This is an unusual case where JCR API is preferred over Sling Resource APIs
-            // as performance is PARAMOUNT in FacetExtractors and the Node API
-            // will be faster. 
+            return toFacet(predicateTemplate, counts);
+        }
+    }
 
-            // Perform some logic here to figure out
-            // 1) If you want to put this hit into a bucket
-            // 2) One hit can inform as many buckets of this facet as you want
+    // Serves counts maintained by the SampleFacetCountIndex. Those were counted by a service user, so they are only
+    // served if the user's query returned as many hits as the index counted nodes, that is if the user can read every
+    // counted node; otherwise (or if the index is behind on changes) the hits are counted as usual.
+    private static final class PrecomputedFacetExtractor implements FacetExtractor {
+        private final Predicate predicateTemplate;
+        private final SampleFacetCountIndex.FacetCounts counts;
+        private final SampleFacetExtractor fallback;
+        private int hits = 0;
 
-            if (StringUtils.startsWith(hit.getPath(), "/content/wknd")) {
+        private PrecomputedFacetExtractor(final Predicate p, final SampleFacetCountIndex.FacetCounts counts,
+                                          final SampleFacetExtractor fallback) {
+            this.predicateTemplate = p.clone();
+            this.counts = counts;
+            this.fallback = fallback;
+        }
 
-                // Get the value from the predicate value; This could be anything, 
-                // but usually makes sense that the Predicate definition helpers drive this.
-                if (hit.hasProperty(this.valueProperty)) {
-                    final String value = hit.getProperty(this.valueProperty).toString();
-                    
-                    if (StringUtils.isNotBlank(value)) {
-                        // Add any Value; like values will be automatically grouped in the same Bucket
-                        values.add(this.createValue(value));
-                    }
-                }
+        @Override
+        public void handleNode(final Node hit) throws RepositoryException {
+            // Only the hit's path is collected, in case the hits must be counted after all
+            hits++;
+            fallback.handleNode(hit);
+        }
+
+        @Override
+        public Facet getFacet() {
+            if (hits != counts.getNodeCount()) {
+                log.debug("The query returned {} hits where {} nodes were indexed; counting the hits",
+                        hits, counts.getNodeCount());
+                return fallback.getFacet();
             }
 
-            // Filter out any values using DistinctValuesFacetExtractor.filter() which
-            // filters for distinct values.
-            return filter(values, this.valueFactory);
+            return toFacet(predicateTemplate, counts.getCounts());
+        }
+    }
+
+    /**
+     * A bucket whose count is known up front, rather than incremented hit by hit.
+     */
+    private static final class CountedBucket extends SimpleBucket {
+        private final long count;
+
+        private CountedBucket(final Predicate predicate, final String value, final long count) {
+            super(predicate, value);
+            this.count = count;
+        }
+
+        @Override
+        public long getCount() {
+            return count;
         }
     }
 }
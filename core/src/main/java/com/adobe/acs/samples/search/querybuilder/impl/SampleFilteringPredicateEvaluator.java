@@ -20,20 +20,24 @@
 
 package com.adobe.acs.samples.search.querybuilder.impl;
 
+import com.adobe.acs.samples.search.querybuilder.SamplePredicateEvaluatorMetrics;
 import com.day.cq.search.Predicate;
 import com.day.cq.search.eval.AbstractPredicateEvaluator;
 import com.day.cq.search.eval.EvaluationContext;
 import com.day.cq.search.eval.PredicateEvaluator;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.commons.json.JSONException;
-import org.apache.sling.commons.json.JSONObject;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.Row;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * The QueryBuilder predicate for this Sample would be structured like so...
@@ -46,7 +50,12 @@ import javax.jcr.query.Row;
  * json.value=featured
  *
  * `property` is the property name to locate the JSON String
- * `key` is the JSON key whose value will be matched again the value of `value`
+ * `key` is the JSON key whose value will be matched again the value of `value`; nested keys can be addressed with
+ * a dotted path, ex. json.key=meta.type matches {"meta":{"type":"featured"}}. A top-level key containing dots (ex.
+ * {"meta.type":"featured"}) still matches, and takes precedence over the path.
+ *
+ * Only string, number, boolean and null values can be matched, never objects or arrays; and the JSON is scanned only
+ * up to the matched value, so malformed JSON after it does not exclude the row. See JsonPathMatcher.
  *
  * ex. /content/myPage/jcr:content@myProp={"type":"featured"}
  */
@@ -60,14 +69,87 @@ import javax.jcr.query.Row;
 public class SampleFilteringPredicateEvaluator extends AbstractPredicateEvaluator implements PredicateEvaluator {
     private static final Logger log = LoggerFactory.getLogger(SampleFilteringPredicateEvaluator.class);
 
+    private static final String[] LAST_MODIFIED_PROPERTIES = new String[]{ "cq:lastModified", "jcr:lastModified" };
+
+    // Evaluator instances are created per query (this is a factory component), so the cache of extracted values
+    // is static to share it across queries.
+    private static final JsonValueCache VALUE_CACHE = new JsonValueCache(10000);
+
+    // The same Predicate object is passed for every row of a query, so compile its parameters once.
+    private final Map<Predicate, JsonPathMatcher> matchers = new IdentityHashMap<Predicate, JsonPathMatcher>();
+
+    // The most recently used compiled predicate; per row this is all that is read, without taking a lock.
+    private volatile CompiledPredicate lastCompiled;
+
+    // Simple (optionally relative) property names, ex. myProp or jcr:content/myProp
+    private static final Pattern XPATH_PROPERTY = Pattern.compile("[\\w:-]+(/[\\w:-]+)*");
+
+    // Values that common JSON writers write into a JSON string as-is: printable ASCII, without quotes, backslashes or
+    // slashes (which writers escape, or may), nor < > & = ' (which Gson escapes by default)
+    private static final Pattern JSON_VERBATIM_VALUE = Pattern.compile("[\\x20-\\x7E&&[^\"\\\\/<>&=']]+");
+
+    @Reference
+    private SamplePredicateEvaluatorMetrics metrics;
+
     @Override
     public boolean canXpath(final Predicate predicate, final EvaluationContext context) {
-        // This sample ONLY performs filtering on query search results; So return FALSE from "canXpath"
-        // as this implementation does not provide and XPath to execute.
+        // Filtering every candidate row in Java is slow when the query returns many rows, so where possible also
+        // provide a coarse XPath constraint that Oak can apply (via an index, if the property is indexed) to narrow
+        // the candidates; includes(..) then only confirms the exact match on the remaining rows.
 
-        // By default AbstractPredicateEvaluator.canXPath(..) returns true, so make sure you return false
-        // else it will cause the includes(..) to be ignored.
-        return false;
+        // By default AbstractPredicateEvaluator.canXPath(..) returns true; return false when no constraint can be
+        // built, else the predicate would have no effect on the XPath at all.
+        return this.getXPathExpression(predicate, context) != null;
+    }
+
+    @Override
+    public String getXPathExpression(final Predicate predicate, final EvaluationContext context) {
+        final JsonPathMatcher matcher = this.getMatcher(predicate);
+        final String propertyName = matcher.getProperty();
+        final String value = matcher.getValue();
+
+        // Only emit a constraint where the predicate filters at all, and that should not exclude a matching row:
+        // - the predicate must be filterable, else includes(..) keeps every row, and so must the XPath
+        // - the property name must be safe to use in XPath as-is
+        // - the value must appear verbatim in the JSON, so it must not contain characters JSON writers escape. Rows
+        //   written by a writer that escapes other (ex. all) characters as unicode escapes would be excluded; JSON from
+        //   such a writer cannot be pre-filtered.
+        if (!matcher.isFilterable() || !XPATH_PROPERTY.matcher(propertyName).matches()
+                || !JSON_VERBATIM_VALUE.matcher(value).matches()) {
+            return null;
+        }
+
+        // The key is not part of the constraint, as whitespace around the ':' (and, for nested keys, the rest of the
+        // object) may sit between the key and the value. The value alone is coarse, but only ever too broad.
+        final int attribute = propertyName.lastIndexOf('/') + 1;
+        final String expression = "jcr:like(" + propertyName.substring(0, attribute) + "@"
+                + propertyName.substring(attribute) + ", '%" + escapeLike(value) + "%')";
+
+        // The effect of the pre-filter shows in the metrics: with it, rows out should be close to rows in.
+        log.debug("Pre-filtering json predicate candidates with [ {} ]", expression);
+
+        return expression;
+    }
+
+    /**
+     * Escapes the jcr:like wildcards (and the escape character) and quotes a value for use in an XPath string literal.
+     */
+    private static String escapeLike(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length() + 8);
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c == '%' || c == '_' || c == '\\') {
+                sb.append('\\');
+            } else if (c == '\'') {
+                sb.append('\'');
+            }
+
+            sb.append(c);
+        }
+
+        return sb.toString();
     }
 
     /* Post result set Filtering */
@@ -77,11 +159,17 @@ public class SampleFilteringPredicateEvaluator extends AbstractPredicateEvaluato
         // Return true to include the row in the result set
         // Return false to exclude the row from the result set
 
-        // Get the QueryBuilder parameters
+        final long start = System.nanoTime();
+        final boolean included = this.filter(predicate, row);
+
+        metrics.recordRow(predicate.getType(), included, System.nanoTime() - start);
+
+        return included;
+    }
 
-        final String propertyName = predicate.get("property");
-        final String key = predicate.get("key");
-        final String value = predicate.get("value");
+    private boolean filter(final Predicate predicate, final Row row) {
+        // Get the QueryBuilder parameters, compiled once per Predicate rather than looked up for every row
+        final JsonPathMatcher matcher = this.getMatcher(predicate);
 
         try {
             // Get the Node associated w the hit
@@ -89,16 +177,33 @@ public class SampleFilteringPredicateEvaluator extends AbstractPredicateEvaluato
             // So stick w the less elegant (to code) JCR Node APIs
             final Node node = row.getNode();
 
-            if (node.hasProperty(propertyName)) {
+            if (node.hasProperty(matcher.getProperty())) {
+                // Nodes with a last modified time can be looked up in (and added to) the cache of extracted values
+                final String cacheKey = getCacheKey(node, matcher);
+
+                if (cacheKey != null) {
+                    final JsonValueCache.Value cached = VALUE_CACHE.get(cacheKey);
+
+                    if (cached != null) {
+                        return matcher.matches(cached.get());
+                    }
+                }
+
                 // Get the JSON string from the property
-                final String jsonString = node.getProperty(propertyName).getString();
+                final String jsonString = node.getProperty(matcher.getProperty()).getString();
 
                 if (StringUtils.isNotBlank(jsonString)) {
-                    final JSONObject json = new JSONObject(jsonString);
+                    // Scan the JSON for the value at the key (path); this stops as soon as it is found, and never
+                    // builds a JSONObject
+                    final String extracted = matcher.extract(jsonString);
+
+                    if (cacheKey != null) {
+                        VALUE_CACHE.put(cacheKey, extracted);
+                    }
 
                     // Get compare the predicate defined value (value) to the value of at the provided key in the
                     // JSON object; If true; we have a match and include
-                    return StringUtils.equals(value, json.optString(key));
+                    return matcher.matches(extracted);
                 }
             }
         } catch (RepositoryException e) {
@@ -115,22 +220,52 @@ public class SampleFilteringPredicateEvaluator extends AbstractPredicateEvaluato
         return false;
     }
 
-    @Override
-    public boolean canFilter(final Predicate predicate, final EvaluationContext evaluationContext) {
-        // Check if this predicate is capable of filtering results; This occurs once per application to a result set
-        // and not PER result row
+    private JsonPathMatcher getMatcher(final Predicate predicate) {
+        final CompiledPredicate compiled = this.lastCompiled;
+
+        // A query almost always has a single json predicate, so this is the path taken for every row
+        if (compiled != null && compiled.predicate == predicate) {
+            return compiled.matcher;
+        }
 
-        // In this case; checks to ensure all predicate params are provided
-        final String propertyName = predicate.get("property");
-        final String key = predicate.get("key");
-        final String value = predicate.get("value");
+        synchronized (matchers) {
+            JsonPathMatcher matcher = matchers.get(predicate);
 
-        final boolean filterable = StringUtils.isNotBlank(propertyName) && StringUtils.isNotBlank(key)
-                && StringUtils.isNotBlank(value);
+            if (matcher == null) {
+                matcher = new JsonPathMatcher(predicate.get("property"), predicate.get("key"), predicate.get("value"));
+                matchers.put(predicate, matcher);
 
-        log.info("Can filter w/ ACS AEM Samples JSON Predicate Evaluator: {}", filterable);
+                metrics.recordCompiledPredicate(predicate.getType(), matcher.isFilterable());
+            }
 
-        return filterable;
+            this.lastCompiled = new CompiledPredicate(predicate, matcher);
+            return matcher;
+        }
+    }
+
+    /**
+     * @return the cache key for the node's JSON, or null if the node has no last modified time to key it by
+     */
+    private static String getCacheKey(final Node node, final JsonPathMatcher matcher) throws RepositoryException {
+        for (final String lastModifiedProperty : LAST_MODIFIED_PROPERTIES) {
+            if (node.hasProperty(lastModifiedProperty)) {
+                final long lastModified = node.getProperty(lastModifiedProperty).getDate().getTimeInMillis();
+                return JsonValueCache.key(node.getPath(), lastModified, matcher);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean canFilter(final Predicate predicate, final EvaluationContext evaluationContext) {
+        // Check if this predicate is capable of filtering results; This occurs once per application to a result set
+        // and not PER result row, however QueryBuilder applies it several times per query.
+
+        // In this case; checks to ensure all predicate params are provided. This is decided once, when the
+        // Predicate's parameters are compiled, so repeated calls are a map lookup. Don't log here (and certainly
+        // not at INFO); the decision is recorded in the metrics instead.
+        return this.getMatcher(predicate).isFilterable();
     }
 
     @Override
@@ -138,4 +273,14 @@ public class SampleFilteringPredicateEvaluator extends AbstractPredicateEvaluato
         // .canFilter(..) has replaced isFiltering(..)
         return this.canFilter(predicate, context);
     }
+
+    private static final class CompiledPredicate {
+        private final Predicate predicate;
+        private final JsonPathMatcher matcher;
+
+        private CompiledPredicate(final Predicate predicate, final JsonPathMatcher matcher) {
+            this.predicate = predicate;
+            this.matcher = matcher;
+        }
+    }
 }
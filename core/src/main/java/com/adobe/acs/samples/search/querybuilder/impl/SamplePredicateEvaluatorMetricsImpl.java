@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SamplePredicateEvaluatorMetrics;
+import org.osgi.service.component.annotations.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the PredicateEvaluator metrics in memory, in LongAdders, which many query threads can increment without
+ * contending with each other.
+ */
+@Component(service = SamplePredicateEvaluatorMetrics.class)
+public class SamplePredicateEvaluatorMetricsImpl implements SamplePredicateEvaluatorMetrics {
+
+    private final ConcurrentMap<String, Adders> adders = new ConcurrentHashMap<String, Adders>();
+
+    @Override
+    public final void recordCompiledPredicate(final String predicateType, final boolean filterable) {
+        final Adders counters = this.getAdders(predicateType);
+
+        counters.compiledPredicates.increment();
+        if (filterable) {
+            counters.filterablePredicates.increment();
+        }
+    }
+
+    @Override
+    public final void recordRow(final String predicateType, final boolean included, final long nanos) {
+        final Adders counters = this.getAdders(predicateType);
+
+        counters.rowsIn.increment();
+        if (included) {
+            counters.rowsOut.increment();
+        }
+        counters.filterTimeNanos.add(nanos);
+    }
+
+    @Override
+    public final Map<String, Counters> getCounters() {
+        final Map<String, Counters> snapshot = new TreeMap<String, Counters>();
+
+        for (final Map.Entry<String, Adders> entry : adders.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    private Adders getAdders(final String predicateType) {
+        // get(..) first, so the common case does not allocate a lambda or lock a bin
+        final Adders existing = adders.get(predicateType);
+        return existing != null ? existing : adders.computeIfAbsent(predicateType, type -> new Adders());
+    }
+
+    private static final class Adders {
+        private final LongAdder compiledPredicates = new LongAdder();
+        private final LongAdder filterablePredicates = new LongAdder();
+        private final LongAdder rowsIn = new LongAdder();
+        private final LongAdder rowsOut = new LongAdder();
+        private final LongAdder filterTimeNanos = new LongAdder();
+
+        private Counters snapshot() {
+            return new CountersImpl(compiledPredicates.sum(), filterablePredicates.sum(),
+                    rowsIn.sum(), rowsOut.sum(), filterTimeNanos.sum());
+        }
+    }
+
+    private static final class CountersImpl implements Counters {
+        private final long compiledPredicates;
+        private final long filterablePredicates;
+        private final long rowsIn;
+        private final long rowsOut;
+        private final long filterTimeNanos;
+
+        private CountersImpl(final long compiledPredicates, final long filterablePredicates,
+                             final long rowsIn, final long rowsOut, final long filterTimeNanos) {
+            this.compiledPredicates = compiledPredicates;
+            this.filterablePredicates = filterablePredicates;
+            this.rowsIn = rowsIn;
+            this.rowsOut = rowsOut;
+            this.filterTimeNanos = filterTimeNanos;
+        }
+
+        @Override
+        public long getCompiledPredicates() {
+            return compiledPredicates;
+        }
+
+        @Override
+        public long getFilterablePredicates() {
+            return filterablePredicates;
+        }
+
+        @Override
+        public long getRowsIn() {
+            return rowsIn;
+        }
+
+        @Override
+        public long getRowsOut() {
+            return rowsOut;
+        }
+
+        @Override
+        public long getFilterTimeNanos() {
+            return filterTimeNanos;
+        }
+    }
+}
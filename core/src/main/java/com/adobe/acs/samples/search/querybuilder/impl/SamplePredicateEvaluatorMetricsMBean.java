@@ -0,0 +1,37 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+/**
+ * The JMX management interface for the SamplePredicateEvaluatorMetrics; see it under com.adobe.acs.samples in the
+ * Felix Web Console's JMX tab (/system/console/jmx) or any JMX client.
+ */
+@Description("ACS AEM Samples - Sample PredicateEvaluator Metrics")
+public interface SamplePredicateEvaluatorMetricsMBean {
+
+    @Description("The filtering counters, with a row per predicate type")
+    TabularData getCounters() throws OpenDataException;
+}
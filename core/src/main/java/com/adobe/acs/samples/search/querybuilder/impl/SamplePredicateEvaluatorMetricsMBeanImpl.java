@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SamplePredicateEvaluatorMetrics;
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.Map;
+
+/**
+ * Exposes the SamplePredicateEvaluatorMetrics over JMX, the same way SampleMutableStateMBeanImpl exposes the
+ * SampleMutableStateService statistics.
+ */
+@Component(
+        service = DynamicMBean.class,
+        property = {
+                "jmx.objectname=com.adobe.acs.samples:type=SamplePredicateEvaluatorMetrics"
+        }
+)
+public class SamplePredicateEvaluatorMetricsMBeanImpl extends AnnotatedStandardMBean
+        implements SamplePredicateEvaluatorMetricsMBean {
+    private static final String[] COUNTER_ITEMS = {
+            "predicateType", "compiledPredicates", "filterablePredicates", "rowsIn", "rowsOut", "filterTimeMillis"
+    };
+
+    @Reference
+    private SamplePredicateEvaluatorMetrics metrics;
+
+    public SamplePredicateEvaluatorMetricsMBeanImpl() throws NotCompliantMBeanException {
+        super(SamplePredicateEvaluatorMetricsMBean.class);
+    }
+
+    @Override
+    public TabularData getCounters() throws OpenDataException {
+        final CompositeType rowType = new CompositeType("predicateCounters", "The counters of a predicate type",
+                COUNTER_ITEMS,
+                new String[]{
+                        "The predicate type",
+                        "The number of predicates compiled",
+                        "The number of compiled predicates that could filter",
+                        "The number of candidate rows passed to includes(..)",
+                        "The number of candidate rows included in results",
+                        "The cumulative time spent in includes(..), in milliseconds"
+                },
+                new OpenType[]{
+                        SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                        SimpleType.LONG
+                });
+
+        final TabularData data = new TabularDataSupport(
+                new TabularType("counters", "The counters by predicate type", rowType, new String[]{"predicateType"}));
+
+        for (final Map.Entry<String, SamplePredicateEvaluatorMetrics.Counters> entry
+                : metrics.getCounters().entrySet()) {
+            final SamplePredicateEvaluatorMetrics.Counters counters = entry.getValue();
+
+            data.put(new CompositeDataSupport(rowType, COUNTER_ITEMS, new Object[]{
+                    entry.getKey(),
+                    counters.getCompiledPredicates(),
+                    counters.getFilterablePredicates(),
+                    counters.getRowsIn(),
+                    counters.getRowsOut(),
+                    counters.getFilterTimeNanos() / 1000000L
+            }));
+        }
+
+        return data;
+    }
+}
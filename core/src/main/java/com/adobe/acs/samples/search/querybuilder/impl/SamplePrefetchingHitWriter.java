@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.util.BoundedCache;
+import com.day.cq.search.Query;
+import com.day.cq.search.result.Hit;
+import com.day.cq.search.writer.ResultHitWriter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.io.JSONWriter;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/*
+    A variant of the SampleJsonHitWriter for large result pages (ex. a high p.limit).
+
+    The SampleJsonHitWriter resolves a Resource and a ValueMap for every hit, and then looks up each relative property
+    (ex. jcr:content/jcr:title) through the ValueMap, which resolves the relative node again for every property.
+
+    This hit writer instead:
+    1) Compiles the projection (the properties to write) once per query, grouping the properties by the (relative)
+       node they live on.
+    2) Reads each hit in a single pass over the JCR Node API: each related node is resolved once, and all of its
+       projected properties are read from it.
+    3) Memoizes sampleComplexLogic(..) by path and last modified time, so unchanged hits are not re-computed across
+       queries; the hit's Resource is only resolved on a cache miss.
+
+    Note: ResultHitWriters are handed hits one at a time, with no hook before or after a page of hits, so the
+    properties cannot be fetched across hits in a batch; the saving is in doing as little work per hit as possible.
+
+    The projection is configured via OSGi, and can be overridden per query with space-separated relative property
+    paths in p.properties, ex.
+
+        http://localhost:4502/bin/querybuilder.json?...&p.hitwriter=acs-aem-commons-sample-prefetch&p.properties=jcr:content/jcr:title jcr:content/cq:tags
+
+    Resulting JSON object would look like:
+
+        [
+            ...,
+            {
+                "path": "/content/path/to/hit",
+                "jcr:content/jcr:title": "Hit Title",
+                "jcr:content/cq:tags": ["tag:a", "tag:b"],
+                "complex": "Hello World"
+            },
+            ...
+        ]
+*/
+@Component(
+        factory = "com.day.cq.search.writer.ResultHitWriter/acs-aem-commons-sample-prefetch"
+)
+@Designate(ocd = SamplePrefetchingHitWriter.Cfg.class)
+public class SamplePrefetchingHitWriter implements ResultHitWriter {
+
+    private static final String[] LAST_MODIFIED_PROPERTIES =
+            new String[]{ "jcr:content/cq:lastModified", "cq:lastModified", "jcr:lastModified" };
+
+    // Hit writer instances are created per query (this is a factory component), so share the cache of
+    // sampleComplexLogic(..) results across queries. It is read for every hit, so it must not serialize concurrent
+    // queries on a single lock.
+    private static final BoundedCache<String, String> COMPLEX_VALUES = new BoundedCache<String, String>(10000, 0);
+
+    // The compiled projection of the query this instance writes; compiled on the first hit
+    private HitProjection.PerQuery projections;
+
+    @Activate
+    protected void activate(final Cfg cfg) {
+        this.projections = new HitProjection.PerQuery(cfg.properties());
+    }
+
+    @Override
+    public final void write(Hit hit, JSONWriter jsonWriter, Query query) throws RepositoryException, JSONException {
+        final Node node = hit.getNode();
+
+        jsonWriter.key("path").value(node.getPath());
+
+        projections.get(query).write(node, jsonWriter);
+
+        final long lastModified = getLastModified(node);
+        final String cacheKey = lastModified < 0 ? null : node.getPath() + "@" + lastModified;
+        String complexValue = cacheKey == null ? null : COMPLEX_VALUES.get(cacheKey);
+
+        if (complexValue == null) {
+            // Only resolve the Resource if the value has to be computed
+            complexValue = sampleComplexLogic(hit.getResource());
+
+            if (cacheKey != null) {
+                COMPLEX_VALUES.put(cacheKey, complexValue);
+            }
+        }
+
+        jsonWriter.key("complex").value(complexValue);
+    }
+
+    /**
+     * @return the first last modified time found on (or under) the node, or -1 if there is none
+     */
+    private static long getLastModified(final Node node) throws RepositoryException {
+        for (final String property : LAST_MODIFIED_PROPERTIES) {
+            if (node.hasProperty(property)) {
+                return node.getProperty(property).getDate().getTimeInMillis();
+            }
+        }
+
+        return -1;
+    }
+
+    private String sampleComplexLogic(Resource resource) {
+        // Perform any custom logic you want based on the hit resource; This could be "sub-queries",
+        // or combining/scrubbing data.
+        return "Hello World";
+    }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Prefetching Hit Writer")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Properties",
+                description = "The relative paths of the properties to write for each hit, unless overridden via p.properties."
+        )
+        String[] properties() default { "jcr:content/jcr:title" };
+    }
+}
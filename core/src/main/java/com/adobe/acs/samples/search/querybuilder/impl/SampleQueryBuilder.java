@@ -1,5 +1,7 @@
 package com.adobe.acs.samples.search.querybuilder.impl;
 
+import com.adobe.acs.samples.search.querybuilder.SampleQueryHelper;
+import com.adobe.acs.samples.search.querybuilder.SampleQueryResultCache;
 import com.adobe.acs.samples.services.SampleService;
 import com.day.cq.search.PredicateGroup;
 import com.day.cq.search.Query;
@@ -18,10 +20,8 @@ import org.slf4j.LoggerFactory;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -53,6 +53,12 @@ public class SampleQueryBuilder implements SampleService {
     @Reference
     private QueryBuilder queryBuilder;
 
+    @Reference
+    private SampleQueryHelper queryHelper;
+
+    @Reference
+    private SampleQueryResultCache queryResultCache;
+
     // The user's security context (aka ResourceResolver or JCR Session) must be provided to the QueryBuilder to perform the query in the call
     public void doWork(ResourceResolver resourceResolver) throws PersistenceException {
         final SimpleDateFormat iso8601 = new SimpleDateFormat(ISO8601_DATE);
@@ -160,33 +166,26 @@ public class SampleQueryBuilder implements SampleService {
 
         try {
             // Iterate over the Hits if you need special information
+            // Note: call result.getHits() only once and keep the returned List; do not iterate over it a second time.
             for (final Hit hit : result.getHits()) {
+                // The Hit's own resource is already resolved; avoid resolving hit.getPath() a second time.
+                final Resource hitResource = hit.getResource();
+
                 if (leakingResourceResolver == null) {
                    // Get a reference to QB's leaking ResourceResolver
-                   leakingResourceResolver = hit.getResource().getResourceResolver();
+                   leakingResourceResolver = hitResource.getResourceResolver();
                 }
                 // Returns the path of the hit result
                 String path = hit.getPath();
 
-                // Always get your resources that you might pass out of this method by resolving w/ the ResourceResolver YOU provide (and not the leaking one in QB as we will close the leaking resolver in the finally block)    
-                Resource resource = resourceResolver.getResource(hit.getPath());
-                ValueMap properties = resource.getValueMap();
+                // The hit's resource (and anything read from it) is only usable until the leaking resolver is closed in the finally block.
+                // Always get your resources that you might pass out of this method by resolving w/ the ResourceResolver YOU provide.
+                ValueMap properties = hitResource.getValueMap();
 
                 // Requires setting query.setExcerpt(true) prior to query execution
                 String excerpt = hit.getExcerpt();
                 Map<String, String> excerpts = hit.getExcerpts();
             }
-
-            // A common use case it to collect all the resources that represent hits and put them in a list for work outside of the search service
-            final List<Resource> resources = new ArrayList<Resource>();
-            for (final Hit hit : result.getHits()) {
-                if (leakingResourceResolver == null) {
-                   // Get a reference to QB's leaking ResourceResolver
-                   leakingResourceResolver = hit.getResource().getResourceResolver();
-                }
-                resources.add(resourceResolver.getResource(hit.getPath()));
-            }
-
         } catch (RepositoryException e) {
             log.error("Error collecting search results", e);
         } finally {
@@ -194,7 +193,38 @@ public class SampleQueryBuilder implements SampleService {
                 // Always Close the leaking QueryBuilder resourceResolver.
                 leakingResourceResolver.close();    
             }        
-        }        
+        }
+
+        // A common use case is to process all the resources that represent hits outside of the search code.
+        // Rather than collecting them into a List (which for large result sets holds every Resource in memory), stream
+        // them through a handler. The SampleQueryHelper executes the query once, resolves each hit only as it is reached,
+        // and takes care of the leaking ResourceResolver.
+        try {
+            final long processed = queryHelper.stream(resourceResolver, map, resource -> {
+                // Do some work with each resource...
+                final ValueMap properties = resource.getValueMap();
+
+                // Return false to stop processing once you have what you need.
+                return !properties.get("jcr:content/hideInNav", false);
+            });
+
+            log.debug("Processed [ {} ] hits", processed);
+        } catch (RepositoryException e) {
+            log.error("Error streaming search results", e);
+        }
+
+        // Queries that are executed over and over with the same predicates (and only need the hit paths or the total)
+        // can be served from the SampleQueryResultCache, which is invalidated when content under the "path" changes.
+        final Map<String, String> pagesMap = new HashMap<String, String>();
+        pagesMap.put("path", "/content");
+        pagesMap.put("type", "cq:Page");
+
+        try {
+            final SampleQueryResultCache.CachedResult pages = queryResultCache.getResult(resourceResolver, pagesMap);
+            log.debug("Found [ {} ] pages under /content", pages.getTotalMatches());
+        } catch (RepositoryException e) {
+            log.error("Error getting cached search results", e);
+        }
     }
 
     public String helloWorld() {
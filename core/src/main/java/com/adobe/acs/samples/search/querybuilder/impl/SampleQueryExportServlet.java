@@ -0,0 +1,218 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SampleQueryHelper;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.io.JSONWriter;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.servlet.Servlet;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.apache.sling.api.servlets.ServletResolverConstants.*;
+
+/**
+ * Exports the hits of a QueryBuilder query as JSON, streaming them to the client.
+ *
+ * The request parameters are the QueryBuilder predicates (as for /bin/querybuilder.json), plus p.properties to
+ * select the properties to write per hit. Only predicates of the configured types are accepted, with or without a
+ * numbered prefix (ex. path, 1_property, 1_property.value); all other parameters, including every other p.* option,
+ * are ignored. Unlike /bin/querybuilder.json, this:
+ * 1) Iterates the results of a single query lazily via SampleQueryHelper.stream(..), so no list of Hits is ever
+ *    built, regardless of how many hits are exported.
+ * 2) Writes each hit to the response as soon as it is read (the same way the SampleStreamingHitWriter does).
+ * 3) Flushes the response right away and then every few hits, so the client receives the first bytes immediately
+ *    and the data keeps flowing rather than piling up in the response buffer.
+ *
+ * Resulting JSON object would look like:
+ *
+ * {
+ *     "hits": [
+ *          { "path": "/content/path/to/hit", "jcr:content/jcr:title": "Hit Title" },
+ *          ...
+ *     ],
+ *     "total": 123456
+ * }
+ *
+ * The total is the number of hits matching the query. As p.offset is not accepted, and the total is only written
+ * once every hit has been exported, it is exact without counting the hits in a separate query.
+ *
+ * Note: once the first bytes are flushed, the response status can no longer be changed; if the query fails part way
+ * through (or the client goes away), the error is logged and the JSON is left unterminated so the client can tell the
+ * export is incomplete.
+ */
+@Component(
+        service = { Servlet.class },
+        property = {
+                SLING_SERVLET_RESOURCE_TYPES + "=acs-samples/components/query-export",
+                SLING_SERVLET_METHODS + "=GET",
+                SLING_SERVLET_EXTENSIONS + "=json"
+        }
+)
+@Designate(ocd = SampleQueryExportServlet.Cfg.class)
+public class SampleQueryExportServlet extends SlingSafeMethodsServlet {
+    private static final Logger log = LoggerFactory.getLogger(SampleQueryExportServlet.class);
+
+    private static final String PROPERTIES_PARAM = "p.properties";
+
+    // A predicate parameter is [<number>_]<type>[.<parameter>], ex. 1_property.value
+    private static final Pattern PREDICATE_PARAM = Pattern.compile("^(?:\\d+_)?([^._]+)(?:\\..*)?$");
+
+    @Reference
+    private transient SampleQueryHelper queryHelper;
+
+    private transient Cfg cfg;
+
+    @Activate
+    @Modified
+    protected void activate(final Cfg cfg) {
+        this.cfg = cfg;
+    }
+
+    @Override
+    protected final void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response) throws IOException {
+        final Cfg config = this.cfg;
+        final Set<String> allowedTypes = new HashSet<String>(Arrays.asList(config.predicate_types()));
+        final Map<String, String> predicates = new HashMap<String, String>();
+
+        for (final Map.Entry<String, String[]> parameter : request.getParameterMap().entrySet()) {
+            if (parameter.getValue().length == 0) {
+                continue;
+            } else if (isAllowed(parameter.getKey(), allowedTypes)) {
+                predicates.put(parameter.getKey(), parameter.getValue()[0]);
+            } else if (!PROPERTIES_PARAM.equals(parameter.getKey())) {
+                log.debug("Ignoring request parameter [ {} ], which is not an allowed predicate", parameter.getKey());
+            }
+        }
+
+        // The projection is applied here, and hits are always written as by the SampleStreamingHitWriter
+        final HitProjection projection =
+                HitProjection.compile(request.getParameter(PROPERTIES_PARAM), config.properties());
+        final int flushInterval = Math.max(1, config.flush_interval());
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        final PrintWriter writer = response.getWriter();
+        final JSONWriter json = new JSONWriter(writer);
+
+        try {
+            json.object().key("hits").array();
+
+            // Send the response headers and the start of the JSON right away
+            writer.flush();
+
+            final long[] written = { 0 };
+            final boolean[] stopped = { false };
+
+            final long total = queryHelper.stream(request.getResourceResolver(), predicates,
+                    resource -> {
+                        try {
+                            json.object();
+                            json.key("path").value(resource.getPath());
+
+                            final Node node = resource.adaptTo(Node.class);
+                            if (node != null) {
+                                projection.write(node, json);
+                            }
+
+                            json.endObject();
+                        } catch (JSONException e) {
+                            throw new RepositoryException("Could not write hit [ " + resource.getPath() + " ]", e);
+                        }
+
+                        if (++written[0] % flushInterval == 0 && writer.checkError()) {
+                            // checkError() flushes, and reports whether the client has gone away; if so, stop
+                            stopped[0] = true;
+                            return false;
+                        }
+
+                        return true;
+                    });
+
+            if (stopped[0]) {
+                log.info("The client went away after {} hits of query {}; stopped the export", total, predicates);
+                return;
+            }
+
+            json.endArray().key("total").value(total).endObject();
+            writer.flush();
+        } catch (RepositoryException | JSONException e) {
+            log.error("Could not export the hits of query {}", predicates, e);
+        }
+    }
+
+    /**
+     * @return true if the parameter is a parameter of a predicate of an allowed type
+     */
+    private static boolean isAllowed(final String name, final Set<String> allowedTypes) {
+        final Matcher matcher = PREDICATE_PARAM.matcher(name);
+        return matcher.matches() && allowedTypes.contains(matcher.group(1));
+    }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Query Export Servlet")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Properties",
+                description = "The relative paths of the properties to write for each hit, unless overridden via p.properties."
+        )
+        String[] properties() default { "jcr:content/jcr:title" };
+
+        @AttributeDefinition(
+                name = "Flush interval",
+                description = "The response is flushed after every this many hits."
+        )
+        int flush_interval() default 100;
+
+        @AttributeDefinition(
+                name = "Predicate types",
+                description = "The QueryBuilder predicate types whose parameters are accepted; all other request "
+                        + "parameters are ignored. Do not add 'p' (which would let clients set p.limit, p.offset, "
+                        + "p.hitwriter...) or 'group' (whose nested predicates would not be checked)."
+        )
+        String[] predicate_types() default {
+                "path", "type", "nodename", "property", "fulltext", "daterange", "relativedaterange", "tagid", "orderby"
+        };
+    }
+}
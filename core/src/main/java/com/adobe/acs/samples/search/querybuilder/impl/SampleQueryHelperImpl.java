@@ -0,0 +1,188 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SampleQueryHelper;
+import com.day.cq.search.PredicateGroup;
+import com.day.cq.search.Query;
+import com.day.cq.search.QueryBuilder;
+import com.day.cq.search.result.SearchResult;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+@Component(
+        service = SampleQueryHelper.class
+)
+@Designate(ocd = SampleQueryHelperImpl.Cfg.class)
+public class SampleQueryHelperImpl implements SampleQueryHelper {
+    private static final Logger log = LoggerFactory.getLogger(SampleQueryHelperImpl.class);
+
+    static final String COUNT_MODE_PRECISE = "precise";
+    static final String COUNT_MODE_ESTIMATED = "estimated";
+
+    @Reference
+    private QueryBuilder queryBuilder;
+
+    private volatile Cfg cfg;
+
+    @Activate
+    @Modified
+    protected void activate(final Cfg cfg) {
+        this.cfg = cfg;
+    }
+
+    @Override
+    public QueryCount count(final ResourceResolver resourceResolver, final Map<String, String> predicates)
+            throws RepositoryException {
+        final Cfg config = this.cfg;
+        final boolean estimate = !COUNT_MODE_PRECISE.equals(config.count_mode());
+        final long cap = Math.max(1, config.count_guess_total());
+
+        final Map<String, String> countPredicates = new HashMap<String, String>(predicates);
+        countPredicates.put("p.offset", "0");
+
+        // Ask for the smallest possible page of hits. p.limit=-1 means "all hits", and p.limit=0 is not reliably
+        // "no hits" across QueryBuilder versions, so 1 is used; getHits() is never called below.
+        countPredicates.put("p.limit", "1");
+
+        if (estimate) {
+            // QueryBuilder stops reading index rows once it has found this many results. One more than the cap is asked
+            // for, as a total of exactly the cap cannot tell "exactly the cap" from "more than the cap" apart.
+            countPredicates.put("p.guessTotal", String.valueOf(cap + 1));
+        } else {
+            // Without guessTotal, QueryBuilder reads every row to compute getTotalMatches()
+            countPredicates.remove("p.guessTotal");
+        }
+
+        final Query query = queryBuilder.createQuery(PredicateGroup.create(countPredicates), resourceResolver.adaptTo(Session.class));
+        final SearchResult result = query.getResult();
+
+        // Only the total is read from the result; never result.getHits(). hasMore() is no help, as it refers to the page
+        // of 1 hit asked for above, so is true for any result of more than 1 hit.
+        final long total = result.getTotalMatches();
+        final Count count = estimate && total > cap ? new Count(cap, true) : new Count(total, false);
+
+        // QueryBuilder does not report how many index rows it read, only how long the query took.
+        log.debug("Counted [ {} ] hits (estimated: {}) in [ {} ] ms for {}",
+                count.getCount(), count.isEstimated(), result.getExecutionTimeMillis(), countPredicates);
+
+        return count;
+    }
+
+    @Override
+    public long stream(final ResourceResolver resourceResolver, final Map<String, String> predicates,
+                       final HitHandler handler) throws RepositoryException {
+        // Copy the predicates so the caller's map is not modified.
+        final Map<String, String> all = new HashMap<String, String>(predicates);
+        // Return every hit from this one query; any p.offset from the caller is applied once, by QueryBuilder.
+        all.put("p.limit", "-1");
+        // Never count the full result set up front; the hits are counted as they are handled.
+        all.put("p.guessTotal", "true");
+
+        final Query query = queryBuilder.createQuery(PredicateGroup.create(all), resourceResolver.adaptTo(Session.class));
+        final SearchResult result = query.getResult();
+
+        // QueryBuilder has a leaking ResourceResolver per query; it must be closed once the results are processed.
+        ResourceResolver leakingResourceResolver = null;
+        long processed = 0;
+
+        try {
+            // Never call getHits() here; it builds a List of every Hit. getResources() resolves each hit as it is reached.
+            final Iterator<Resource> resources = result.getResources();
+
+            while (resources.hasNext()) {
+                final Resource resource = resources.next();
+
+                if (leakingResourceResolver == null) {
+                    leakingResourceResolver = resource.getResourceResolver();
+                }
+
+                processed++;
+
+                if (!handler.handle(resource)) {
+                    // Early termination; the remaining hits are never resolved.
+                    break;
+                }
+            }
+        } finally {
+            if (leakingResourceResolver != null && leakingResourceResolver != resourceResolver) {
+                leakingResourceResolver.close();
+            }
+        }
+
+        return processed;
+    }
+
+    private static final class Count implements QueryCount {
+        private final long count;
+        private final boolean estimated;
+
+        private Count(final long count, final boolean estimated) {
+            this.count = count;
+            this.estimated = estimated;
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public boolean isEstimated() {
+            return estimated;
+        }
+    }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Query Helper")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Count mode",
+                description = "Precise counts read every matching index row; estimated counts stop reading at the guess total cap.",
+                options = {
+                        @Option(label = "Estimated", value = COUNT_MODE_ESTIMATED),
+                        @Option(label = "Precise", value = COUNT_MODE_PRECISE)
+                }
+        )
+        String count_mode() default COUNT_MODE_ESTIMATED;
+
+        @AttributeDefinition(
+                name = "Guess total cap",
+                description = "Estimated counts stop at this many hits, and report it as a lower bound when there are more."
+        )
+        int count_guess_total() default 1000;
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SampleQueryResultCache;
+import com.adobe.acs.samples.util.BoundedCache;
+import com.day.cq.search.PredicateGroup;
+import com.day.cq.search.Query;
+import com.day.cq.search.QueryBuilder;
+import com.day.cq.search.result.Hit;
+import com.day.cq.search.result.SearchResult;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches QueryBuilder results for repeated queries, such as "all cq:Pages under X".
+ *
+ * This is also registered as a Sling ResourceChangeListener (Sling's abstraction over JCR observation) so that
+ * cached results are invalidated when content under the query's "path" predicate is added, changed or removed.
+ * Only changes under the observed paths (resource.paths) are seen, so only queries whose "path" predicate is at or under
+ * an observed path are cached; queries without a path, or with a path elsewhere (ex. /conf or /var), always execute.
+ *
+ * A query that is running while content changes may have read the content from before the change; its result is
+ * returned to the caller, but not cached. Every change increments a generation counter, and a result is only cached if
+ * the generation did not move while its query ran. This is coarse (a change anywhere stops in-flight results from
+ * being cached) but never leaves a stale result in the cache.
+ */
+@Component(
+        service = { SampleQueryResultCache.class, ResourceChangeListener.class },
+        property = {
+                // The paths to listen for changes under can be overridden via the resource.paths OSGi config below.
+                ResourceChangeListener.PATHS + "=/content",
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=CHANGED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        }
+)
+@Designate(ocd = SampleQueryResultCacheImpl.Cfg.class)
+public class SampleQueryResultCacheImpl implements SampleQueryResultCache, ResourceChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(SampleQueryResultCacheImpl.class);
+
+    private static final String PATH_PREDICATE = "path";
+
+    @Reference
+    private QueryBuilder queryBuilder;
+
+    // Incremented on every content change; see the class comment.
+    private final AtomicLong generation = new AtomicLong();
+
+    // The paths changes are observed under; results of queries outside of them could not be invalidated.
+    private volatile String[] observedPaths;
+
+    // Both are replaced when the component is (re)configured; re-configuring starts with empty caches and counters.
+    private volatile BoundedCache<String, Entry> entries;
+    // The sorted principal names, as used in the cache key, per user ID
+    private volatile BoundedCache<String, String> principalKeys;
+
+    @Activate
+    @Modified
+    protected void activate(final Cfg cfg) {
+        final String[] paths = cfg.resource_paths() == null ? new String[0] : cfg.resource_paths();
+        final String[] normalized = new String[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            normalized[i] = Entry.normalize(paths[i]);
+        }
+
+        this.observedPaths = normalized;
+        this.entries = new BoundedCache<String, Entry>(cfg.max_size(), cfg.ttl());
+        this.principalKeys = new BoundedCache<String, String>(cfg.max_size(), cfg.principal_ttl());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        entries.clear();
+        principalKeys.clear();
+    }
+
+    @Override
+    public CachedResult getResult(final ResourceResolver resourceResolver, final Map<String, String> predicates)
+            throws RepositoryException {
+        final Session session = resourceResolver.adaptTo(Session.class);
+
+        if (!isObserved(predicates.get(PATH_PREDICATE))) {
+            log.debug("Not caching the result of {}, as changes outside the observed paths would not invalidate it",
+                    predicates);
+            return execute(session, predicates);
+        }
+
+        final String key = getCacheKey(session, predicates);
+        final BoundedCache<String, Entry> cache = this.entries;
+
+        final Entry cached = cache.get(key);
+        if (cached != null) {
+            return cached.result;
+        }
+
+        // Captured before the query executes, so any change the query may not have seen is detected below.
+        final long startGeneration = generation.get();
+
+        final CachedResult result = execute(session, predicates);
+
+        if (generation.get() == startGeneration) {
+            final Entry entry = new Entry(result, predicates.get(PATH_PREDICATE));
+            cache.put(key, entry);
+
+            // A change may have been processed between the check above and the put; if so, its invalidation could
+            // have missed this entry, so undo the put (unless the entry has already been replaced or removed).
+            if (generation.get() != startGeneration) {
+                cache.remove(key, entry);
+            }
+        } else {
+            log.debug("Content changed while the query executed; not caching the result of {}", predicates);
+        }
+
+        return result;
+    }
+
+    @Override
+    public long getHitCount() {
+        return entries.getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return entries.getEvictionCount() + entries.getExpirationCount();
+    }
+
+    @Override
+    public void onChange(final List<ResourceChange> changes) {
+        // Increment before invalidating, so queries in flight do not cache what they read before this change.
+        generation.incrementAndGet();
+
+        entries.removeIf((key, entry) -> {
+            for (final ResourceChange change : changes) {
+                if (entry.isAffectedBy(change.getPath())) {
+                    return true;
+                }
+            }
+
+            return false;
+        });
+    }
+
+    private boolean isObserved(final String path) {
+        if (path == null) {
+            return false;
+        }
+
+        final String normalized = Entry.normalize(path);
+
+        for (final String observedPath : observedPaths) {
+            if (Entry.isSameOrDescendant(normalized, observedPath)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private CachedResult execute(final Session session, final Map<String, String> predicates) throws RepositoryException {
+        final Query query = queryBuilder.createQuery(PredicateGroup.create(predicates), session);
+        final SearchResult result = query.getResult();
+
+        final List<String> paths = new ArrayList<String>();
+        ResourceResolver leakingResourceResolver = null;
+
+        try {
+            for (final Hit hit : result.getHits()) {
+                if (leakingResourceResolver == null) {
+                    // Get a reference to QB's leaking ResourceResolver
+                    leakingResourceResolver = hit.getResource().getResourceResolver();
+                }
+
+                paths.add(hit.getPath());
+            }
+        } finally {
+            if (leakingResourceResolver != null) {
+                leakingResourceResolver.close();
+            }
+        }
+
+        return new Result(Collections.unmodifiableList(paths), result.getTotalMatches());
+    }
+
+    /**
+     * The cache key is the sorted predicate map plus the sorted principal names of the user. Sorting makes the key
+     * independent of the order the caller populated the map in.
+     */
+    private String getCacheKey(final Session session, final Map<String, String> predicates) throws RepositoryException {
+        final StringBuilder key = new StringBuilder();
+
+        for (final Map.Entry<String, String> predicate : new TreeMap<String, String>(predicates).entrySet()) {
+            // Use control characters as separators, as they will not appear in predicate names or values
+            key.append(predicate.getKey()).append('\u0000').append(predicate.getValue()).append('\u0001');
+        }
+
+        key.append('\u0002').append(getPrincipalKey(session));
+
+        return key.toString();
+    }
+
+    /**
+     * Resolving a user's principals walks their (inherited) group memberships, so the result is cached per user ID.
+     * Changes to a user's group memberships are therefore only reflected in the cache key once the principal TTL
+     * expires.
+     */
+    private String getPrincipalKey(final Session session) throws RepositoryException {
+        final String userId = session.getUserID();
+        final BoundedCache<String, String> cache = this.principalKeys;
+
+        String principalKey = userId == null ? null : cache.get(userId);
+
+        if (principalKey == null) {
+            final StringBuilder key = new StringBuilder();
+
+            for (final String principalName : getPrincipalNames(session)) {
+                key.append(principalName).append('\u0001');
+            }
+
+            principalKey = key.toString();
+
+            if (userId != null) {
+                cache.put(userId, principalKey);
+            }
+        }
+
+        return principalKey;
+    }
+
+    /**
+     * Users with the same set of principals have the same read access, so they can safely share query results.
+     */
+    private Set<String> getPrincipalNames(final Session session) throws RepositoryException {
+        final Set<String> principalNames = new TreeSet<String>();
+
+        if (session instanceof JackrabbitSession) {
+            final Authorizable authorizable = ((JackrabbitSession) session).getUserManager().getAuthorizable(session.getUserID());
+
+            if (authorizable != null) {
+                principalNames.add(authorizable.getPrincipal().getName());
+
+                // memberOf() includes inherited group memberships
+                final Iterator<Group> groups = authorizable.memberOf();
+                while (groups.hasNext()) {
+                    principalNames.add(groups.next().getPrincipal().getName());
+                }
+
+                return principalNames;
+            }
+        }
+
+        // Fall back to the user ID; this is stricter (no sharing across users) but always safe.
+        principalNames.add("user:" + session.getUserID());
+        return principalNames;
+    }
+
+    private static final class Entry {
+        private final CachedResult result;
+        private final String path;
+
+        private Entry(final CachedResult result, final String path) {
+            this.result = result;
+            this.path = normalize(path);
+        }
+
+        /**
+         * A change affects this entry if it is at or under the query's path, or is an ancestor of it (ex. a removed parent).
+         * Queries without a path predicate can match anything, so any change affects them.
+         */
+        private boolean isAffectedBy(final String changedPath) {
+            if (path == null || changedPath == null) {
+                return true;
+            }
+
+            final String changed = normalize(changedPath);
+
+            return isSameOrDescendant(changed, path) || isSameOrDescendant(path, changed);
+        }
+
+        /**
+         * Removes a trailing slash (ex. a "path" predicate of "/content/site/"), so paths compare equal to their
+         * ancestors' and descendants' paths.
+         */
+        private static String normalize(final String path) {
+            if (path != null && path.length() > 1 && path.endsWith("/")) {
+                return path.substring(0, path.length() - 1);
+            }
+
+            return path;
+        }
+
+        private static boolean isSameOrDescendant(final String path, final String ancestor) {
+            return path.equals(ancestor)
+                    || "/".equals(ancestor)
+                    || (path.startsWith(ancestor) && path.charAt(ancestor.length()) == '/');
+        }
+    }
+
+    private static final class Result implements CachedResult {
+        private final List<String> paths;
+        private final long totalMatches;
+
+        private Result(final List<String> paths, final long totalMatches) {
+            this.paths = paths;
+            this.totalMatches = totalMatches;
+        }
+
+        @Override
+        public List<String> getPaths() {
+            return paths;
+        }
+
+        @Override
+        public long getTotalMatches() {
+            return totalMatches;
+        }
+    }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Query Result Cache")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Max size",
+                description = "The maximum number of query results to cache; least recently used results are evicted first."
+        )
+        int max_size() default 1000;
+
+        @AttributeDefinition(
+                name = "TTL",
+                description = "The time in milliseconds a query result is cached for."
+        )
+        long ttl() default 300000;
+
+        @AttributeDefinition(
+                name = "Observed paths",
+                description = "Changes under these paths invalidate cached results whose path predicate they fall under. "
+                        + "Only results of queries with a path predicate at or under one of these paths are cached."
+        )
+        String[] resource_paths() default { "/content" };
+
+        @AttributeDefinition(
+                name = "Principal TTL",
+                description = "The time in milliseconds a user's principals (used to share results between users with the same access) are cached for."
+        )
+        long principal_ttl() default 60000;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.day.cq.search.Query;
+import com.day.cq.search.result.Hit;
+import com.day.cq.search.writer.ResultHitWriter;
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.io.JSONWriter;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/*
+    A lean hit writer for exporting many hits: it writes only the hit's path and a projection of its properties,
+    reading them straight from the hit's Node, and holds nothing between hits. The JSONWriter QueryBuilder passes in
+    writes through to the response, so each hit's JSON is on its way to the client as soon as it has been computed.
+
+        http://localhost:4502/bin/querybuilder.json?...&p.hitwriter=acs-aem-commons-sample-stream&p.properties=jcr:content/jcr:title
+
+    A hit writer cannot flush the response, and /bin/querybuilder.json holds all of a page's Hits in memory; for very
+    large exports, use the SampleQueryExportServlet, which writes hits the same way but iterates the results lazily
+    and flushes periodically.
+*/
+@Component(
+        factory = "com.day.cq.search.writer.ResultHitWriter/acs-aem-commons-sample-stream"
+)
+@Designate(ocd = SampleStreamingHitWriter.Cfg.class)
+public class SampleStreamingHitWriter implements ResultHitWriter {
+
+    // The compiled projection of the query this instance writes; compiled on the first hit
+    private HitProjection.PerQuery projections;
+
+    @Activate
+    protected void activate(final Cfg cfg) {
+        this.projections = new HitProjection.PerQuery(cfg.properties());
+    }
+
+    @Override
+    public final void write(Hit hit, JSONWriter jsonWriter, Query query) throws RepositoryException, JSONException {
+        final Node node = hit.getNode();
+
+        jsonWriter.key("path").value(node.getPath());
+        projections.get(query).write(node, jsonWriter);
+    }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Streaming Hit Writer")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Properties",
+                description = "The relative paths of the properties to write for each hit, unless overridden via p.properties."
+        )
+        String[] properties() default { "jcr:content/jcr:title" };
+    }
+}
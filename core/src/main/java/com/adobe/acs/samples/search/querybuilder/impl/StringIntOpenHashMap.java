@@ -0,0 +1,181 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import java.util.Arrays;
+
+/**
+ * A String to int counter map using open addressing (linear probing) over plain arrays.
+ *
+ * Counting facet buckets in a HashMap<String, Integer> (or Long) creates a boxed count and a Map.Entry per bucket,
+ * plus a new box every time a count is incremented beyond the small Integer cache. This map stores the counts in an
+ * int[], so incrementing a count never allocates.
+ *
+ * Keys are kept in insertion order, so buckets come out in the order their values were first seen.
+ *
+ * Instances are NOT thread-safe; give each thread its own map, and merge(..) them when done.
+ */
+final class StringIntOpenHashMap {
+    private static final int EMPTY = -1;
+
+    // The hash table; each slot holds an index into keys/counts, or EMPTY
+    private int[] slots;
+
+    // Keys and counts, by insertion order
+    private String[] keys;
+    private int[] counts;
+    private int size = 0;
+
+    StringIntOpenHashMap() {
+        this(16);
+    }
+
+    StringIntOpenHashMap(final int expectedSize) {
+        // Keep the table at most half full, so probe sequences stay short
+        int capacity = 2;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+
+        this.slots = new int[capacity];
+        Arrays.fill(this.slots, EMPTY);
+        this.keys = new String[Math.max(expectedSize, 1)];
+        this.counts = new int[Math.max(expectedSize, 1)];
+    }
+
+    /**
+     * Adds one to the count of the key.
+     */
+    void increment(final String key) {
+        add(key, 1);
+    }
+
+    /**
+     * Adds delta to the count of the key; keys that are not in the map start at 0.
+     *
+     * @return the new count of the key
+     */
+    int add(final String key, final int delta) {
+        final int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+
+        while (true) {
+            final int index = slots[slot];
+
+            if (index == EMPTY) {
+                insert(slot, key, delta);
+                return delta;
+            } else if (keys[index].equals(key)) {
+                counts[index] += delta;
+                return counts[index];
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the count of the key, or 0 if the key is not in the map
+     */
+    int get(final String key) {
+        final int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+
+        while (true) {
+            final int index = slots[slot];
+
+            if (index == EMPTY) {
+                return 0;
+            } else if (keys[index].equals(key)) {
+                return counts[index];
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Adds all the counts of another map to this map.
+     */
+    void merge(final StringIntOpenHashMap other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.keys[i], other.counts[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param i the insertion index, from 0 to size() - 1
+     */
+    String keyAt(final int i) {
+        return keys[i];
+    }
+
+    /**
+     * @param i the insertion index, from 0 to size() - 1
+     */
+    int countAt(final int i) {
+        return counts[i];
+    }
+
+    private void insert(final int slot, final String key, final int delta) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+
+        keys[size] = key;
+        counts[size] = delta;
+        slots[slot] = size;
+        size++;
+
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY);
+
+        final int mask = slots.length - 1;
+
+        for (int i = 0; i < size; i++) {
+            int slot = hash(keys[i]) & mask;
+
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+
+            slots[slot] = i;
+        }
+    }
+
+    private static int hash(final String key) {
+        // String caches its hashCode; spread the high bits into the low bits, which are the ones the mask keeps
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -21,9 +21,56 @@
 package com.adobe.acs.samples.services;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface SampleMultiReferenceService {
 
+    /**
+     * Calls each bound SampleService in turn, so takes as long as all of them combined.
+     */
     public List<String> helloWorlds();
 
+    /**
+     * Calls all bound SampleServices in parallel, and collects the results of those that respond within the timeout.
+     * A slow (or failing) service does not hold up the others; it is simply missing from the results.
+     *
+     * @param timeoutMillis the time to wait for the services, in milliseconds; 0 or less for the configured default
+     * @return a future completed with the results keyed by service name, as soon as all services responded or the
+     * timeout expired, whichever comes first; or completed exceptionally if this service has been deactivated
+     */
+    public CompletableFuture<Map<String, String>> helloWorldsAsync(long timeoutMillis);
+
+    /**
+     * @return the latency statistics of helloWorldsAsync(..) calls, keyed by service name
+     */
+    public Map<String, LatencyStats> getLatencyStats();
+
+    /**
+     * Latency statistics of one SampleService.
+     */
+    interface LatencyStats {
+
+        /**
+         * @return the number of calls that completed (successfully or not) before the timeout
+         */
+        long getCount();
+
+        /**
+         * @return the number of calls that threw an exception
+         */
+        long getFailureCount();
+
+        /**
+         * @return the number of calls that were still running when the timeout expired, or could not be started
+         */
+        long getTimeoutCount();
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return an upper bound of the latency at the percentile, in microseconds; histogram buckets double in width,
+         * so this is accurate to within a factor of 2
+         */
+        long getPercentileMicros(double percentile);
+    }
 }
@@ -20,10 +20,32 @@
 
 package com.adobe.acs.samples.services;
 
+import java.util.Map;
+
+/**
+ * A service holding state shared across requests.
+ *
+ * By default the map and list grow without limit. For long-running instances, the service can be configured to be
+ * bounded: the map then holds at most a maximum number of entries (evicting the least recently used), map entries can
+ * expire after a time-to-live, and the list keeps only its most recent items. Register EvictionListener services to
+ * be told about evictions.
+ *
+ * The service also keeps named counters (ex. one per kind of request), which are cheap to increment from many threads
+ * at once, and report the rate they were incremented at over a recent window.
+ */
 public interface SampleMutableStateService {
 
+    /**
+     * @param key the key; must not be null
+     * @param val the value; null removes the key
+     * @throws IllegalArgumentException if the key is null
+     */
     void addToMap(final String key, final String val);
 
+    /**
+     * @param key the key
+     * @return the value, or null if the key (or a null key) has no value
+     */
     String getFromMap(final String key);
 
     void addToList(final String val);
@@ -32,5 +54,114 @@ public interface SampleMutableStateService {
 
     void incremementCount();
 
+    /**
+     * @return the count, or Integer.MAX_VALUE if it has grown beyond what an int can hold
+     */
     int getCount();
+
+    /**
+     * Increments the named counter by one, creating it if it does not exist.
+     *
+     * @param name the name of the counter
+     */
+    void incrementCounter(String name);
+
+    /**
+     * Adds to the named counter, creating it if it does not exist.
+     *
+     * @param name the name of the counter
+     * @param delta the amount to add
+     */
+    void addToCounter(String name, long delta);
+
+    /**
+     * @param name the name of the counter
+     * @return the count since the counter was created or last reset, or 0 if there is no such counter
+     */
+    long getCounter(String name);
+
+    /**
+     * @param name the name of the counter
+     * @return the average number of increments per second over the rate window, or 0 if there is no such counter
+     */
+    double getCounterRate(String name);
+
+    /**
+     * @return the counts of all named counters, keyed by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Returns the counts of all named counters and resets them to 0, ex. for a reporter that periodically ships the
+     * counts since its last report. Increments made while this runs are counted towards either this snapshot or the
+     * next one; none are lost.
+     *
+     * @return the counts since the last reset, keyed by name
+     */
+    Map<String, Long> snapshotAndReset();
+
+    /**
+     * @return a snapshot of the map and list statistics
+     */
+    StateStats getStats();
+
+    /**
+     * The reason an entry was evicted.
+     */
+    enum EvictionCause {
+        /** The map or list exceeded its maximum size */
+        SIZE,
+        /** The map entry outlived its time-to-live */
+        EXPIRED
+    }
+
+    /**
+     * Register implementations as OSGi services to be notified when the bounded store evicts map entries or list
+     * items. Listeners are called on the thread that caused the eviction, so must return quickly.
+     */
+    interface EvictionListener {
+
+        /**
+         * @param key the key of the evicted map entry, or null for an evicted list item
+         * @param value the evicted value
+         * @param cause why the entry was evicted
+         */
+        void onEviction(String key, String value, EvictionCause cause);
+    }
+
+    /**
+     * Statistics of the map and list.
+     */
+    interface StateStats {
+
+        /**
+         * @return true if the service is configured to be bounded
+         */
+        boolean isBounded();
+
+        /**
+         * @return the number of entries in the map (including expired entries that have not been evicted yet)
+         */
+        int getMapSize();
+
+        /**
+         * @return the number of getFromMap(..) calls that found a value
+         */
+        long getHitCount();
+
+        /**
+         * @return the number of getFromMap(..) calls that found no value
+         */
+        long getMissCount();
+
+        /**
+         * @return the number of map entries and list items evicted because of size limits
+         */
+        long getEvictionCount();
+
+        /**
+         * @return the number of map entries evicted because they expired
+         */
+        long getExpirationCount();
+    }
 }
@@ -0,0 +1,38 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.services;
+
+public interface SamplePageCountService {
+
+    // Returned by getDescendantPageCount(..) when the count is not known
+    long UNKNOWN = -1;
+
+    /**
+     * Returns the number of cq:Pages under (and excluding) the provided path in O(1), without querying.
+     *
+     * Note: counts are maintained via a service user, so they do not take the calling user's read access into account.
+     *
+     * @param path the path to count the descendant pages of
+     * @return the number of descendant cq:Pages, or UNKNOWN if the path is not covered by the service or the counts
+     * are still being built.
+     */
+    long getDescendantPageCount(String path);
+}
@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+import com.adobe.acs.samples.services.SampleMutableStateService.EvictionCause;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded LRU map of Strings with an optional time-to-live per entry.
+ *
+ * Least-recently-used ordering means every read reorders the map, so unlike a ConcurrentHashMap, reads take the
+ * lock too; that is the price of bounding the map by recency. Locks are held only for the map operation itself;
+ * eviction callbacks run after the lock is released.
+ *
+ * Expired entries are removed when they are read, or when they become the least recently used entry; either way,
+ * the number of entries (expired or not) never exceeds the maximum size.
+ */
+final class BoundedStateMap {
+
+    /**
+     * Called (outside any lock) for every evicted entry.
+     */
+    interface Listener {
+        void onEviction(String key, String value, EvictionCause cause);
+    }
+
+    private final long ttl;
+    private final Listener listener;
+    private final Map<String, Entry> entries;
+
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    // Entries evicted by the current put(..); only touched while holding the lock
+    private List<Map.Entry<String, Entry>> evicted = new ArrayList<Map.Entry<String, Entry>>();
+
+    /**
+     * @param maxSize the maximum number of entries
+     * @param ttl the time-to-live of each entry in milliseconds, or 0 for no expiry
+     * @param listener notified of evictions
+     */
+    BoundedStateMap(final int maxSize, final long ttl, final Listener listener) {
+        this.ttl = ttl;
+        this.listener = listener;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                if (size() > maxSize) {
+                    evicted.add(eldest);
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    String get(final String key) {
+        final Entry entry;
+
+        synchronized (this) {
+            final Entry candidate = entries.get(key);
+
+            if (candidate == null || !candidate.isExpired()) {
+                return candidate == null ? null : candidate.value;
+            }
+
+            entries.remove(key);
+            entry = candidate;
+        }
+
+        notifyExpired(key, entry);
+        return null;
+    }
+
+    void put(final String key, final String value) {
+        final List<Map.Entry<String, Entry>> removed;
+
+        synchronized (this) {
+            if (value == null) {
+                entries.remove(key);
+                return;
+            }
+
+            entries.put(key, new Entry(value, ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE));
+
+            if (evicted.isEmpty()) {
+                return;
+            }
+
+            removed = evicted;
+            evicted = new ArrayList<Map.Entry<String, Entry>>();
+        }
+
+        for (final Map.Entry<String, Entry> entry : removed) {
+            if (entry.getValue().isExpired()) {
+                notifyExpired(entry.getKey(), entry.getValue());
+            } else {
+                evictions.increment();
+                listener.onEviction(entry.getKey(), entry.getValue().value, EvictionCause.SIZE);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    private void notifyExpired(final String key, final Entry entry) {
+        expirations.increment();
+        listener.onEviction(key, entry.value, EvictionCause.EXPIRED);
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final long expiresAt;
+
+        private Entry(final String value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return expiresAt <= System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+import com.adobe.acs.samples.services.SampleMultiReferenceService.LatencyStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with power-of-2 wide buckets (bucket n holds latencies up to 2^n - 1 microseconds), which is
+ * coarse, but fixed in size and cheap to record into from many threads at once; all counts are LongAdders, so
+ * recording never locks or contends on one value.
+ *
+ * Reads are not a consistent snapshot; a percentile read while latencies are being recorded may include some of them.
+ */
+final class LatencyHistogram implements LatencyStats {
+    // 2^40 microseconds is about 12 days; anything longer shares the last bucket
+    private static final int BUCKETS = 41;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos the latency of a completed call, in nanoseconds
+     * @param failed true if the call threw an exception
+     */
+    void record(final long nanos, final boolean failed) {
+        final long micros = Math.max(0, nanos / 1000);
+        buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+
+        if (failed) {
+            failures.increment();
+        }
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (final LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getPercentileMicros(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (1L << i) - 1;
+            }
+        }
+
+        return (1L << (BUCKETS - 1)) - 1;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named counter for high-frequency increments, such as counting requests.
+ *
+ * A single AtomicInteger/AtomicLong is one memory location every incrementing core fights over; a LongAdder spreads
+ * increments over several cells (and so cache lines) under contention, and only sums them when read. It counts in a
+ * long, so it does not overflow after 2^31 increments like an int does.
+ *
+ * The rate is computed over a sliding window of one-second buckets. Buckets are recycled as time moves on without
+ * any locking, so an increment racing with its bucket being recycled may be dropped from the rate (never from the
+ * count); the rate is meant for monitoring, not accounting.
+ */
+final class NamedCounter {
+    private final LongAdder total = new LongAdder();
+
+    // The total as of the last snapshotAndReset(); the counter's value is total - reset, so no concurrent increment
+    // is ever lost to a reset.
+    private final AtomicLong reset = new AtomicLong();
+
+    private final LongAdder[] buckets;
+    private final AtomicLongArray bucketSeconds;
+
+    /**
+     * @param windowSeconds the length of the rate window, in seconds
+     */
+    NamedCounter(final int windowSeconds) {
+        this.buckets = new LongAdder[Math.max(1, windowSeconds)];
+        this.bucketSeconds = new AtomicLongArray(buckets.length);
+
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+            bucketSeconds.set(i, -1);
+        }
+    }
+
+    void add(final long delta) {
+        total.add(delta);
+
+        final long second = System.currentTimeMillis() / 1000;
+        final int index = (int) (second % buckets.length);
+        final long bucketSecond = bucketSeconds.get(index);
+
+        // The first increment in a new second claims (and clears) the bucket last used window-length seconds ago
+        if (bucketSecond != second && bucketSeconds.compareAndSet(index, bucketSecond, second)) {
+            buckets[index].reset();
+        }
+
+        buckets[index].add(delta);
+    }
+
+    /**
+     * @return the count since the last snapshotAndReset()
+     */
+    long get() {
+        return total.sum() - reset.get();
+    }
+
+    /**
+     * @return the count since the last snapshotAndReset(), and starts counting from 0 again
+     */
+    long snapshotAndReset() {
+        // Concurrent snapshots must not move the baseline backwards, or one of them would report a negative count and
+        // the next would count the difference twice; each snapshot claims the increments since the previous one.
+        while (true) {
+            final long previous = reset.get();
+            final long current = total.sum();
+
+            if (reset.compareAndSet(previous, current)) {
+                return current - previous;
+            }
+        }
+    }
+
+    /**
+     * @return the average number of increments per second over the window
+     */
+    double getRate() {
+        final long now = System.currentTimeMillis() / 1000;
+        long sum = 0;
+
+        for (int i = 0; i < buckets.length; i++) {
+            final long second = bucketSeconds.get(i);
+
+            // Only count buckets inside the window (stale buckets have not been recycled yet)
+            if (second > now - buckets.length && second <= now) {
+                sum += buckets[i].sum();
+            }
+        }
+
+        return (double) sum / buckets.length;
+    }
+}
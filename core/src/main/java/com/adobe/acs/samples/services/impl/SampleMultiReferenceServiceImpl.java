@@ -23,13 +23,33 @@ import com.adobe.acs.samples.services.SampleMultiReferenceService;
 import com.adobe.acs.samples.services.SampleService;
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.osgi.service.component.annotations.*;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component(
         reference = {
@@ -42,6 +62,7 @@ import java.util.concurrent.ConcurrentHashMap;
                 )
         }
 )
+@Designate(ocd = SampleMultiReferenceServiceImpl.Cfg.class)
 public class SampleMultiReferenceServiceImpl implements SampleMultiReferenceService {
     private final Logger log = LoggerFactory.getLogger(SampleMultiReferenceServiceImpl.class);
 
@@ -50,6 +71,73 @@ public class SampleMultiReferenceServiceImpl implements SampleMultiReferenceServ
     // service references from this Map while consuming code is reading from it.
     private volatile Map<String, SampleService> sampleServices = new ConcurrentHashMap<String, SampleService>();
 
+    // Latencies of helloWorldsAsync(..) calls, per service name
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    // Calls running (or waiting to run), per service name. A call that ignores being interrupted at its timeout keeps
+    // its thread; bounding each service's calls keeps one hung service from taking every thread from the others.
+    private final Map<String, Semaphore> bulkheads = new ConcurrentHashMap<String, Semaphore>();
+
+    private Cfg cfg;
+
+    private volatile boolean active;
+
+    // Runs the calls; either the pool, or one new virtual thread per call
+    private Executor executor;
+
+    // Platform threads are expensive, so are pooled. Bounded in both threads and queued calls, so a burst of requests
+    // cannot create unlimited threads or queue up unlimited work behind a slow service. null on virtual threads.
+    private ThreadPoolExecutor pool;
+
+    // Virtual threads are not pooled, so the number of calls running at once is bounded by permits instead (calls
+    // wait for one on their own, cheaply blocked, virtual thread). null on the pool.
+    private Semaphore concurrency;
+
+    // Completes calls whose timeout expired; one thread is plenty, as it only completes futures.
+    private ScheduledThreadPoolExecutor deadlines;
+
+    @Activate
+    protected final void activate(final Cfg cfg) {
+        this.cfg = cfg;
+
+        final int threads = Math.max(1, cfg.threads());
+        final ThreadFactory virtualThreads = cfg.virtual_threads() ? virtualThreadFactory() : null;
+
+        if (virtualThreads != null) {
+            log.debug("Calling SampleServices on virtual threads");
+
+            this.concurrency = new Semaphore(threads);
+            this.executor = task -> {
+                if (!active) {
+                    throw new RejectedExecutionException("Not active");
+                }
+                virtualThreads.newThread(task).start();
+            };
+        } else {
+            this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, cfg.queue_size())),
+                    daemonThreadFactory("acs-samples-hello-worlds-"));
+            this.pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+
+        this.deadlines = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("acs-samples-hello-worlds-deadline-"));
+        // Most calls complete before their timeout; drop their cancelled timeouts right away rather than at expiry
+        this.deadlines.setRemoveOnCancelPolicy(true);
+
+        this.active = true;
+    }
+
+    @Deactivate
+    protected final void deactivate() {
+        this.active = false;
+
+        if (this.pool != null) {
+            this.pool.shutdownNow();
+        }
+        this.deadlines.shutdownNow();
+    }
+
     /* Service Methods */
 
     @Override
@@ -63,6 +151,232 @@ public class SampleMultiReferenceServiceImpl implements SampleMultiReferenceServ
         return results;
     }
 
+    @Override
+    public final CompletableFuture<Map<String, String>> helloWorldsAsync(final long timeoutMillis) {
+        // Work with a copy, as services may be bound and unbound during the call
+        final Map<String, SampleService> services = new HashMap<String, SampleService>(sampleServices);
+
+        if (services.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.<String, String>emptyMap());
+        }
+
+        return new HelloWorlds(services, timeoutMillis > 0 ? timeoutMillis : cfg.timeout()).start();
+    }
+
+    @Override
+    public final Map<String, LatencyStats> getLatencyStats() {
+        return Collections.<String, LatencyStats>unmodifiableMap(new TreeMap<String, LatencyHistogram>(latencies));
+    }
+
+    private LatencyHistogram getHistogram(final String name) {
+        final LatencyHistogram histogram = latencies.get(name);
+        return histogram != null ? histogram : latencies.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    private Semaphore getBulkhead(final String name) {
+        final Semaphore bulkhead = bulkheads.get(name);
+        return bulkhead != null ? bulkhead
+                : bulkheads.computeIfAbsent(name, k -> new Semaphore(Math.max(1, cfg.calls_per_service())));
+    }
+
+    /**
+     * One helloWorldsAsync(..) call: calls each service, and completes the aggregate future when all of them
+     * responded, or the timeout expired.
+     */
+    private final class HelloWorlds {
+        private final Map<String, SampleService> services;
+        private final long timeout;
+
+        private final Map<String, String> results = new ConcurrentHashMap<String, String>();
+        private final Map<String, ServiceCall> calls = new ConcurrentHashMap<String, ServiceCall>();
+        private final CompletableFuture<Map<String, String>> aggregate = new CompletableFuture<Map<String, String>>();
+
+        // Whoever removes a name from pending (the call when it completes, or the deadline) accounts for it. All names
+        // are added before any call starts, so the aggregate cannot complete before every call has been submitted.
+        private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+        private HelloWorlds(final Map<String, SampleService> services, final long timeout) {
+            this.services = services;
+            this.timeout = timeout;
+        }
+
+        private CompletableFuture<Map<String, String>> start() {
+            pending.addAll(services.keySet());
+
+            final ScheduledFuture<?> deadline;
+            try {
+                deadline = deadlines.schedule(this::expire, timeout, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Deactivated; fail rather than throw, as callers of a future expect failures in the future
+                aggregate.completeExceptionally(e);
+                return aggregate;
+            }
+
+            aggregate.whenComplete((result, throwable) -> deadline.cancel(false));
+
+            for (final Map.Entry<String, SampleService> entry : services.entrySet()) {
+                call(entry.getKey(), entry.getValue());
+            }
+
+            return aggregate;
+        }
+
+        private void call(final String name, final SampleService service) {
+            final LatencyHistogram histogram = getHistogram(name);
+            final Semaphore bulkhead = getBulkhead(name);
+
+            if (!bulkhead.tryAcquire()) {
+                // Earlier calls to this service are all still running (or hung); count it as timed out right away,
+                // rather than let it take yet another thread from the other services
+                log.debug("SampleService [ {} ] already has {} calls running", name, cfg.calls_per_service());
+                timedOut(name, histogram);
+                return;
+            }
+
+            final ServiceCall call = new ServiceCall(name, service, histogram, bulkhead);
+            calls.put(name, call);
+
+            try {
+                executor.execute(call);
+            } catch (RejectedExecutionException e) {
+                // The pool is saturated (or shut down); rather than wait for it, count the service as timed out
+                log.debug("Could not call SampleService [ {} ]", name);
+                call.abandon();
+                timedOut(name, histogram);
+            }
+        }
+
+        private void invoke(final String name, final SampleService service, final LatencyHistogram histogram) {
+            if (concurrency != null) {
+                try {
+                    concurrency.acquire();
+                } catch (InterruptedException e) {
+                    // Abandoned while waiting for a permit
+                    Thread.currentThread().interrupt();
+                    timedOut(name, histogram);
+                    return;
+                }
+            }
+
+            final long start = System.nanoTime();
+            boolean failed = false;
+
+            try {
+                final String result = service.helloWorld();
+                if (result != null) {
+                    results.put(name, result);
+                }
+            } catch (RuntimeException e) {
+                failed = true;
+                log.warn("SampleService [ {} ] failed", name, e);
+            } finally {
+                if (concurrency != null) {
+                    concurrency.release();
+                }
+
+                if (pending.remove(name)) {
+                    histogram.record(System.nanoTime() - start, failed);
+                    completeIfDone();
+                }
+            }
+        }
+
+        private void timedOut(final String name, final LatencyHistogram histogram) {
+            if (pending.remove(name)) {
+                histogram.recordTimeout();
+                completeIfDone();
+            }
+        }
+
+        private void completeIfDone() {
+            if (pending.isEmpty()) {
+                aggregate.complete(Collections.unmodifiableMap(new HashMap<String, String>(results)));
+            }
+        }
+
+        private void expire() {
+            // Complete with the results so far; results of calls that complete later are ignored
+            aggregate.complete(Collections.unmodifiableMap(new HashMap<String, String>(results)));
+
+            for (final String name : services.keySet()) {
+                if (pending.remove(name)) {
+                    getHistogram(name).recordTimeout();
+                    log.debug("SampleService [ {} ] did not respond within {} ms", name, timeout);
+
+                    final ServiceCall call = calls.get(name);
+                    if (call != null) {
+                        call.abandon();
+                    }
+                }
+            }
+        }
+
+        /**
+         * A call to one service, which holds a permit of the service's bulkhead until it has finished running, or is
+         * abandoned before it started.
+         */
+        private final class ServiceCall extends FutureTask<Void> {
+            private final Semaphore bulkhead;
+            private final AtomicBoolean started = new AtomicBoolean();
+
+            private ServiceCall(final String name, final SampleService service, final LatencyHistogram histogram,
+                                final Semaphore bulkhead) {
+                super(() -> invoke(name, service, histogram), null);
+                this.bulkhead = bulkhead;
+            }
+
+            @Override
+            public void run() {
+                if (started.compareAndSet(false, true)) {
+                    try {
+                        super.run();
+                    } finally {
+                        bulkhead.release();
+                    }
+                }
+            }
+
+            /**
+             * Releases the permit of a call that has not started yet (it will not start now), and interrupts a running
+             * call, in case the service is waiting on something it can give up on; until it returns, it keeps its permit.
+             */
+            private void abandon() {
+                if (started.compareAndSet(false, true)) {
+                    bulkhead.release();
+                }
+                cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Virtual threads (Java 21+) are cheap to block, so suit calling services that wait on I/O. This bundle targets
+     * Java 8, so they are looked up reflectively; equivalent to Thread.ofVirtual().name(prefix, 0).factory().
+     *
+     * @return a factory of virtual threads, or null if the runtime does not support them
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, "acs-samples-hello-worlds-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(final String prefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     // These methods are named based on the @Reference(name = ...) value
     // bind<name>(..)
     protected final void bindSampleService(final SampleService service,
@@ -80,6 +394,44 @@ public class SampleMultiReferenceServiceImpl implements SampleMultiReferenceServ
         final String type = PropertiesUtil.toString(props.get(SampleService.PROP_NAME), null);
         if (type != null) {
             this.sampleServices.remove(type);
+            this.latencies.remove(type);
+            this.bulkheads.remove(type);
         }
     }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Multi Reference Service")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Threads",
+                description = "The maximum number of SampleServices called at once by helloWorldsAsync(..)."
+        )
+        int threads() default 32;
+
+        @AttributeDefinition(
+                name = "Queue size",
+                description = "The maximum number of calls waiting for a thread, when not on virtual threads; further "
+                        + "calls are counted as timed out."
+        )
+        int queue_size() default 1000;
+
+        @AttributeDefinition(
+                name = "Calls per service",
+                description = "The maximum number of calls to any one SampleService running (or waiting to run) at once. "
+                        + "While a service has this many, ex. because it hangs, further calls to it are counted as timed "
+                        + "out, so it cannot take the threads the other services need."
+        )
+        int calls_per_service() default 4;
+
+        @AttributeDefinition(
+                name = "Timeout",
+                description = "The default time, in milliseconds, helloWorldsAsync(..) waits for the SampleServices."
+        )
+        long timeout() default 1000;
+
+        @AttributeDefinition(
+                name = "Virtual threads",
+                description = "Call the SampleServices on virtual threads, when the Java runtime supports them."
+        )
+        boolean virtual_threads() default true;
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+import com.adobe.granite.jmx.annotation.Description;
+import com.adobe.granite.jmx.annotation.Name;
+
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+
+/**
+ * The JMX management interface for the SampleMutableStateService; see it under com.adobe.acs.samples in the
+ * Felix Web Console's JMX tab (/system/console/jmx) or any JMX client.
+ */
+@Description("ACS AEM Samples - Sample Mutable State Service")
+public interface SampleMutableStateMBean {
+
+    @Description("True if the map and list are bounded")
+    boolean isBounded();
+
+    @Description("The number of map entries")
+    int getMapSize();
+
+    @Description("The number of list items")
+    int getListLength();
+
+    @Description("The number of map reads that found a value")
+    long getHitCount();
+
+    @Description("The number of map reads that found no value")
+    long getMissCount();
+
+    @Description("The number of map entries and list items evicted because of size limits")
+    long getEvictionCount();
+
+    @Description("The number of map entries evicted because they expired")
+    long getExpirationCount();
+
+    @Description("The named counters, with their counts and rates per second")
+    TabularData getCounters() throws OpenDataException;
+
+    @Description("The rate per second of a named counter, averaged over the rate window")
+    double getCounterRate(@Name("name") @Description("The name of the counter") String name);
+
+    @Description("Returns the named counters' counts and resets them to 0")
+    TabularData snapshotAndReset() throws OpenDataException;
+}
@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+import com.adobe.acs.samples.services.SampleMutableStateService;
+import com.adobe.granite.jmx.annotation.AnnotatedStandardMBean;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.Map;
+
+/**
+ * Exposes the SampleMutableStateService statistics over JMX.
+ *
+ * Registering an OSGi service of type DynamicMBean with a jmx.objectname property is all it takes; the JMX whiteboard
+ * registers it with the platform MBeanServer. AnnotatedStandardMBean adds the @Description texts to the MBean info.
+ */
+@Component(
+        service = DynamicMBean.class,
+        property = {
+                "jmx.objectname=com.adobe.acs.samples:type=SampleMutableStateService"
+        }
+)
+public class SampleMutableStateMBeanImpl extends AnnotatedStandardMBean implements SampleMutableStateMBean {
+    private static final String[] COUNTER_ITEMS = {"name", "count", "rate"};
+
+    @Reference
+    private SampleMutableStateService sampleMutableStateService;
+
+    public SampleMutableStateMBeanImpl() throws NotCompliantMBeanException {
+        super(SampleMutableStateMBean.class);
+    }
+
+    @Override
+    public boolean isBounded() {
+        return sampleMutableStateService.getStats().isBounded();
+    }
+
+    @Override
+    public int getMapSize() {
+        return sampleMutableStateService.getStats().getMapSize();
+    }
+
+    @Override
+    public int getListLength() {
+        return sampleMutableStateService.getListLength();
+    }
+
+    @Override
+    public long getHitCount() {
+        return sampleMutableStateService.getStats().getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return sampleMutableStateService.getStats().getMissCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return sampleMutableStateService.getStats().getEvictionCount();
+    }
+
+    @Override
+    public long getExpirationCount() {
+        return sampleMutableStateService.getStats().getExpirationCount();
+    }
+
+    @Override
+    public TabularData getCounters() throws OpenDataException {
+        return toTabularData(sampleMutableStateService.getCounters());
+    }
+
+    @Override
+    public double getCounterRate(final String name) {
+        return sampleMutableStateService.getCounterRate(name);
+    }
+
+    @Override
+    public TabularData snapshotAndReset() throws OpenDataException {
+        return toTabularData(sampleMutableStateService.snapshotAndReset());
+    }
+
+    /**
+     * JMX clients can only display "open" types, so the counters are returned as a table with a row per counter.
+     */
+    private TabularData toTabularData(final Map<String, Long> counts) throws OpenDataException {
+        final CompositeType rowType = new CompositeType("counter", "A named counter",
+                COUNTER_ITEMS,
+                new String[]{"The name of the counter", "The count", "The rate per second over the rate window"},
+                new OpenType[]{SimpleType.STRING, SimpleType.LONG, SimpleType.DOUBLE});
+
+        final TabularData data = new TabularDataSupport(
+                new TabularType("counters", "The named counters", rowType, new String[]{"name"}));
+
+        for (final Map.Entry<String, Long> entry : counts.entrySet()) {
+            data.put(new CompositeDataSupport(rowType, COUNTER_ITEMS, new Object[]{
+                    entry.getKey(),
+                    entry.getValue(),
+                    sampleMutableStateService.getCounterRate(entry.getKey())
+            }));
+        }
+
+        return data;
+    }
+}
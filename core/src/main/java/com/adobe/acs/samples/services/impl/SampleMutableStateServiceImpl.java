@@ -24,15 +24,25 @@ import com.adobe.acs.samples.services.SampleMutableStateService;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 
 //Sample implementation of a service with mutable state
@@ -40,72 +50,326 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Component(
         service = SampleMutableStateService.class
 )
+@Designate(ocd = SampleMutableStateServiceImpl.Cfg.class)
 public class SampleMutableStateServiceImpl implements SampleMutableStateService {
     private static final Logger log = LoggerFactory.getLogger(SampleMutableStateServiceImpl.class);
 
-    // "Normal" instance variables should be accessed via synchronized blocks
-    private final Map<String, String> map = new HashMap<String, String>();
+    // Concurrent collections (available via the java.util.concurrent library) are thread-safe without a global lock.
+    // A "normal" HashMap would need every access wrapped in a synchronized block, which makes all callers wait on
+    // one another. ConcurrentHashMap reads never lock, and writes only lock the one bin they change.
+    private final Map<String, String> map = new ConcurrentHashMap<String, String>();
 
-    // Use of a synchronized variable
-    // Note: in this case single operations are synchronized, however if we were to iterate
-    // over this list, we would need to place it in a sychronized block
-    private final List<String> list = Collections.synchronizedList(new ArrayList<String>());
+    // An append-only list; ConcurrentLinkedQueue appends with a compare-and-swap rather than a lock.
+    // Collections.synchronizedList(..) would instead funnel every add through one monitor.
+    // Note: ConcurrentLinkedQueue.size() walks the whole queue, so the length is tracked separately in a LongAdder,
+    // which (unlike a single atomic) does not contend when many threads add at once.
+    private final Queue<String> list = new ConcurrentLinkedQueue<String>();
+    private final LongAdder listLength = new LongAdder();
+
+    // Unbounded state slowly leaks heap on long-running instances; when configured to be bounded, the map is replaced
+    // by a size-limited LRU map (with an optional TTL per entry), and the list only keeps its newest items.
+    // All state derived from the configuration lives in one immutable Settings snapshot, swapped in whole by
+    // activate(..) and deactivate(); each method reads the snapshot once, so it never sees a mix of old and new values.
+    private final SnapshotHolder<Settings> settings = new SnapshotHolder<Settings>(Settings.INACTIVE);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder listEvictions = new LongAdder();
+
+    // Eviction listeners register as OSGi services (the "whiteboard" pattern); DS replaces this (immutable) list
+    // whenever listeners come and go, so it must be volatile.
+    @Reference(
+            cardinality = ReferenceCardinality.MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY
+    )
+    private volatile List<EvictionListener> evictionListeners = Collections.emptyList();
 
     // Atomic vars (available via the java.util.concurrent library) are thread-safe.
     // Prefer Atomic vars are they are safer and faster.
-    private final AtomicInteger atomicInteger = new AtomicInteger(0);
+    // For counters incremented on every request, prefer LongAdder; a single AtomicInteger is one cache line all cores
+    // fight over, while a LongAdder spreads increments over several cells and only sums them when read. It also
+    // counts in a long, so it does not overflow after 2^31 increments.
+    private final LongAdder count = new LongAdder();
 
-    // Variables that are only modified during managed events in a OSGi Components lifecycle can be declared normally
-    // These methods are activate, deactivate, modified, bind and unbind
-    private String[] array = new String[]{};
+    // Named counters are created on first use, and never removed.
+    private final ConcurrentMap<String, NamedCounter> counters = new ConcurrentHashMap<String, NamedCounter>();
 
     @Override
     public final void addToMap(final String key, final String val) {
-        synchronized (map) {
-            // Keep synchronized blocks as short as possible
+        // The synchronized HashMap this replaced accepted a null key; ConcurrentHashMap would throw an NPE for it, so
+        // reject it up front with a clear message instead.
+        if (key == null) {
+            throw new IllegalArgumentException("The map key must not be null");
+        }
+
+        final BoundedStateMap boundedMap = settings.get().boundedMap;
+
+        if (boundedMap != null) {
+            boundedMap.put(key, val);
+            return;
+        }
+
+        // Note: ConcurrentHashMap does not allow null values; removing the key keeps getFromMap(key)
+        // returning null, as it did when null values were stored.
+        if (val == null) {
+            map.remove(key);
+        } else {
             map.put(key, val);
         }
     }
 
     @Override
     public final String getFromMap(final String key) {
-        synchronized (map) {
-            // Keep synchronized blocks as short as possible
-            return map.get(key);
+        final BoundedStateMap boundedMap = settings.get().boundedMap;
+        final String val;
+
+        if (key == null) {
+            // No value can be stored under a null key
+            val = null;
+        } else {
+            val = boundedMap != null ? boundedMap.get(key) : map.get(key);
+        }
+
+        if (val == null) {
+            misses.increment();
+        } else {
+            hits.increment();
         }
+
+        return val;
     }
 
     @Override
     public final void addToList(final String val) {
         list.add(val);
+        listLength.increment();
+
+        final Settings current = settings.get();
+
+        if (current.boundedMap == null) {
+            return;
+        }
+
+        // Drop the oldest items while over the limit. Concurrent adders may briefly push the list slightly over
+        // (or evict slightly under) the limit, which is fine for a bound meant to stop unlimited growth.
+        while (listLength.sum() > current.maxListLength) {
+            final String evicted = list.poll();
+
+            if (evicted == null) {
+                break;
+            }
+
+            listLength.decrement();
+            listEvictions.increment();
+            notifyEviction(null, evicted, EvictionCause.SIZE);
+        }
     }
 
     @Override
     public final int getListLength() {
-        return list.size();
+        return listLength.intValue();
     }
 
     @Override
     public final void incremementCount() {
-        atomicInteger.incrementAndGet();
+        count.increment();
     }
 
     @Override
     public final int getCount() {
-        return atomicInteger.get();
+        return (int) Math.min(count.sum(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public final void incrementCounter(final String name) {
+        addToCounter(name, 1);
+    }
+
+    @Override
+    public final void addToCounter(final String name, final long delta) {
+        NamedCounter counter = counters.get(name);
+
+        // Only fall back to computeIfAbsent(..), which locks the bin, the first time a name is seen
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, k -> new NamedCounter(settings.get().rateWindow));
+        }
+
+        counter.add(delta);
+    }
+
+    @Override
+    public final long getCounter(final String name) {
+        final NamedCounter counter = counters.get(name);
+        return counter != null ? counter.get() : 0;
+    }
+
+    @Override
+    public final double getCounterRate(final String name) {
+        final NamedCounter counter = counters.get(name);
+        return counter != null ? counter.getRate() : 0;
+    }
+
+    @Override
+    public final Map<String, Long> getCounters() {
+        final Map<String, Long> snapshot = new TreeMap<String, Long>();
+
+        for (final Map.Entry<String, NamedCounter> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+
+        return snapshot;
+    }
+
+    @Override
+    public final Map<String, Long> snapshotAndReset() {
+        final Map<String, Long> snapshot = new TreeMap<String, Long>();
+
+        for (final Map.Entry<String, NamedCounter> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshotAndReset());
+        }
+
+        return snapshot;
+    }
+
+    @Override
+    public final StateStats getStats() {
+        final BoundedStateMap bounded = settings.get().boundedMap;
+
+        return new StateStatsImpl(bounded != null,
+                bounded != null ? bounded.size() : map.size(),
+                hits.sum(),
+                misses.sum(),
+                listEvictions.sum() + (bounded != null ? bounded.getEvictionCount() : 0),
+                bounded != null ? bounded.getExpirationCount() : 0);
+    }
+
+    private void notifyEviction(final String key, final String value, final EvictionCause cause) {
+        for (final EvictionListener listener : evictionListeners) {
+            try {
+                listener.onEviction(key, value, cause);
+            } catch (RuntimeException e) {
+                // A misbehaving listener must not break the caller that triggered the eviction
+                log.warn("Eviction listener [ {} ] failed", listener.getClass().getName(), e);
+            }
+        }
     }
 
     @Activate
-    public final void activate(Map<String, String> config) {
-        // The only places the "array" class variable is modified is in the "activate" and "deactivate" methods.
-        array = new String[2];
-        array[0] = "hello";
-        array[1] = "world";
+    public final void activate(Cfg cfg) {
+        final BoundedStateMap boundedMap = cfg.bounded()
+                ? new BoundedStateMap(Math.max(1, cfg.max_map_size()), cfg.ttl(), this::notifyEviction)
+                : null;
+
+        // Build the whole snapshot first, then publish it with a single (volatile) write
+        settings.set(new Settings(boundedMap,
+                Math.max(1, cfg.max_list_length()),
+                Math.max(1, cfg.counter_rate_window())));
     }
 
     @Deactivate
-    public final void deactivate(Map<String, String> config) {
-        // The only places the "array" class variable is modified is in the "activate" and "deactivate" methods.
-        array = null;
+    public final void deactivate() {
+        // Calls still in flight keep the snapshot they already read; later calls see the inactive one.
+        settings.set(Settings.INACTIVE);
+    }
+
+    /**
+     * The state derived from the configuration. Immutable.
+     */
+    private static final class Settings {
+        private static final Settings INACTIVE = new Settings(null, Integer.MAX_VALUE, 60);
+
+        // null when unbounded
+        private final BoundedStateMap boundedMap;
+        private final int maxListLength;
+        private final int rateWindow;
+
+        private Settings(final BoundedStateMap boundedMap, final int maxListLength, final int rateWindow) {
+            this.boundedMap = boundedMap;
+            this.maxListLength = maxListLength;
+            this.rateWindow = rateWindow;
+        }
+    }
+
+    private static final class StateStatsImpl implements StateStats {
+        private final boolean bounded;
+        private final int mapSize;
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final long expirationCount;
+
+        private StateStatsImpl(final boolean bounded, final int mapSize, final long hitCount, final long missCount,
+                               final long evictionCount, final long expirationCount) {
+            this.bounded = bounded;
+            this.mapSize = mapSize;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.expirationCount = expirationCount;
+        }
+
+        @Override
+        public boolean isBounded() {
+            return bounded;
+        }
+
+        @Override
+        public int getMapSize() {
+            return mapSize;
+        }
+
+        @Override
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        @Override
+        public long getMissCount() {
+            return missCount;
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        @Override
+        public long getExpirationCount() {
+            return expirationCount;
+        }
+    }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Mutable State Service")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Bounded",
+                description = "Limit the size of the map and list, evicting the least recently used map entries and the oldest list items."
+        )
+        boolean bounded() default false;
+
+        @AttributeDefinition(
+                name = "Max map size",
+                description = "The maximum number of map entries, when bounded."
+        )
+        int max_map_size() default 10000;
+
+        @AttributeDefinition(
+                name = "Max list length",
+                description = "The maximum number of list items, when bounded."
+        )
+        int max_list_length() default 10000;
+
+        @AttributeDefinition(
+                name = "TTL",
+                description = "The time-to-live of map entries in milliseconds, when bounded; 0 for no expiry."
+        )
+        long ttl() default 0;
+
+        @AttributeDefinition(
+                name = "Counter rate window",
+                description = "The window, in seconds, the rates of named counters are averaged over."
+        )
+        int counter_rate_window() default 60;
     }
-}
\ No newline at end of file
+}
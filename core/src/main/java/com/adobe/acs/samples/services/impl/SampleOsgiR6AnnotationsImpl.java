@@ -33,6 +33,8 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * This requires the following pom.xml configurations:
@@ -117,7 +119,9 @@ public class SampleOsgiR6AnnotationsImpl implements SampleExecutor {
         String foo_bar() default "bar";
     }
 
-    private Config config;
+    // @Modified re-configures the component while other threads may be calling it, so the configuration is held as
+    // an immutable snapshot that is swapped in whole; see SnapshotHolder.
+    private final SnapshotHolder<Settings> settings = new SnapshotHolder<>(Settings.DEFAULTS);
 
 
     @Reference(
@@ -129,11 +133,13 @@ public class SampleOsgiR6AnnotationsImpl implements SampleExecutor {
     @Activate
     @Modified
     protected void activate(Config config) {
-        log.info("Max Size from OSGi Configuration: {}", config.max_size());
-        log.info("Items from OSGi Configuration: {}", Arrays.asList(config.items()));
-        log.info("Selected Foo/Bar option from OSGi Configuration: {}", config.foo_bar());
+        final Settings settings = new Settings(config);
 
-        this.config = config;
+        log.info("Max Size from OSGi Configuration: {}", settings.maxSize);
+        log.info("Items from OSGi Configuration: {}", settings.items);
+        log.info("Selected Foo/Bar option from OSGi Configuration: {}", settings.fooBar);
+
+        this.settings.set(settings);
     }
 
     @Deactivate
@@ -143,11 +149,42 @@ public class SampleOsgiR6AnnotationsImpl implements SampleExecutor {
 
     @Override
     public String execute() {
-        return null;
+        // Read the snapshot once, so all of the values used come from the same configuration
+        final Settings settings = this.settings.get();
+        final List<String> items = settings.items.subList(0, Math.min(settings.maxSize, settings.items.size()));
+
+        return settings.fooBar + ": " + String.join(", ", items);
     }
 
     @Override
     public String execute(ResourceResolver resourceResolver) {
         return null;
     }
+
+    /**
+     * The configuration values, copied out of the Config. Config is an interface whose array values may be shared
+     * and modified; copying them into unmodifiable fields keeps the snapshot immutable.
+     */
+    private static final class Settings {
+        // Until activated, the defaults declared in Config
+        private static final Settings DEFAULTS = new Settings(10, Collections.<String>emptyList(), "bar");
+
+        private final int maxSize;
+        private final List<String> items;
+        private final String fooBar;
+
+        private Settings(final Config config) {
+            this.maxSize = Math.max(0, config.max_size());
+            this.items = config.items() == null
+                    ? Collections.<String>emptyList()
+                    : Collections.unmodifiableList(new ArrayList<>(Arrays.asList(config.items())));
+            this.fooBar = config.foo_bar();
+        }
+
+        private Settings(final int maxSize, final List<String> items, final String fooBar) {
+            this.maxSize = maxSize;
+            this.items = items;
+            this.fooBar = fooBar;
+        }
+    }
 }
@@ -0,0 +1,358 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.services.impl;
+
+import com.adobe.acs.samples.services.SamplePageCountService;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.query.Query;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maintains the number of descendant cq:Pages of every path under the configured roots, so that "how many pages are
+ * under X" can be answered without executing a query.
+ *
+ * The counts are built once (via a query, in the background) when the component activates, and are then kept up to date
+ * incrementally from resource change events. Implementing ExternalResourceChangeListener (rather than only
+ * ResourceChangeListener) means changes made on other cluster members are also received.
+ *
+ * If the build fails (ex. the service user cannot log in yet), it is retried after the configured delay, until it
+ * succeeds or the component is deactivated.
+ *
+ * The counts are maintained via a service user, so they include pages the calling user may not be able to read.
+ */
+@Component(
+        service = { SamplePageCountService.class, ResourceChangeListener.class },
+        property = {
+                // The roots can be overridden via the resource.paths OSGi config below.
+                ResourceChangeListener.PATHS + "=/content",
+                ResourceChangeListener.CHANGES + "=ADDED",
+                ResourceChangeListener.CHANGES + "=REMOVED"
+        }
+)
+@Designate(ocd = SamplePageCountServiceImpl.Cfg.class)
+public class SamplePageCountServiceImpl implements SamplePageCountService, ResourceChangeListener,
+        ExternalResourceChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(SamplePageCountServiceImpl.class);
+
+    private static final String PAGE_TYPE = "cq:Page";
+    private static final String PAGE_CONTENT = "jcr:content";
+
+    // The ServiceUserMapper must map this sub-service to a user that can read all pages under the roots.
+    private static final String SERVICE_ACCOUNT_IDENTIFIER = "sample-service";
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    // Both are read without locking, but only changed while holding the lock on this, so adding and removing pages
+    // (ex. a build racing with change events) is applied one page at a time.
+
+    // Sorted, so all known pages under a removed path can be found with a range lookup.
+    private final NavigableSet<String> pages = new ConcurrentSkipListSet<String>();
+
+    // Path -> number of cq:Pages under that path; paths without pages under them have no entry.
+    private final ConcurrentMap<String, LongAdder> counts = new ConcurrentHashMap<String, LongAdder>();
+
+    // While a build runs, the paths removed since it started; the build may have read pages under them before they were
+    // removed, and must not add those back. Guarded by this.
+    private Set<String> removedDuringBuild;
+
+    // Both are only changed while holding the lock on this, so a build finishing during deactivation cannot mark the
+    // (cleared) counts as ready.
+    private volatile boolean active = false;
+    private volatile boolean ready = false;
+
+    private String[] roots;
+    private long retryDelay;
+    private ScheduledExecutorService executor;
+
+    @Activate
+    protected void activate(final Cfg cfg) {
+        this.roots = cfg.resource_paths();
+        this.retryDelay = Math.max(1, cfg.build_retry_delay());
+        this.active = true;
+
+        // Build the initial counts off the activating thread; until then getDescendantPageCount(..) returns UNKNOWN.
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.executor.submit(this::build);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        synchronized (this) {
+            this.active = false;
+            this.ready = false;
+        }
+
+        // Interrupts a running build, and cancels a scheduled retry
+        this.executor.shutdownNow();
+
+        synchronized (this) {
+            this.pages.clear();
+            this.counts.clear();
+        }
+    }
+
+    @Override
+    public long getDescendantPageCount(final String path) {
+        if (!ready || !isCovered(path)) {
+            return UNKNOWN;
+        }
+
+        final LongAdder count = counts.get(path);
+        return count == null ? 0 : count.sum();
+    }
+
+    @Override
+    public void onChange(final List<ResourceChange> changes) {
+        final List<String> added = new ArrayList<String>();
+
+        for (final ResourceChange change : changes) {
+            if (ResourceChange.ChangeType.REMOVED.equals(change.getType())) {
+                // Depending on the repository, a removed sub-tree is reported as one or many events;
+                // removing the whole range of known pages handles both.
+                removeTree(change.getPath());
+            } else if (ResourceChange.ChangeType.ADDED.equals(change.getType())) {
+                added.add(change.getPath());
+            }
+        }
+
+        if (added.isEmpty()) {
+            return;
+        }
+
+        // Only additions need to look at the repository, to find the cq:Pages in the added resource's tree
+        try (ResourceResolver resourceResolver = getServiceResourceResolver()) {
+            for (final String path : added) {
+                final Resource resource = resourceResolver.getResource(path);
+
+                if (resource != null) {
+                    addPages(resource);
+                }
+            }
+        } catch (LoginException e) {
+            log.error("Could not obtain a service resource resolver to update page counts", e);
+        }
+    }
+
+    /**
+     * Adds the resource if it is a cq:Page, and all cq:Pages under it. Depending on the repository (and on how the tree
+     * was created, ex. by a move or copy), an added tree may be reported as a single event for its root only.
+     *
+     * The tree is traversed rather than queried, as the index may not include the added content yet.
+     */
+    private void addPages(final Resource resource) {
+        if (PAGE_TYPE.equals(resource.getValueMap().get("jcr:primaryType", String.class))) {
+            addPage(resource.getPath());
+        }
+
+        for (final Resource child : resource.getChildren()) {
+            // Pages never live under a page's content, which is often the largest part of the tree
+            if (!PAGE_CONTENT.equals(child.getName())) {
+                addPages(child);
+            }
+        }
+    }
+
+    private void build() {
+        synchronized (this) {
+            removedDuringBuild = new HashSet<String>();
+        }
+
+        try (ResourceResolver resourceResolver = getServiceResourceResolver()) {
+            for (final String root : roots) {
+                final String statement = "SELECT [jcr:path] FROM [cq:Page] AS page WHERE ISDESCENDANTNODE(page, '"
+                        + root.replace("'", "''") + "')";
+
+                final Iterator<Resource> resources = resourceResolver.findResources(statement, Query.JCR_SQL2);
+
+                while (resources.hasNext()) {
+                    if (!active || Thread.currentThread().isInterrupted()) {
+                        log.debug("Page count build stopped, as the component is deactivated");
+                        return;
+                    }
+
+                    addBuiltPage(resources.next().getPath());
+                }
+            }
+
+            synchronized (this) {
+                if (active) {
+                    ready = true;
+                    log.info("Built page counts for [ {} ] pages", pages.size());
+                }
+            }
+        } catch (LoginException | RuntimeException e) {
+            // Pages added so far are kept; addPage(..) is idempotent, so the retry does not count them twice.
+            log.error("Could not build page counts; retrying in [ {} ] seconds", retryDelay, e);
+            scheduleRetry();
+        } finally {
+            synchronized (this) {
+                removedDuringBuild = null;
+            }
+        }
+    }
+
+    private void scheduleRetry() {
+        if (!active) {
+            return;
+        }
+
+        try {
+            executor.schedule(this::build, retryDelay, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // The component was deactivated concurrently
+            log.debug("Page count build retry not scheduled, as the component is deactivated");
+        }
+    }
+
+    private synchronized void addPage(final String path) {
+        // The set makes this idempotent, so events that race with the initial build are not counted twice.
+        if (pages.add(path)) {
+            adjustAncestors(path, 1);
+        }
+    }
+
+    /**
+     * Adds a page read by the build, unless it was removed since the build started (the build's read may be older).
+     */
+    private synchronized void addBuiltPage(final String path) {
+        if (removedDuringBuild == null || !isRemovedDuringBuild(path)) {
+            addPage(path);
+        }
+    }
+
+    private boolean isRemovedDuringBuild(final String path) {
+        for (int index = path.length(); index > 0; index = path.lastIndexOf('/', index - 1)) {
+            if (removedDuringBuild.contains(path.substring(0, index))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private synchronized void removeTree(final String path) {
+        if (removedDuringBuild != null) {
+            removedDuringBuild.add(path);
+        }
+
+        final List<String> removed = new ArrayList<String>();
+
+        if (pages.contains(path)) {
+            removed.add(path);
+        }
+
+        // '0' is the character after '/', so this range holds exactly the paths under path + "/"
+        removed.addAll(pages.subSet(path + "/", true, path + "0", false));
+
+        for (final String page : removed) {
+            if (pages.remove(page)) {
+                adjustAncestors(page, -1);
+            }
+        }
+    }
+
+    private void adjustAncestors(final String path, final long delta) {
+        int index = path.lastIndexOf('/');
+
+        while (index > 0) {
+            final String ancestor = path.substring(0, index);
+            final LongAdder count = counts.computeIfAbsent(ancestor, key -> new LongAdder());
+            count.add(delta);
+
+            // A missing entry counts as 0, so drop entries that reach it, rather than keep one for every path a removed
+            // page was under; safe as all changes are made holding the lock.
+            if (count.sum() == 0) {
+                counts.remove(ancestor);
+            }
+
+            index = path.lastIndexOf('/', index - 1);
+        }
+    }
+
+    private boolean isCovered(final String path) {
+        if (path == null) {
+            return false;
+        }
+
+        for (final String root : roots) {
+            if (path.equals(root) || path.startsWith(root + "/")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private ResourceResolver getServiceResourceResolver() throws LoginException {
+        final Map<String, Object> authInfo = Collections.singletonMap(
+                ResourceResolverFactory.SUBSERVICE,
+                (Object) SERVICE_ACCOUNT_IDENTIFIER);
+
+        return resourceResolverFactory.getServiceResourceResolver(authInfo);
+    }
+
+    @ObjectClassDefinition(name = "ACS AEM Samples - Sample Page Count Service")
+    public @interface Cfg {
+        @AttributeDefinition(
+                name = "Roots",
+                description = "The paths under which descendant page counts are maintained."
+        )
+        String[] resource_paths() default { "/content" };
+
+        @AttributeDefinition(
+                name = "Build retry delay",
+                description = "The time in seconds after which a failed build of the page counts is retried."
+        )
+        long build_retry_delay() default 60;
+    }
+}
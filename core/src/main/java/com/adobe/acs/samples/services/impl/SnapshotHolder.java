@@ -0,0 +1,67 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+/**
+ * Holds an immutable snapshot of state derived from a component's configuration, such as values parsed from an OSGi
+ * configuration in @Activate/@Modified, which request threads read at the same time as it is replaced.
+ *
+ * Plain (non-volatile) fields give no guarantee that other threads see a reassignment, or see the fields of the newly
+ * assigned object fully initialized; and setting several fields one after another lets readers observe a mix of old
+ * and new values. Instead, build a new immutable snapshot holding all of the state, and swap it in with a single
+ * volatile write. Readers call get() once per operation, which is a single volatile read, and work with that one
+ * consistent snapshot.
+ *
+ * The snapshot must be immutable (final fields, and no mutable arrays or collections handed out), or readers can
+ * still see it change under them.
+ *
+ * @param <T> the type of the snapshot
+ */
+public final class SnapshotHolder<T> {
+    private volatile T snapshot;
+
+    /**
+     * @param initial the snapshot returned until the first set(..), ex. a snapshot of the default configuration
+     */
+    public SnapshotHolder(final T initial) {
+        this.snapshot = initial;
+    }
+
+    /**
+     * @return the current snapshot; read it once per operation, rather than once per value needed
+     */
+    public T get() {
+        return snapshot;
+    }
+
+    /**
+     * Replaces the snapshot. Readers see either the previous or the new snapshot, never a mix of the two.
+     *
+     * Meant to be called from the component's @Activate/@Modified/@Deactivate methods, which DS never calls
+     * concurrently; it is not safe for concurrent read-modify-write updates.
+     *
+     * @param snapshot the new snapshot
+     */
+    public void set(final T snapshot) {
+        this.snapshot = snapshot;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * A bounded, thread-safe LRU cache with an optional time-to-live per entry, and hit/miss/eviction counters.
+ *
+ * An access-ordered LinkedHashMap is the simplest LRU, but every read reorders it, so it needs a lock even for reads;
+ * with a single lock, every caller of a busy cache waits on one another. This cache is instead split into segments
+ * (by key hash), each its own LRU with its own lock, so callers only contend when their keys fall into the same
+ * segment. The price is that eviction is least recently used per segment rather than across the whole cache, and the
+ * cache may hold slightly more than the maximum size (up to one entry per segment).
+ *
+ * Expired entries are removed when they are read, or when an entry is added to their segment while they are its least
+ * recently used entry; an expired entry that is neither read nor at the end of its segment stays until it is.
+ * Keys and values must not be null.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class BoundedCache<K, V> {
+    private static final int DEFAULT_CONCURRENCY = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int mask;
+    private final long ttl;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maxSize the maximum number of entries
+     * @param ttl the time in milliseconds entries are served for; 0 or less for no expiry
+     */
+    public BoundedCache(final int maxSize, final long ttl) {
+        this(maxSize, ttl, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * @param maxSize the maximum number of entries
+     * @param ttl the time in milliseconds entries are served for; 0 or less for no expiry
+     * @param concurrency the number of threads expected to use the cache at once; 1 for a single, exact LRU
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache(final int maxSize, final long ttl, final int concurrency) {
+        final int max = Math.max(1, maxSize);
+
+        // A power of 2 number of segments, so a segment is picked by masking the hash; and never more segments than
+        // entries, so small caches stay (close to) exact LRUs.
+        int count = Integer.highestOneBit(Math.max(1, Math.min(concurrency, max)));
+
+        this.segments = new Segment[count];
+        this.mask = count - 1;
+        this.ttl = ttl;
+
+        final int segmentMaxSize = (max + count - 1) / count;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<K, V>(segmentMaxSize, evictions, expirations);
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return the cached value, or null if the key is not cached (or its entry expired)
+     */
+    public V get(final K key) {
+        final Segment<K, V> segment = segmentFor(key);
+        final V value;
+
+        synchronized (segment) {
+            final Entry<V> entry = segment.get(key);
+
+            if (entry == null) {
+                value = null;
+            } else if (entry.isExpired()) {
+                segment.remove(key);
+                expirations.increment();
+                value = null;
+            } else {
+                value = entry.value;
+            }
+        }
+
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+
+        return value;
+    }
+
+    /**
+     * @param key the key
+     * @param value the value to cache
+     */
+    public void put(final K key, final V value) {
+        final Entry<V> entry = new Entry<V>(value, ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE);
+        final Segment<K, V> segment = segmentFor(key);
+
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return the value that was removed, or null if the key was not cached
+     */
+    public V remove(final K key) {
+        final Segment<K, V> segment = segmentFor(key);
+
+        synchronized (segment) {
+            final Entry<V> entry = segment.remove(key);
+            return entry == null ? null : entry.value;
+        }
+    }
+
+    /**
+     * Removes the key only if it is (still) mapped to the value; ex. to undo a put(..) that turned out to be stale.
+     *
+     * @param key the key
+     * @param value the value the key must be mapped to (compared by identity)
+     * @return true if the entry was removed
+     */
+    public boolean remove(final K key, final V value) {
+        final Segment<K, V> segment = segmentFor(key);
+
+        synchronized (segment) {
+            final Entry<V> entry = segment.get(key);
+
+            if (entry != null && entry.value == value) {
+                segment.remove(key);
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Removes all entries matching a predicate; ex. to invalidate entries affected by a content change. Segments are
+     * locked one at a time, so this does not block the whole cache.
+     *
+     * @param predicate tests each key and value
+     * @return the number of entries removed
+     */
+    public int removeIf(final BiPredicate<? super K, ? super V> predicate) {
+        int removed = 0;
+
+        for (final Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                final Iterator<Map.Entry<K, Entry<V>>> iterator = segment.entrySet().iterator();
+
+                while (iterator.hasNext()) {
+                    final Map.Entry<K, Entry<V>> entry = iterator.next();
+
+                    if (predicate.test(entry.getKey(), entry.getValue().value)) {
+                        iterator.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+
+        evictions.add(removed);
+        return removed;
+    }
+
+    public void clear() {
+        for (final Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries, including expired entries that have not been removed yet
+     */
+    public int size() {
+        int size = 0;
+
+        for (final Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * @return the number of get(..) calls that found a value
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of get(..) calls that found no value
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of entries removed because of the size limit or removeIf(..)
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of expired entries removed
+     */
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    private Segment<K, V> segmentFor(final Object key) {
+        final int hash = key.hashCode();
+        // Spread the high bits down, as many hash codes (ex. of similar Strings) differ mostly in their high bits
+        return segments[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    /**
+     * One LRU segment; always accessed while synchronized on it.
+     */
+    private static final class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+        private final int maxSize;
+        private final LongAdder evictions;
+        private final LongAdder expirations;
+
+        private Segment(final int maxSize, final LongAdder evictions, final LongAdder expirations) {
+            // An access-ordered LinkedHashMap evicts the least recently used entry once the max size is exceeded.
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+            this.expirations = expirations;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+            // Called after each put; an expired eldest entry goes whether or not the segment is full
+            if (eldest.getValue().isExpired()) {
+                expirations.increment();
+                return true;
+            }
+
+            if (size() > maxSize) {
+                evictions.increment();
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(final V value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return expiresAt != Long.MAX_VALUE && expiresAt <= System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.resourceproviders.impl;
+
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the allocation of the ValueMap built per resolved number resource: the HashMap + ValueMapDecorator the
+ * SampleResourceProvider used to populate, against the flyweight NumberValueMap.
+ *
+ * "resolve" benchmarks only build the ValueMap (most resolved resources are never read); "resolveAndRead" also reads
+ * one property. Compare the gc.alloc.rate.norm (bytes per operation) of the GC profiler.
+ *
+ * This is not run by the build; run the main method (from an IDE, or with the test classpath).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NumberValueMapBenchmark {
+
+    @Param({"8"})
+    private int number;
+
+    @Benchmark
+    public ValueMap resolveHashMap() {
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("sampleData", "This is sample data for the number " + number);
+        properties.put("gotAt", new Date());
+        properties.put("meaningOfLife", 42);
+
+        return new ValueMapDecorator(properties);
+    }
+
+    @Benchmark
+    public ValueMap resolveNumberValueMap() {
+        return new NumberValueMap(NumberValueMap.RESOLVED, number, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public Object resolveAndReadHashMap() {
+        return resolveHashMap().get("meaningOfLife", Integer.class);
+    }
+
+    @Benchmark
+    public Object resolveAndReadNumberValueMap() {
+        return resolveNumberValueMap().get("meaningOfLife", Integer.class);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(NumberValueMapBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.resourceproviders.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NumberValueMapTest {
+    private static final long TIMESTAMP = 1500000000000L;
+
+    private final NumberValueMap resolved = new NumberValueMap(NumberValueMap.RESOLVED, 8, TIMESTAMP);
+
+    @Test
+    void derivesValues() {
+        assertEquals("This is sample data for the number 8", resolved.get("sampleData"));
+        assertEquals(new Date(TIMESTAMP), resolved.get("gotAt"));
+        assertEquals(42, resolved.get("meaningOfLife"));
+        assertNull(resolved.get("unknown"));
+    }
+
+    @Test
+    void schemaDecidesTimestampProperty() {
+        final NumberValueMap listed = new NumberValueMap(NumberValueMap.LISTED, 8, TIMESTAMP);
+
+        assertTrue(listed.containsKey("listedAt"));
+        assertFalse(listed.containsKey("gotAt"));
+        assertTrue(resolved.containsKey("gotAt"));
+        assertFalse(resolved.containsKey("listedAt"));
+    }
+
+    @Test
+    void equalsEagerlyPopulatedMap() {
+        final Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("sampleData", "This is sample data for the number 8");
+        expected.put("gotAt", new Date(TIMESTAMP));
+        expected.put("meaningOfLife", 42);
+
+        assertEquals(3, resolved.size());
+        assertEquals(expected, resolved);
+        assertEquals(expected, new HashMap<String, Object>(resolved));
+        assertEquals(expected.hashCode(), resolved.hashCode());
+    }
+
+    @Test
+    void convertsTypes() {
+        assertEquals("42", resolved.get("meaningOfLife", String.class));
+        assertEquals(Long.valueOf(42), resolved.get("meaningOfLife", Long.class));
+        assertEquals(Double.valueOf(42), resolved.get("meaningOfLife", Double.class));
+        assertEquals(TIMESTAMP, resolved.get("gotAt", Calendar.class).getTimeInMillis());
+        assertNull(resolved.get("sampleData", Integer.class));
+        assertNull(resolved.get("unknown", String.class));
+    }
+
+    @Test
+    void defaultValues() {
+        assertEquals(Integer.valueOf(42), resolved.get("meaningOfLife", 0));
+        assertEquals("fallback", resolved.get("unknown", "fallback"));
+        assertEquals(Integer.valueOf(7), resolved.get("sampleData", 7));
+    }
+
+    @Test
+    void isImmutable() {
+        assertThrows(UnsupportedOperationException.class, () -> resolved.put("sampleData", "changed"));
+        assertThrows(UnsupportedOperationException.class, () -> resolved.remove("sampleData"));
+        assertThrows(UnsupportedOperationException.class, resolved::clear);
+    }
+}
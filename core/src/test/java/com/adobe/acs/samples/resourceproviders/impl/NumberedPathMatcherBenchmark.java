@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.resourceproviders.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how the SampleResourceProvider resolves number paths: the substringAfter(..) + Integer.parseInt(..) it
+ * used to do, against the NumberedPathMatcher; for a valid path, a path with a non-numeric suffix (which made
+ * parseInt(..) throw) and a path outside of the provider.
+ *
+ * This is not run by the build; run the main method (from an IDE, or with the test classpath).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NumberedPathMatcherBenchmark {
+    private static final String ROOT = "/numbers";
+    private static final int NO_MATCH = -1;
+
+    private static final NumberedPathMatcher MATCHER = new NumberedPathMatcher(ROOT + "/number-", 0, 100);
+
+    @Param({"/numbers/number-42", "/numbers/number-42/jcr:content", "/content/we-retail"})
+    private String path;
+
+    @Benchmark
+    public int parseInt() {
+        final String numberStr = StringUtils.substringAfter(path, ROOT + "/number-");
+
+        try {
+            final int number = Integer.parseInt(numberStr);
+            return number < 0 || number > 100 ? NO_MATCH : number;
+        } catch (NumberFormatException e) {
+            return NO_MATCH;
+        }
+    }
+
+    @Benchmark
+    public int matcher() {
+        return MATCHER.match(path);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(NumberedPathMatcherBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
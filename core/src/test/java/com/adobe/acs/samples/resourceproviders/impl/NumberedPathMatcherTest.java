@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.resourceproviders.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NumberedPathMatcherTest {
+    private final NumberedPathMatcher matcher = new NumberedPathMatcher("/numbers/number-", 0, 100);
+
+    @Test
+    void matchesNumbersInRange() {
+        assertEquals(0, matcher.match("/numbers/number-0"));
+        assertEquals(8, matcher.match("/numbers/number-8"));
+        assertEquals(100, matcher.match("/numbers/number-100"));
+        assertEquals(8, matcher.match("/numbers/number-008"));
+    }
+
+    @Test
+    void rejectsNumbersOutOfRange() {
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match("/numbers/number-101"));
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match("/numbers/number-99999999999999999999999"));
+        assertEquals(NumberedPathMatcher.NO_MATCH, new NumberedPathMatcher("/n-", 5, 10).match("/n-4"));
+    }
+
+    @Test
+    void rejectsMalformedPaths() {
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match(null));
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match(""));
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match("/numbers"));
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match("/numbers/number-"));
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match("/numbers/number--1"));
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match("/numbers/number-+1"));
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match("/numbers/number-1a"));
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match("/numbers/number-1/jcr:content"));
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match("/other/number-1"));
+        assertEquals(NumberedPathMatcher.NO_MATCH, matcher.match("/numbers/number-١"));
+    }
+
+    @Test
+    void rejectsInvalidRanges() {
+        assertThrows(IllegalArgumentException.class, () -> new NumberedPathMatcher("/n-", -1, 10));
+        assertThrows(IllegalArgumentException.class, () -> new NumberedPathMatcher("/n-", 10, 5));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.resourceproviders.impl;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.mock;
+
+class SampleResourceProviderTest {
+    private final ResourceResolver resourceResolver = mock(ResourceResolver.class);
+
+    @Test
+    void listNumbersListsAllChildrenWithoutLimit() {
+        final List<String> paths = paths(SampleResourceProvider.listNumbers(resourceResolver, 0, -1));
+
+        assertEquals(SampleResourceProvider.countNumbers(), paths.size());
+        assertEquals("/numbers/number-0", paths.get(0));
+        assertEquals("/numbers/number-100", paths.get(paths.size() - 1));
+    }
+
+    @Test
+    void listNumbersListsWindow() {
+        final List<String> paths = paths(SampleResourceProvider.listNumbers(resourceResolver, 20, 3));
+
+        assertEquals(3, paths.size());
+        assertEquals("/numbers/number-20", paths.get(0));
+        assertEquals("/numbers/number-22", paths.get(2));
+    }
+
+    @Test
+    void listNumbersStopsAtLastChild() {
+        final List<String> paths = paths(SampleResourceProvider.listNumbers(resourceResolver, 99, 10));
+
+        assertEquals(2, paths.size());
+        assertEquals("/numbers/number-100", paths.get(1));
+    }
+
+    @Test
+    void listNumbersBeyondLastChildIsEmpty() {
+        assertFalse(SampleResourceProvider.listNumbers(resourceResolver, 101, 10).hasNext());
+        assertFalse(SampleResourceProvider.listNumbers(resourceResolver, 0, 0).hasNext());
+        assertFalse(SampleResourceProvider.listNumbers(resourceResolver, Integer.MAX_VALUE, Integer.MAX_VALUE).hasNext());
+    }
+
+    @Test
+    void listedChildrenHaveNumberProperties() {
+        final Resource child = SampleResourceProvider.listNumbers(resourceResolver, 8, 1).next();
+
+        assertEquals("This is sample data for the number 8", child.getValueMap().get("sampleData", String.class));
+        assertEquals(Integer.valueOf(42), child.getValueMap().get("meaningOfLife", Integer.class));
+    }
+
+    private static List<String> paths(final Iterator<Resource> resources) {
+        final List<String> paths = new ArrayList<String>();
+
+        while (resources.hasNext()) {
+            paths.add(resources.next().getPath());
+        }
+
+        return paths;
+    }
+}
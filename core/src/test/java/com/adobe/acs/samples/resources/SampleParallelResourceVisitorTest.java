@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.resources;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SampleParallelResourceVisitorTest {
+    private final ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+    private final Map<String, Resource> resources = new HashMap<String, Resource>();
+    private final Map<String, List<Resource>> children = new HashMap<String, List<Resource>>();
+    private final AtomicInteger resourceResolversOpened = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // A wide folder of 50 assets, and a deep, narrow chain of 100 folders with an asset at each level
+        final Resource root = folder("/content/dam");
+        final Resource wide = child(root, folder("/content/dam/wide"));
+        for (int i = 0; i < 50; i++) {
+            child(wide, asset("/content/dam/wide/asset-" + i));
+        }
+
+        Resource deep = child(root, folder("/content/dam/deep"));
+        for (int i = 0; i < 100; i++) {
+            child(deep, asset(deep.getPath() + "/asset"));
+            deep = child(deep, folder(deep.getPath() + "/level-" + i));
+        }
+
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenAnswer(invocation -> {
+            resourceResolversOpened.incrementAndGet();
+
+            final ResourceResolver resourceResolver = mock(ResourceResolver.class);
+            when(resourceResolver.getResource(anyString())).thenAnswer(get -> resources.get(get.<String>getArgument(0)));
+            return resourceResolver;
+        });
+    }
+
+    @Test
+    void countsWithoutForking() throws Exception {
+        final SampleParallelResourceVisitor visitor = visitor(100000, 10);
+
+        assertEquals(150, visitor.count("/content/dam"));
+        assertEquals(1, resourceResolversOpened.get());
+    }
+
+    @Test
+    void countsDeepNarrowTreeWithForks() throws Exception {
+        final SampleParallelResourceVisitor visitor = visitor(5, 2);
+
+        assertEquals(100, visitor.count("/content/dam/deep"));
+        // The chain has no wide resources, yet its traversal is still split into many tasks
+        assertTrue(resourceResolversOpened.get() > 10);
+    }
+
+    @Test
+    void countsWithForks() throws Exception {
+        assertEquals(150, visitor(5, 2).count("/content/dam"));
+    }
+
+    @Test
+    void concurrentCallsCountIndependently() throws Exception {
+        final SampleParallelResourceVisitor visitor = visitor(5, 2);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            final List<Future<Long>> counts = new ArrayList<Future<Long>>();
+            for (int i = 0; i < 8; i++) {
+                final String rootPath = i % 2 == 0 ? "/content/dam" : "/content/dam/wide";
+                counts.add(executor.submit(() -> visitor.count(rootPath)));
+            }
+
+            for (int i = 0; i < counts.size(); i++) {
+                assertEquals(i % 2 == 0 ? 150L : 50L, (long) counts.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void loginFailureIsRethrown() throws Exception {
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenThrow(new LoginException("denied"));
+
+        assertThrows(LoginException.class, () -> visitor(5, 2).count("/content/dam"));
+    }
+
+    @Test
+    void missingRootCountsNothing() throws Exception {
+        assertEquals(0, visitor(5, 2).count("/content/missing"));
+    }
+
+    private SampleParallelResourceVisitor visitor(final int forkThreshold, final int batchSize) {
+        return new SampleParallelResourceVisitor(resourceResolverFactory, "sample-service", "dam:Asset",
+                forkThreshold, batchSize, 2, 4);
+    }
+
+    private Resource folder(final String path) {
+        return resource(path, "sling:Folder");
+    }
+
+    private Resource asset(final String path) {
+        return resource(path, "dam:Asset");
+    }
+
+    private Resource resource(final String path, final String primaryType) {
+        final Resource resource = mock(Resource.class);
+        final List<Resource> resourceChildren = new ArrayList<Resource>();
+
+        when(resource.getPath()).thenReturn(path);
+        when(resource.getValueMap()).thenReturn(new ValueMapDecorator(
+                Collections.<String, Object>singletonMap("jcr:primaryType", primaryType)));
+        when(resource.listChildren()).thenAnswer(invocation -> resourceChildren.iterator());
+
+        resources.put(path, resource);
+        children.put(path, resourceChildren);
+        return resource;
+    }
+
+    private Resource child(final Resource parent, final Resource child) {
+        children.get(parent.getPath()).add(child);
+        return child;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.resources;
+
+import org.apache.sling.api.resource.AbstractResource;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the SampleResourceVisitor's primary type lookups, TypeLookup.VALUE_MAP against TypeLookup.NODE, traversing a
+ * mocked repository of 100,100 nodes: 100 folders of 100 folders of 9 dam:Assets each.
+ *
+ * Every resource is backed by a mocked JCR Node, and reads through it the way JCR-backed resources do: getValueMap()
+ * builds a new ValueMap on each call, whose get(..) reads the Node's property, and the NODE lookup reads the Node's
+ * primary NodeType. The mocks count those reads; main() prints them per traversal. The mocks are plain
+ * java.lang.reflect.Proxy instances rather than Mockito mocks, whose per-call overhead would outweigh the lookups.
+ *
+ * This measures the visitor's own cost per node against a repository that answers instantly; on a real repository
+ * each read also costs what Oak takes to answer it, and those costs are not modelled here.
+ *
+ * This is not run by the build; run the main method (from an IDE, or with the test classpath).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class SampleResourceVisitorBenchmark {
+    private static final int FOLDERS = 100;
+    private static final int ASSETS_PER_FOLDER = 9;
+
+    // Reads through the mocked Nodes; the benchmarks run on one thread
+    private static long propertyReads;
+    private static long nodeTypeReads;
+
+    private Resource root;
+
+    @Setup
+    public void setUp() {
+        root = tree();
+    }
+
+    @Benchmark
+    public int valueMap() {
+        return traverse(root, SampleResourceVisitor.TypeLookup.VALUE_MAP);
+    }
+
+    @Benchmark
+    public int node() {
+        return traverse(root, SampleResourceVisitor.TypeLookup.NODE);
+    }
+
+    private static int traverse(final Resource root, final SampleResourceVisitor.TypeLookup typeLookup) {
+        final SampleResourceVisitor visitor = new SampleResourceVisitor("dam:Asset");
+        visitor.setTypeLookup(typeLookup);
+        visitor.accept(root);
+        return visitor.getCount();
+    }
+
+    private static Resource tree() {
+        final BenchmarkResource root = new BenchmarkResource("/content/dam", "sling:Folder");
+
+        for (int i = 0; i < FOLDERS; i++) {
+            final BenchmarkResource folder = root.add("folder-" + i, "sling:Folder");
+
+            for (int j = 0; j < FOLDERS; j++) {
+                final BenchmarkResource subFolder = folder.add("folder-" + j, "sling:Folder");
+
+                for (int k = 0; k < ASSETS_PER_FOLDER; k++) {
+                    subFolder.add("asset-" + k + ".jpg", "dam:Asset");
+                }
+            }
+        }
+
+        return root;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        final Resource root = tree();
+
+        for (final SampleResourceVisitor.TypeLookup typeLookup : SampleResourceVisitor.TypeLookup.values()) {
+            propertyReads = 0;
+            nodeTypeReads = 0;
+
+            final int count = traverse(root, typeLookup);
+            System.out.println(typeLookup + ": " + count + " assets; " + propertyReads + " property reads, "
+                    + nodeTypeReads + " node type reads per traversal");
+        }
+
+        new Runner(new OptionsBuilder()
+                .include(SampleResourceVisitorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    /**
+     * A JCR-backed resource: its properties are only held by its mocked Node.
+     */
+    private static final class BenchmarkResource extends AbstractResource {
+        private final String path;
+        private final Node node;
+        private final List<Resource> children = new ArrayList<Resource>();
+
+        private BenchmarkResource(final String path, final String primaryType) {
+            this.path = path;
+            this.node = node(primaryType);
+        }
+
+        private BenchmarkResource add(final String name, final String primaryType) {
+            final BenchmarkResource child = new BenchmarkResource(path + "/" + name, primaryType);
+            children.add(child);
+            return child;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public String getResourceType() {
+            return null;
+        }
+
+        @Override
+        public String getResourceSuperType() {
+            return null;
+        }
+
+        @Override
+        public ResourceMetadata getResourceMetadata() {
+            return new ResourceMetadata();
+        }
+
+        @Override
+        public ResourceResolver getResourceResolver() {
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <AdapterType> AdapterType adaptTo(final Class<AdapterType> type) {
+            return type == Node.class ? (AdapterType) node : super.adaptTo(type);
+        }
+
+        @Override
+        public ValueMap getValueMap() {
+            // Like a JCR ValueMap, a new map on every call, which reads the properties from the Node
+            return new ValueMapDecorator(new HashMap<String, Object>()) {
+                @Override
+                public <T> T get(final String name, final Class<T> type) {
+                    try {
+                        return type.cast(node.getProperty(name).getString());
+                    } catch (RepositoryException e) {
+                        return null;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public Iterator<Resource> listChildren() {
+            return children.iterator();
+        }
+    }
+
+    private static Node node(final String primaryType) {
+        final NodeType nodeType = proxy(NodeType.class, (proxy, method, args) ->
+                "getName".equals(method.getName()) ? primaryType : null);
+
+        return proxy(Node.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getPrimaryNodeType":
+                    nodeTypeReads++;
+                    return nodeType;
+                case "getProperty":
+                    propertyReads++;
+                    // Like a JCR Node, a new Property on every call
+                    return proxy(Property.class, (p, m, a) -> "getString".equals(m.getName()) ? primaryType : null);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static <T> T proxy(final Class<T> type, final java.lang.reflect.InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+}
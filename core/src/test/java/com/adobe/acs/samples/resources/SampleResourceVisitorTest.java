@@ -0,0 +1,382 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.resources;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.AbstractResource;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SampleResourceVisitorTest {
+    private final ResourceResolver resourceResolver = mock(ResourceResolver.class);
+    private final Map<String, TestResource> resources = new HashMap<String, TestResource>();
+    private final AtomicInteger valueMapReads = new AtomicInteger();
+
+    private TestResource root;
+
+    @BeforeEach
+    void setUp() {
+        // /content/dam holds 3 folders (a, b, archive) of 10 assets each, and an archive/old sub-folder of 5 more
+        root = add(null, "/content/dam", "sling:Folder");
+
+        for (final String folder : new String[] { "a", "b", "archive" }) {
+            final TestResource parent = add(root, "/content/dam/" + folder, "sling:OrderedFolder");
+
+            for (int i = 0; i < 10; i++) {
+                final TestResource asset = add(parent, parent.getPath() + "/asset-" + i, "dam:Asset");
+                add(asset, asset.getPath() + "/jcr:content", "dam:AssetContent");
+            }
+        }
+
+        final TestResource old = add(resources.get("/content/dam/archive"), "/content/dam/archive/old", "sling:Folder");
+        for (int i = 0; i < 5; i++) {
+            add(old, old.getPath() + "/asset-" + i, "dam:Asset");
+        }
+
+        when(resourceResolver.getResource(anyString())).thenAnswer(invocation -> resources.get(invocation.<String>getArgument(0)));
+    }
+
+    @Test
+    void countsAssetsWithoutTraversingThem() {
+        final SampleResourceVisitor visitor = visitor();
+
+        visitor.accept(root);
+
+        assertEquals(35, visitor.getCount());
+        assertNull(visitor.getCheckpoint());
+    }
+
+    @Test
+    void readsEachPrimaryTypeOnce() {
+        final SampleResourceVisitor visitor = visitor();
+
+        visitor.accept(root);
+
+        // root, 3 folders, archive/old and 35 assets; the assets' jcr:content nodes are never reached
+        assertEquals(40, valueMapReads.get());
+    }
+
+    @Test
+    void overriddenVisitIsCalledForEveryResource() {
+        final List<String> visited = new ArrayList<String>();
+        final SampleResourceVisitor visitor = new SampleResourceVisitor("dam:Asset") {
+            @Override
+            protected void visit(final Resource resource) {
+                visited.add(resource.getPath());
+                super.visit(resource);
+            }
+        };
+        visitor.setTypeLookup(SampleResourceVisitor.TypeLookup.VALUE_MAP);
+
+        visitor.accept(root);
+
+        assertEquals(40, visited.size());
+        assertEquals(35, visitor.getCount());
+        assertEquals(40, valueMapReads.get());
+    }
+
+    @Test
+    void subTreeGlobPrunesItsRoot() {
+        final List<String> visited = new ArrayList<String>();
+        final SampleResourceVisitor visitor = new SampleResourceVisitor("dam:Asset") {
+            @Override
+            protected void visit(final Resource resource) {
+                visited.add(resource.getPath());
+                super.visit(resource);
+            }
+        };
+        visitor.setPrunedPathGlobs("/content/dam/archive/**");
+
+        visitor.accept(root);
+
+        assertEquals(20, visitor.getCount());
+        assertFalse(visited.contains("/content/dam/archive"));
+    }
+
+    @Test
+    void segmentGlobsPruneMatchingSegmentsOnly() {
+        final SampleResourceVisitor visitor = visitor();
+        visitor.setPrunedPathGlobs("/content/dam/*/asset-?");
+
+        visitor.accept(root);
+
+        // Every asset-N directly under a, b and archive is pruned; archive/old's assets are one segment deeper
+        assertEquals(5, visitor.getCount());
+    }
+
+    @Test
+    void prunesNodeTypes() {
+        final SampleResourceVisitor visitor = visitor();
+        visitor.setPrunedNodeTypes("sling:OrderedFolder");
+
+        visitor.accept(root);
+
+        assertEquals(0, visitor.getCount());
+    }
+
+    @Test
+    void depthBudgetPrunesDeeperResources() {
+        final SampleResourceVisitor visitor = visitor();
+        visitor.setDepthBudget(1);
+
+        visitor.accept(root);
+
+        assertEquals(0, visitor.getCount());
+
+        visitor.setDepthBudget(2);
+        visitor.accept(root);
+
+        assertEquals(30, visitor.getCount());
+    }
+
+    @Test
+    void nodeBudgetStopsAndResumes() {
+        final SampleResourceVisitor visitor = visitor();
+        visitor.setNodeBudget(15);
+
+        visitor.accept(root);
+
+        final SampleResourceVisitor.Checkpoint checkpoint = visitor.getCheckpoint();
+        assertNotNull(checkpoint);
+
+        int runs = 1;
+        while (visitor.getCheckpoint() != null) {
+            visitor.resume(resourceResolver, visitor.getCheckpoint());
+            runs++;
+        }
+
+        assertEquals(35, visitor.getCount());
+        assertEquals(3, runs);
+    }
+
+    @Test
+    void countTraversesSmallTrees() {
+        final SampleResourceVisitor visitor = visitor();
+
+        assertEquals(35, visitor.count(root, 1000));
+        assertEquals(SampleResourceVisitor.Strategy.TRAVERSAL, visitor.getStrategy());
+    }
+
+    @Test
+    void countTraversesWithoutIndex() {
+        final SampleResourceVisitor visitor = visitor();
+
+        assertEquals(35, visitor.count(root, 5));
+        assertEquals(SampleResourceVisitor.Strategy.TRAVERSAL, visitor.getStrategy());
+    }
+
+    @Test
+    void countQueriesWithIndex() throws Exception {
+        addQueryableIndex(null);
+        final SampleResourceVisitor visitor = visitor();
+
+        assertEquals(35, visitor.count(root, 5));
+        assertEquals(SampleResourceVisitor.Strategy.QUERY, visitor.getStrategy());
+    }
+
+    @Test
+    void countByQueryCountsWhatTraversalCounts() throws Exception {
+        // A nested asset and an asset sub-type; the traversal counts neither, and the query returns both
+        add(resources.get("/content/dam/a/asset-0"), "/content/dam/a/asset-0/nested", "dam:Asset");
+        add(resources.get("/content/dam/b"), "/content/dam/b/special", "acs:SpecialAsset");
+        addQueryableIndex(null);
+
+        final SampleResourceVisitor traversal = visitor();
+        traversal.accept(root);
+
+        final SampleResourceVisitor query = visitor();
+
+        assertEquals(traversal.getCount(), query.count(root, 5));
+        assertEquals(SampleResourceVisitor.Strategy.QUERY, query.getStrategy());
+    }
+
+    @Test
+    void countTraversesWhenIndexDoesNotCoverRoot() throws Exception {
+        addQueryableIndex("/content/dam/a");
+        final SampleResourceVisitor visitor = visitor();
+
+        assertEquals(35, visitor.count(root, 5));
+        assertEquals(SampleResourceVisitor.Strategy.TRAVERSAL, visitor.getStrategy());
+    }
+
+    /**
+     * Adds a Lucene index with a dam:Asset index rule (restricted to the included path, if any), and a fake query
+     * engine that returns the dam:Asset nodes (and sub-types) under the queried path.
+     */
+    private void addQueryableIndex(final String includedPath) throws Exception {
+        final Map<String, Object> indexProperties = new HashMap<String, Object>();
+        indexProperties.put("type", "lucene");
+        if (includedPath != null) {
+            indexProperties.put("includedPaths", new String[] { includedPath });
+        }
+
+        final TestResource indexes = add(null, "/oak:index", "nt:unstructured");
+        add(indexes, "/oak:index/damAssetLucene", indexProperties);
+        when(resourceResolver.getResource(any(Resource.class), eq("indexRules/dam:Asset")))
+                .thenReturn(add(null, "/oak:index/damAssetLucene/indexRules/dam:Asset", "nt:unstructured"));
+
+        final Session session = mock(Session.class);
+        final Workspace workspace = mock(Workspace.class);
+        final QueryManager queryManager = mock(QueryManager.class);
+        when(resourceResolver.adaptTo(Session.class)).thenReturn(session);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(session.nodeExists(anyString())).thenAnswer(invocation -> resources.containsKey(invocation.<String>getArgument(0)));
+        when(session.getNode(anyString())).thenAnswer(invocation -> node(resources.get(invocation.<String>getArgument(0))));
+
+        when(queryManager.createQuery(anyString(), eq(javax.jcr.query.Query.JCR_SQL2))).thenAnswer(invocation -> {
+            final String statement = invocation.getArgument(0);
+            final String path = StringUtils.substringBetween(statement, "ISDESCENDANTNODE(n, '", "')");
+
+            final List<Node> hits = new ArrayList<Node>();
+            for (final TestResource resource : resources.values()) {
+                final String type = resource.getResourceType();
+                if (resource.getPath().startsWith(path + "/") && ("dam:Asset".equals(type) || "acs:SpecialAsset".equals(type))) {
+                    hits.add(node(resource));
+                }
+            }
+
+            final Iterator<Node> iterator = hits.iterator();
+            final NodeIterator nodes = mock(NodeIterator.class);
+            when(nodes.hasNext()).thenAnswer(hasNext -> iterator.hasNext());
+            when(nodes.nextNode()).thenAnswer(nextNode -> iterator.next());
+
+            final QueryResult result = mock(QueryResult.class);
+            when(result.getNodes()).thenReturn(nodes);
+
+            final javax.jcr.query.Query query = mock(javax.jcr.query.Query.class);
+            when(query.execute()).thenReturn(result);
+            return query;
+        });
+    }
+
+    private static Node node(final TestResource resource) throws Exception {
+        final NodeType nodeType = mock(NodeType.class);
+        when(nodeType.getName()).thenReturn(resource.getResourceType());
+
+        final Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(resource.getPath());
+        when(node.getPrimaryNodeType()).thenReturn(nodeType);
+        return node;
+    }
+
+    private SampleResourceVisitor visitor() {
+        final SampleResourceVisitor visitor = new SampleResourceVisitor("dam:Asset");
+        visitor.setTypeLookup(SampleResourceVisitor.TypeLookup.VALUE_MAP);
+        return visitor;
+    }
+
+    private TestResource add(final TestResource parent, final String path, final String primaryType) {
+        return add(parent, path, Collections.<String, Object>singletonMap("jcr:primaryType", primaryType));
+    }
+
+    private TestResource add(final TestResource parent, final String path, final Map<String, Object> properties) {
+        final TestResource resource = new TestResource(path, properties);
+
+        if (parent != null) {
+            parent.children.add(resource);
+        }
+
+        resources.put(path, resource);
+        return resource;
+    }
+
+    /**
+     * An in-memory resource that counts how often its properties are read.
+     */
+    private final class TestResource extends AbstractResource {
+        private final String path;
+        private final ValueMap properties;
+        private final List<Resource> children = new ArrayList<Resource>();
+
+        private TestResource(final String path, final Map<String, Object> properties) {
+            this.path = path;
+            this.properties = new ValueMapDecorator(properties);
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public String getResourceType() {
+            return properties.get("jcr:primaryType", String.class);
+        }
+
+        @Override
+        public String getResourceSuperType() {
+            return null;
+        }
+
+        @Override
+        public ResourceMetadata getResourceMetadata() {
+            return new ResourceMetadata();
+        }
+
+        @Override
+        public ResourceResolver getResourceResolver() {
+            return resourceResolver;
+        }
+
+        @Override
+        public ValueMap getValueMap() {
+            valueMapReads.incrementAndGet();
+            return properties;
+        }
+
+        @Override
+        public Iterator<Resource> listChildren() {
+            return children.iterator();
+        }
+    }
+}
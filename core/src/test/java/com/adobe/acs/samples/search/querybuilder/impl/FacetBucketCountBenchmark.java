@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how the SampleFacetPredicateEvaluator puts synthetic hits into buckets: the way it used to (a scope
+ * startsWith(..) per hit, an upper-cased value per hit, counted into a map of boxed counts) against the way it does
+ * now (the scope decided once per query, values counted into a StringIntOpenHashMap, and upper-cased once per bucket).
+ *
+ * Reading the values from the repository is left out, as it is the same for both.
+ *
+ * This is not run by the build; run the main method (from an IDE, or with the test classpath).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FacetBucketCountBenchmark {
+    private static final String SCOPE = "/content/wknd";
+    private static final int DISTINCT_VALUES = 200;
+
+    @Param({"10000", "100000"})
+    private int hits;
+
+    private String[] paths;
+    private String[] values;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+
+        paths = new String[hits];
+        values = new String[hits];
+
+        for (int i = 0; i < hits; i++) {
+            paths[i] = SCOPE + "/en/page-" + i + "/jcr:content";
+            values[i] = "Title " + random.nextInt(DISTINCT_VALUES);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Long> perHit() {
+        final Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+
+        for (int i = 0; i < hits; i++) {
+            if (paths[i].startsWith(SCOPE)) {
+                final String bucketValue = StringUtils.upperCase(values[i]);
+                final Long count = buckets.get(bucketValue);
+                buckets.put(bucketValue, count == null ? 1L : count + 1);
+            }
+        }
+
+        return buckets;
+    }
+
+    @Benchmark
+    public Map<String, Integer> perBucket() {
+        final StringIntOpenHashMap counts = new StringIntOpenHashMap();
+
+        for (int i = 0; i < hits; i++) {
+            counts.increment(values[i]);
+        }
+
+        final Map<String, Integer> buckets = new LinkedHashMap<String, Integer>(counts.size() * 2);
+
+        for (int i = 0; i < counts.size(); i++) {
+            buckets.put(StringUtils.upperCase(counts.keyAt(i)), counts.countAt(i));
+        }
+
+        return buckets;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FacetBucketCountBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
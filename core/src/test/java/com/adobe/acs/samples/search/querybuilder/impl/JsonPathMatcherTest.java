@@ -0,0 +1,120 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import org.apache.sling.commons.json.JSONException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonPathMatcherTest {
+
+    @Test
+    void extractsTopLevelString() throws Exception {
+        assertEquals("featured", matcher("type").extract("{\"id\":1,\"type\":\"featured\"}"));
+    }
+
+    @Test
+    void extractsNestedValue() throws Exception {
+        final String json = "{ \"skip\": {\"type\": \"no\"}, \"meta\" : { \"list\": [1, {\"type\": \"x\"}], \"type\" : \"featured\" } }";
+
+        assertEquals("featured", matcher("meta.type").extract(json));
+    }
+
+    @Test
+    void literalDottedKeyTakesPrecedenceOverPath() throws Exception {
+        assertEquals("literal", matcher("meta.type").extract("{\"meta\":{\"type\":\"path\"},\"meta.type\":\"literal\"}"));
+        assertEquals("path", matcher("meta.type").extract("{\"meta\":{\"type\":\"path\"}}"));
+    }
+
+    @Test
+    void extractsLiteralsAsWritten() throws Exception {
+        assertEquals("42.5", matcher("n").extract("{\"n\":42.5}"));
+        assertEquals("true", matcher("n").extract("{\"n\": true }"));
+        assertEquals("null", matcher("n").extract("{\"n\":null}"));
+    }
+
+    @Test
+    void unescapesStringsAndNames() throws Exception {
+        assertEquals("a\"b\\c\u00e9\n", matcher("k\"ey").extract("{\"k\\\"ey\":\"a\\\"b\\\\c\\u00e9\\n\"}"));
+    }
+
+    @Test
+    void skipsBracketsInsideStrings() throws Exception {
+        assertEquals("v", matcher("b").extract("{\"a\":{\"x\":\"}]{[\"},\"b\":\"v\"}"));
+    }
+
+    @Test
+    void neverMatchesObjectsOrArrays() throws Exception {
+        assertNull(matcher("a").extract("{\"a\":{\"b\":1}}"));
+        assertNull(matcher("a").extract("{\"a\":[1,2]}"));
+    }
+
+    @Test
+    void missingKeysExtractNull() throws Exception {
+        assertNull(matcher("missing").extract("{\"a\":1}"));
+        assertNull(matcher("a.b").extract("{\"a\":1}"));
+        assertNull(matcher("a").extract("{}"));
+        assertNull(matcher("a").extract("[1]"));
+    }
+
+    @Test
+    void prefixOfKeyDoesNotMatch() throws Exception {
+        assertNull(matcher("type").extract("{\"typeX\":\"a\",\"typ\":\"b\"}"));
+    }
+
+    @Test
+    void malformedJsonBeforeValueThrows() {
+        assertThrows(JSONException.class, () -> matcher("b").extract("{\"a\" 1, \"b\":\"v\"}"));
+        assertThrows(JSONException.class, () -> matcher("b").extract("{\"a\":\"unterminated"));
+    }
+
+    @Test
+    void malformedJsonAfterValueIsNotDetected() throws Exception {
+        assertEquals("v", matcher("a").extract("{\"a\":\"v\", oops"));
+    }
+
+    @Test
+    void filterableOnlyWithAllParameters() {
+        assertTrue(new JsonPathMatcher("prop", "key", "value").isFilterable());
+        assertFalse(new JsonPathMatcher(null, "key", "value").isFilterable());
+        assertFalse(new JsonPathMatcher("prop", " ", "value").isFilterable());
+        assertFalse(new JsonPathMatcher("prop", "key", null).isFilterable());
+    }
+
+    @Test
+    void matchesComparesExactly() {
+        final JsonPathMatcher matcher = new JsonPathMatcher("prop", "key", "featured");
+
+        assertTrue(matcher.matches("featured"));
+        assertFalse(matcher.matches("Featured"));
+        assertFalse(matcher.matches(null));
+    }
+
+    private static JsonPathMatcher matcher(final String key) {
+        return new JsonPathMatcher("prop", key, "value");
+    }
+}
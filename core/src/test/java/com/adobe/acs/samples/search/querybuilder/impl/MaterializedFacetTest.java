@@ -0,0 +1,227 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SampleFacetCountIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MaterializedFacetTest {
+
+    @Test
+    void parsesDefinitions() {
+        final MaterializedFacet facet = MaterializedFacet.parse("/content/a|cq:PageContent|jcr:title");
+
+        assertEquals("/content/a", facet.getPath());
+        assertEquals("cq:PageContent", facet.getNodeType());
+        assertEquals("jcr:title", facet.getPropertyRelPath());
+        assertEquals("/content/a|cq:PageContent|jcr:title", facet.getDefinition());
+
+        assertNull(MaterializedFacet.parse(null));
+        assertNull(MaterializedFacet.parse("/content/a|cq:PageContent"));
+        assertNull(MaterializedFacet.parse("/content/a||jcr:title"));
+    }
+
+    @Test
+    void coversThePathAndItsDescendantsOnly() {
+        final MaterializedFacet facet = facet();
+
+        assertTrue(facet.covers("/content/a"));
+        assertTrue(facet.covers("/content/a/b"));
+        assertFalse(facet.covers("/content/ab"));
+        assertFalse(facet.covers("/content"));
+    }
+
+    @Test
+    void servesNothingUntilReady() {
+        final MaterializedFacet facet = facet();
+        facet.put("/content/a/1", values("x"));
+
+        assertNull(facet.getCounts());
+
+        facet.markReady();
+        assertEquals(counts("x", 1), facet.getCounts().getCounts());
+    }
+
+    @Test
+    void replacesTheValuesOfAChangedNode() {
+        final MaterializedFacet facet = readyFacet();
+        facet.put("/content/a/1", values("x", "y"));
+        facet.put("/content/a/2", values("x"));
+        facet.put("/content/a/1", values("y", "z"));
+
+        final SampleFacetCountIndex.FacetCounts counts = facet.getCounts();
+        assertEquals(2, counts.getNodeCount());
+        assertEquals(counts("x", 1, "y", 1, "z", 1), counts.getCounts());
+    }
+
+    @Test
+    void countsNodesWithoutValues() {
+        final MaterializedFacet facet = readyFacet();
+        facet.put("/content/a", values());
+        facet.put("/content/a/1", values("x"));
+
+        assertEquals(2, facet.getCounts().getNodeCount());
+        assertEquals(counts("x", 1), facet.getCounts().getCounts());
+    }
+
+    @Test
+    void removesTreesButNotSiblingsWithTheSamePrefix() {
+        final MaterializedFacet facet = readyFacet();
+        facet.put("/content/a/1", values("x"));
+        facet.put("/content/a/1/2", values("y"));
+        facet.put("/content/a/1/2/3", values("y"));
+        facet.put("/content/a/10", values("z"));
+
+        facet.removeTree("/content/a/1");
+
+        assertEquals(1, facet.getCounts().getNodeCount());
+        assertEquals(counts("z", 1), facet.getCounts().getCounts());
+    }
+
+    @Test
+    void endBuildDropsNodesTheBuildDidNotSee() {
+        final MaterializedFacet facet = readyFacet();
+        facet.put("/content/a/1", values("x"));
+        facet.put("/content/a/2", values("y"));
+
+        facet.startBuild();
+        facet.putBuilt("/content/a/1", values("x"));
+        facet.endBuild();
+
+        assertEquals(1, facet.getCounts().getNodeCount());
+        assertEquals(counts("x", 1), facet.getCounts().getCounts());
+    }
+
+    @Test
+    void keepsServingTheOldCountsDuringABuild() {
+        final MaterializedFacet facet = readyFacet();
+        facet.put("/content/a/1", values("x"));
+
+        facet.startBuild();
+        assertEquals(counts("x", 1), facet.getCounts().getCounts());
+    }
+
+    @Test
+    void buildDoesNotReAddANodeRemovedDuringIt() {
+        final MaterializedFacet facet = readyFacet();
+        facet.startBuild();
+
+        // The build read these nodes before they were removed, but puts them after
+        facet.removeTree("/content/a/1");
+        facet.putBuilt("/content/a/1", values("x"));
+        facet.putBuilt("/content/a/1/child", values("x"));
+        facet.putBuilt("/content/a/2", values("y"));
+
+        facet.endBuild();
+
+        assertEquals(1, facet.getCounts().getNodeCount());
+        assertEquals(counts("y", 1), facet.getCounts().getCounts());
+    }
+
+    @Test
+    void buildDoesNotOverwriteANodeChangedDuringIt() {
+        final MaterializedFacet facet = readyFacet();
+        facet.startBuild();
+
+        facet.put("/content/a/1", values("new"));
+        facet.putBuilt("/content/a/1", values("old"));
+
+        facet.endBuild();
+
+        assertEquals(counts("new", 1), facet.getCounts().getCounts());
+    }
+
+    @Test
+    void buildReAddsANodeAddedBackAfterItsRemoval() {
+        final MaterializedFacet facet = readyFacet();
+        facet.startBuild();
+
+        facet.removeTree("/content/a/1");
+        facet.put("/content/a/1", values("x"));
+
+        facet.endBuild();
+
+        assertEquals(counts("x", 1), facet.getCounts().getCounts());
+    }
+
+    @Test
+    void prunesValuesWhoseCountDroppedToZero() {
+        final MaterializedFacet facet = readyFacet();
+
+        for (int i = 0; i < 1000; i++) {
+            facet.put("/content/a/" + i, values("value-" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            facet.put("/content/a/" + i, values("kept"));
+        }
+
+        assertTrue(facet.getCountedValues() < 1000);
+        assertEquals(counts("kept", 1000), facet.getCounts().getCounts());
+    }
+
+    @Test
+    void doesNotCountAValueAddedBackAsZero() {
+        final MaterializedFacet facet = readyFacet();
+
+        // Values drop to zero and come back, so none of them may be pruned
+        for (int i = 0; i < 200; i++) {
+            facet.put("/content/a/" + i, values("value-" + i));
+            facet.removeTree("/content/a/" + i);
+            facet.put("/content/a/" + i, values("value-" + i));
+        }
+
+        assertEquals(200, facet.getCountedValues());
+        assertEquals(200, facet.getCounts().getCounts().size());
+    }
+
+    private static MaterializedFacet facet() {
+        return MaterializedFacet.parse("/content/a|cq:PageContent|jcr:title");
+    }
+
+    private static MaterializedFacet readyFacet() {
+        final MaterializedFacet facet = facet();
+        facet.markReady();
+        return facet;
+    }
+
+    private static String[] values(final String... values) {
+        return values;
+    }
+
+    private static Map<String, Integer> counts(final Object... valuesAndCounts) {
+        final Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+
+        for (int i = 0; i < valuesAndCounts.length; i += 2) {
+            counts.put((String) valuesAndCounts[i], (Integer) valuesAndCounts[i + 1]);
+        }
+
+        return counts;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.osgi.framework.BundleContext;
+
+import javax.jcr.Node;
+import javax.jcr.query.Query;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SampleFacetCountIndexImplTest {
+    private static final String PAGE = "/content/x/page";
+
+    @Mock
+    private ResourceResolverFactory resourceResolverFactory;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @Mock
+    private BundleContext bundleContext;
+
+    @Mock
+    private SampleFacetCountIndexImpl.Cfg cfg;
+
+    @Mock
+    private Resource page;
+
+    @Mock
+    private Node node;
+
+    @InjectMocks
+    private SampleFacetCountIndexImpl index;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(resourceResolver);
+        when(cfg.facets()).thenReturn(new String[] { "/content/x|cq:Page|jcr:content/jcr:title" });
+        when(cfg.snapshot_interval()).thenReturn(60L);
+
+        when(page.getPath()).thenReturn(PAGE);
+        when(page.getValueMap()).thenReturn(mock(ValueMap.class));
+        when(page.getValueMap().get("jcr:content/jcr:title", String[].class)).thenReturn(new String[] { "Old" });
+        when(resourceResolver.findResources(anyString(), eq(Query.JCR_SQL2)))
+                .thenReturn(Collections.singletonList(page).iterator());
+
+        index.activate(cfg, bundleContext);
+        awaitBuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        index.deactivate();
+    }
+
+    @Test
+    void rereadsTheCountedAncestorOfARemovedResource() throws Exception {
+        assertEquals(Collections.singletonMap("Old", 1), counts());
+
+        // The page's jcr:content (and so its title) is removed; the page itself is still counted
+        when(resourceResolver.getResource(PAGE + "/jcr:content")).thenReturn(null);
+        when(resourceResolver.getResource(PAGE)).thenReturn(page);
+        when(page.adaptTo(Node.class)).thenReturn(node);
+        when(node.isNodeType("cq:Page")).thenReturn(true);
+        when(page.getValueMap().get("jcr:content/jcr:title", String[].class)).thenReturn(null);
+
+        index.onChange(Collections.singletonList(removed(PAGE + "/jcr:content")));
+
+        assertEquals(Collections.emptyMap(), counts());
+        assertEquals(1, index.getCounts("/content/x", "cq:Page", "jcr:content/jcr:title").getNodeCount());
+    }
+
+    @Test
+    void removesTheCountsOfARemovedNode() {
+        index.onChange(Collections.singletonList(removed(PAGE)));
+
+        assertEquals(Collections.emptyMap(), counts());
+        assertEquals(0, index.getCounts("/content/x", "cq:Page", "jcr:content/jcr:title").getNodeCount());
+    }
+
+    /**
+     * The build runs on the index's single thread executor, so a task submitted after it completes once it has.
+     */
+    private void awaitBuild() throws Exception {
+        final Field field = SampleFacetCountIndexImpl.class.getDeclaredField("executor");
+        field.setAccessible(true);
+        ((ScheduledExecutorService) field.get(index)).submit(() -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    private Map<String, Integer> counts() {
+        return index.getCounts("/content/x", "cq:Page", "jcr:content/jcr:title").getCounts();
+    }
+
+    private static ResourceChange removed(final String path) {
+        return new ResourceChange(ResourceChange.ChangeType.REMOVED, path, false);
+    }
+}
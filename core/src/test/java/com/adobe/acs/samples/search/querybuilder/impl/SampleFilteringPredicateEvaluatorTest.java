@@ -0,0 +1,73 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SamplePredicateEvaluatorMetrics;
+import com.day.cq.search.Predicate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@ExtendWith(MockitoExtension.class)
+class SampleFilteringPredicateEvaluatorTest {
+    @Mock
+    private SamplePredicateEvaluatorMetrics metrics;
+
+    @InjectMocks
+    private SampleFilteringPredicateEvaluator evaluator;
+
+    @Test
+    void constrainsTheValue() {
+        final Predicate predicate = predicate("jcr:content/myProp", "type", "featured");
+
+        assertEquals("jcr:like(jcr:content/@myProp, '%featured%')", evaluator.getXPathExpression(predicate, null));
+    }
+
+    @Test
+    void doesNotConstrainWithoutKey() {
+        // Without a key, includes(..) keeps every row, so the XPath must not narrow them
+        final Predicate predicate = predicate("myProp", " ", "featured");
+
+        assertNull(evaluator.getXPathExpression(predicate, null));
+        assertFalse(evaluator.canXpath(predicate, null));
+    }
+
+    @Test
+    void doesNotConstrainValuesJsonWritersEscape() {
+        for (final String value : new String[] { "a<b", "a>b", "a&b", "a=b", "it's", "a/b", "a\"b", "café" }) {
+            assertNull(evaluator.getXPathExpression(predicate("myProp", "type", value), null), value);
+        }
+    }
+
+    private static Predicate predicate(final String property, final String key, final String value) {
+        final Predicate predicate = new Predicate("json", "json");
+        predicate.set("property", property);
+        predicate.set("key", key);
+        predicate.set("value", value);
+        return predicate;
+    }
+}
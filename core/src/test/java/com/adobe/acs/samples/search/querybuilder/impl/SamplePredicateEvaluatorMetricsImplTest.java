@@ -0,0 +1,83 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SamplePredicateEvaluatorMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(MockitoExtension.class)
+class SamplePredicateEvaluatorMetricsImplTest {
+
+    @Spy
+    private SamplePredicateEvaluatorMetricsImpl metrics = new SamplePredicateEvaluatorMetricsImpl();
+
+    @InjectMocks
+    private SamplePredicateEvaluatorMetricsMBeanImpl mbean;
+
+    @Test
+    void countsCompiledPredicatesAndRowsByType() {
+        metrics.recordCompiledPredicate("json", true);
+        metrics.recordCompiledPredicate("json", false);
+        metrics.recordRow("json", true, 10);
+        metrics.recordRow("json", false, 5);
+        metrics.recordRow("other", true, 1);
+
+        final SamplePredicateEvaluatorMetrics.Counters json = metrics.getCounters().get("json");
+        assertEquals(2, json.getCompiledPredicates());
+        assertEquals(1, json.getFilterablePredicates());
+        assertEquals(2, json.getRowsIn());
+        assertEquals(1, json.getRowsOut());
+        assertEquals(15, json.getFilterTimeNanos());
+
+        assertEquals(0, metrics.getCounters().get("other").getCompiledPredicates());
+        assertEquals(1, metrics.getCounters().get("other").getRowsIn());
+    }
+
+    @Test
+    void exposesCountersAsRowPerType() throws Exception {
+        metrics.recordCompiledPredicate("json", true);
+        metrics.recordRow("json", true, 3000000);
+
+        final TabularData data = mbean.getCounters();
+        assertEquals(1, data.size());
+
+        final CompositeData row = data.get(new Object[]{"json"});
+        assertEquals(1L, row.get("compiledPredicates"));
+        assertEquals(1L, row.get("rowsOut"));
+        assertEquals(3L, row.get("filterTimeMillis"));
+    }
+
+    @Test
+    void exposesNoRowsBeforeAnythingIsRecorded() throws Exception {
+        assertTrue(mbean.getCounters().isEmpty());
+    }
+}
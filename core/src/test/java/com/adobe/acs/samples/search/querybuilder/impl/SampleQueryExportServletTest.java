@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SampleQueryHelper;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SampleQueryExportServletTest {
+    @Mock
+    private SampleQueryHelper queryHelper;
+
+    @Mock
+    private SlingHttpServletRequest request;
+
+    @Mock
+    private SlingHttpServletResponse response;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @InjectMocks
+    private SampleQueryExportServlet servlet;
+
+    private final Map<String, String[]> parameters = new HashMap<String, String[]>();
+    private final StringWriter output = new StringWriter();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final SampleQueryExportServlet.Cfg cfg = mock(SampleQueryExportServlet.Cfg.class);
+        when(cfg.properties()).thenReturn(new String[]{ "jcr:content/jcr:title" });
+        when(cfg.flush_interval()).thenReturn(1);
+        when(cfg.predicate_types()).thenReturn(new String[]{ "path", "type", "property" });
+        servlet.activate(cfg);
+
+        when(request.getParameterMap()).thenReturn(parameters);
+        when(request.getResourceResolver()).thenReturn(resourceResolver);
+        when(response.getWriter()).thenReturn(new PrintWriter(output));
+    }
+
+    @Test
+    void passesOnlyAllowedPredicates() throws Exception {
+        parameters.put("path", new String[]{ "/content" });
+        parameters.put("1_property", new String[]{ "jcr:title" });
+        parameters.put("1_property.value", new String[]{ "Hello" });
+        parameters.put("p.limit", new String[]{ "10" });
+        parameters.put("p.hitwriter", new String[]{ "full" });
+        parameters.put("group.p.or", new String[]{ "true" });
+        parameters.put("fulltext", new String[]{ "hello" });
+        parameters.put("p.properties", new String[]{ "jcr:title" });
+
+        servlet.doGet(request, response);
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<Map<String, String>> predicates = ArgumentCaptor.forClass(Map.class);
+        verify(queryHelper).stream(eq(resourceResolver), predicates.capture(), any());
+
+        final Map<String, String> expected = new HashMap<String, String>();
+        expected.put("path", "/content");
+        expected.put("1_property", "jcr:title");
+        expected.put("1_property.value", "Hello");
+        assertEquals(expected, predicates.getValue());
+    }
+
+    @Test
+    void writesHitsAndTheirTotal() throws Exception {
+        parameters.put("path", new String[]{ "/content" });
+
+        doAnswer(invocation -> {
+            final SampleQueryHelper.HitHandler handler = invocation.getArgument(2);
+            handler.handle(resource("/content/a"));
+            handler.handle(resource("/content/b"));
+            return 2L;
+        }).when(queryHelper).stream(any(), any(), any());
+
+        servlet.doGet(request, response);
+
+        final JSONObject json = new JSONObject(output.toString());
+        assertEquals(2, json.getJSONArray("hits").length());
+        assertEquals("/content/b", json.getJSONArray("hits").getJSONObject(1).getString("path"));
+        assertEquals(2, json.getLong("total"));
+    }
+
+    @Test
+    void leavesTheJsonUnterminatedWhenTheClientGoesAway() throws Exception {
+        final PrintWriter broken = new PrintWriter(output) {
+            @Override
+            public boolean checkError() {
+                return true;
+            }
+        };
+        when(response.getWriter()).thenReturn(broken);
+
+        doAnswer(invocation -> {
+            final SampleQueryHelper.HitHandler handler = invocation.getArgument(2);
+            assertFalse(handler.handle(resource("/content/a")));
+            return 1L;
+        }).when(queryHelper).stream(any(), any(), any());
+
+        servlet.doGet(request, response);
+        broken.flush();
+
+        assertTrue(output.toString().startsWith("{\"hits\":[{\"path\":\"/content/a\"}"));
+        assertFalse(output.toString().contains("total"));
+    }
+
+    private static Resource resource(final String path) {
+        final Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn(path);
+        return resource;
+    }
+}
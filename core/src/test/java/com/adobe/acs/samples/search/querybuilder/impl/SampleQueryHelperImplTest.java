@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SampleQueryHelper;
+import com.day.cq.search.PredicateGroup;
+import com.day.cq.search.Query;
+import com.day.cq.search.QueryBuilder;
+import com.day.cq.search.result.SearchResult;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SampleQueryHelperImplTest {
+    @Mock
+    private QueryBuilder queryBuilder;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @Mock
+    private ResourceResolver leakingResourceResolver;
+
+    @Mock
+    private Query query;
+
+    @Mock
+    private SearchResult result;
+
+    @InjectMocks
+    private SampleQueryHelperImpl queryHelper;
+
+    private final Map<String, String> predicates = new HashMap<String, String>();
+
+    @BeforeEach
+    void setUp() {
+        predicates.put("path", "/content");
+        predicates.put("p.offset", "10");
+
+        when(resourceResolver.adaptTo(Session.class)).thenReturn(mock(Session.class));
+        when(queryBuilder.createQuery(any(PredicateGroup.class), any(Session.class))).thenReturn(query);
+        when(query.getResult()).thenReturn(result);
+    }
+
+    @Test
+    void streamHandlesEveryHitOfOneQuery() throws Exception {
+        final List<Resource> resources = resources(3);
+        when(result.getResources()).thenReturn(resources.iterator());
+        final List<String> handled = new ArrayList<String>();
+
+        final long processed = queryHelper.stream(resourceResolver, predicates, resource -> handled.add(resource.getPath()));
+
+        assertEquals(3, processed);
+        assertEquals(Arrays.asList("/content/hit-0", "/content/hit-1", "/content/hit-2"), handled);
+        verify(queryBuilder, times(1)).createQuery(any(PredicateGroup.class), any(Session.class));
+        verify(result, never()).getHits();
+        verify(leakingResourceResolver).close();
+    }
+
+    @Test
+    void streamStopsWhenHandlerReturnsFalse() throws Exception {
+        final List<Resource> resources = resources(5);
+        when(result.getResources()).thenReturn(resources.iterator());
+
+        final long processed = queryHelper.stream(resourceResolver, predicates, resource -> !resource.getPath().endsWith("-1"));
+
+        assertEquals(2, processed);
+        verify(leakingResourceResolver).close();
+    }
+
+    @Test
+    void streamHandlesEmptyResults() throws Exception {
+        when(result.getResources()).thenReturn(Collections.<Resource>emptyIterator());
+
+        assertEquals(0, queryHelper.stream(resourceResolver, predicates, resource -> true));
+        verify(leakingResourceResolver, never()).close();
+    }
+
+    @Test
+    void streamDoesNotModifyPredicates() throws Exception {
+        when(result.getResources()).thenReturn(Collections.<Resource>emptyIterator());
+        final Map<String, String> expected = new HashMap<String, String>(predicates);
+
+        queryHelper.stream(resourceResolver, predicates, resource -> true);
+
+        assertEquals(expected, predicates);
+    }
+
+    @Test
+    void streamClosesLeakingResourceResolverWhenHandlerFails() {
+        final List<Resource> resources = resources(2);
+        when(result.getResources()).thenReturn(resources.iterator());
+
+        assertThrows(RepositoryException.class, () -> queryHelper.stream(resourceResolver, predicates, resource -> {
+            throw new RepositoryException("failed");
+        }));
+        verify(leakingResourceResolver).close();
+    }
+
+    @Test
+    void estimatedCountIsFlaggedWhenThereAreMoreHits() throws Exception {
+        queryHelper.activate(cfg(SampleQueryHelperImpl.COUNT_MODE_ESTIMATED));
+        // p.guessTotal is one more than the cap, so a total above the cap means there are more hits
+        when(result.getTotalMatches()).thenReturn(1001L);
+
+        final SampleQueryHelper.QueryCount count = queryHelper.count(resourceResolver, predicates);
+
+        assertEquals(1000, count.getCount());
+        assertTrue(count.isEstimated());
+        verify(result, never()).getHits();
+    }
+
+    @Test
+    void estimatedCountBelowTheCapIsExact() throws Exception {
+        queryHelper.activate(cfg(SampleQueryHelperImpl.COUNT_MODE_ESTIMATED));
+        when(result.getTotalMatches()).thenReturn(5L);
+        // The count asks for a page of 1 hit, so there are "more" hits than the page; that must not matter
+        lenient().when(result.hasMore()).thenReturn(true);
+
+        final SampleQueryHelper.QueryCount count = queryHelper.count(resourceResolver, predicates);
+
+        assertEquals(5, count.getCount());
+        assertFalse(count.isEstimated());
+    }
+
+    @Test
+    void estimatedCountOfExactlyTheCapIsExact() throws Exception {
+        queryHelper.activate(cfg(SampleQueryHelperImpl.COUNT_MODE_ESTIMATED));
+        when(result.getTotalMatches()).thenReturn(1000L);
+
+        final SampleQueryHelper.QueryCount count = queryHelper.count(resourceResolver, predicates);
+
+        assertEquals(1000, count.getCount());
+        assertFalse(count.isEstimated());
+    }
+
+    @Test
+    void preciseCountIsNeverEstimated() throws Exception {
+        queryHelper.activate(cfg(SampleQueryHelperImpl.COUNT_MODE_PRECISE));
+        when(result.getTotalMatches()).thenReturn(12345L);
+
+        final SampleQueryHelper.QueryCount count = queryHelper.count(resourceResolver, predicates);
+
+        assertEquals(12345, count.getCount());
+        assertFalse(count.isEstimated());
+    }
+
+    private static SampleQueryHelperImpl.Cfg cfg(final String countMode) {
+        final SampleQueryHelperImpl.Cfg cfg = mock(SampleQueryHelperImpl.Cfg.class);
+        when(cfg.count_mode()).thenReturn(countMode);
+        lenient().when(cfg.count_guess_total()).thenReturn(1000);
+        return cfg;
+    }
+
+    private List<Resource> resources(final int count) {
+        final List<Resource> resources = new ArrayList<Resource>();
+
+        for (int i = 0; i < count; i++) {
+            final Resource resource = mock(Resource.class);
+            lenient().when(resource.getPath()).thenReturn("/content/hit-" + i);
+            lenient().when(resource.getResourceResolver()).thenReturn(leakingResourceResolver);
+            resources.add(resource);
+        }
+
+        return resources;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import com.adobe.acs.samples.search.querybuilder.SampleQueryResultCache.CachedResult;
+import com.day.cq.search.PredicateGroup;
+import com.day.cq.search.Query;
+import com.day.cq.search.QueryBuilder;
+import com.day.cq.search.result.Hit;
+import com.day.cq.search.result.SearchResult;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SampleQueryResultCacheImplTest {
+    @Mock
+    private QueryBuilder queryBuilder;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @Mock
+    private JackrabbitSession session;
+
+    @Mock
+    private UserManager userManager;
+
+    @Mock
+    private Query query;
+
+    @InjectMocks
+    private SampleQueryResultCacheImpl cache;
+
+    private final Map<String, String> predicates = new HashMap<String, String>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final SampleQueryResultCacheImpl.Cfg cfg = mock(SampleQueryResultCacheImpl.Cfg.class);
+        when(cfg.max_size()).thenReturn(100);
+        when(cfg.ttl()).thenReturn(60000L);
+        when(cfg.principal_ttl()).thenReturn(60000L);
+        when(cfg.resource_paths()).thenReturn(new String[] { "/content" });
+        cache.activate(cfg);
+
+        final Authorizable user = mock(Authorizable.class);
+        final Principal principal = () -> "alice";
+        lenient().when(user.getPrincipal()).thenReturn(principal);
+        lenient().when(user.memberOf()).thenReturn(Collections.emptyIterator());
+        lenient().when(userManager.getAuthorizable("alice")).thenReturn(user);
+        lenient().when(session.getUserManager()).thenReturn(userManager);
+        lenient().when(session.getUserID()).thenReturn("alice");
+        lenient().when(resourceResolver.adaptTo(javax.jcr.Session.class)).thenReturn(session);
+        lenient().when(queryBuilder.createQuery(any(PredicateGroup.class), any(javax.jcr.Session.class))).thenReturn(query);
+        lenient().when(query.getResult()).thenAnswer(invocation -> result("/content/site/page"));
+
+        predicates.put("path", "/content/site/");
+        predicates.put("type", "cq:Page");
+    }
+
+    @Test
+    void missExecutesQuery() throws Exception {
+        final CachedResult result = cache.getResult(resourceResolver, predicates);
+
+        assertEquals(Collections.singletonList("/content/site/page"), result.getPaths());
+        assertEquals(1, result.getTotalMatches());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        verify(query, times(1)).getResult();
+    }
+
+    @Test
+    void hitIsServedFromCache() throws Exception {
+        final CachedResult first = cache.getResult(resourceResolver, predicates);
+        final CachedResult second = cache.getResult(resourceResolver, new HashMap<String, String>(predicates));
+
+        assertSame(first, second);
+        assertEquals(1, cache.getHitCount());
+        verify(query, times(1)).getResult();
+    }
+
+    @Test
+    void principalsAreResolvedOncePerUser() throws Exception {
+        cache.getResult(resourceResolver, predicates);
+        predicates.put("type", "dam:Asset");
+        cache.getResult(resourceResolver, predicates);
+
+        verify(userManager, times(1)).getAuthorizable("alice");
+    }
+
+    @Test
+    void changeUnderPathInvalidates() throws Exception {
+        cache.getResult(resourceResolver, predicates);
+
+        cache.onChange(Collections.singletonList(change("/content/site/page/jcr:content")));
+        cache.getResult(resourceResolver, predicates);
+
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getEvictionCount());
+        verify(query, times(2)).getResult();
+    }
+
+    @Test
+    void changeOfPathItselfInvalidatesPathWithTrailingSlash() throws Exception {
+        cache.getResult(resourceResolver, predicates);
+
+        cache.onChange(Collections.singletonList(change("/content/site")));
+
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void changeElsewhereDoesNotInvalidate() throws Exception {
+        cache.getResult(resourceResolver, predicates);
+
+        cache.onChange(Collections.singletonList(change("/content/other-site")));
+        cache.getResult(resourceResolver, predicates);
+
+        assertEquals(1, cache.getHitCount());
+        verify(query, times(1)).getResult();
+    }
+
+    @Test
+    void resultOfQueryOutsideObservedPathsIsNotCached() throws Exception {
+        predicates.put("path", "/conf/site");
+
+        cache.getResult(resourceResolver, predicates);
+        cache.getResult(resourceResolver, predicates);
+
+        assertEquals(0, cache.getHitCount());
+        verify(query, times(2)).getResult();
+    }
+
+    @Test
+    void resultOfQueryWithoutPathIsNotCached() throws Exception {
+        predicates.remove("path");
+
+        cache.getResult(resourceResolver, predicates);
+        cache.getResult(resourceResolver, predicates);
+
+        assertEquals(0, cache.getHitCount());
+        verify(query, times(2)).getResult();
+    }
+
+    @Test
+    void resultOfQueryRacingChangeIsNotCached() throws Exception {
+        // The change is processed while the query executes, so the query may have read the content from before it.
+        final ResourceChange change = change("/content/site/page");
+        final SearchResult racing = result("/content/site/page");
+        final SearchResult fresh = result("/content/site/page");
+
+        doAnswer(invocation -> {
+            cache.onChange(Collections.singletonList(change));
+            return racing;
+        }).doReturn(fresh).when(query).getResult();
+
+        cache.getResult(resourceResolver, predicates);
+        cache.getResult(resourceResolver, predicates);
+
+        assertEquals(0, cache.getHitCount());
+        verify(query, times(2)).getResult();
+    }
+
+    private static ResourceChange change(final String path) {
+        final ResourceChange change = mock(ResourceChange.class);
+        // Not read if there is nothing cached to invalidate
+        lenient().when(change.getPath()).thenReturn(path);
+        return change;
+    }
+
+    private static SearchResult result(final String path) throws Exception {
+        final ResourceResolver leakingResourceResolver = mock(ResourceResolver.class);
+        final Resource resource = mock(Resource.class);
+        when(resource.getResourceResolver()).thenReturn(leakingResourceResolver);
+
+        final Hit hit = mock(Hit.class);
+        when(hit.getResource()).thenReturn(resource);
+        when(hit.getPath()).thenReturn(path);
+
+        final SearchResult result = mock(SearchResult.class);
+        when(result.getHits()).thenReturn(Collections.singletonList(hit));
+        when(result.getTotalMatches()).thenReturn(1L);
+        return result;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.search.querybuilder.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StringIntOpenHashMapTest {
+
+    @Test
+    void countsIncrementsAndDeltas() {
+        final StringIntOpenHashMap map = new StringIntOpenHashMap();
+
+        map.increment("a");
+        map.increment("a");
+        assertEquals(5, map.add("b", 5));
+        assertEquals(1, map.add("a", -1));
+
+        assertEquals(2, map.size());
+        assertEquals(1, map.get("a"));
+        assertEquals(5, map.get("b"));
+        assertEquals(0, map.get("missing"));
+    }
+
+    @Test
+    void keepsInsertionOrder() {
+        final StringIntOpenHashMap map = new StringIntOpenHashMap();
+
+        map.increment("zeta");
+        map.increment("alpha");
+        map.increment("zeta");
+        map.increment("mid");
+
+        assertEquals("zeta", map.keyAt(0));
+        assertEquals(2, map.countAt(0));
+        assertEquals("alpha", map.keyAt(1));
+        assertEquals("mid", map.keyAt(2));
+    }
+
+    @Test
+    void handlesCollidingKeys() {
+        // "Aa" and "BB" have the same String hashCode, so they always probe the same slot first
+        final StringIntOpenHashMap map = new StringIntOpenHashMap(1);
+
+        map.add("Aa", 1);
+        map.add("BB", 2);
+        map.add("AaBB", 3);
+        map.add("BBAa", 4);
+
+        assertEquals(4, map.size());
+        assertEquals(1, map.get("Aa"));
+        assertEquals(2, map.get("BB"));
+        assertEquals(3, map.get("AaBB"));
+        assertEquals(4, map.get("BBAa"));
+    }
+
+    @Test
+    void growsPastTheExpectedSize() {
+        final StringIntOpenHashMap map = new StringIntOpenHashMap(0);
+        final Map<String, Integer> expected = new HashMap<String, Integer>();
+        final Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            final String key = "value-" + random.nextInt(5000);
+            map.increment(key);
+            expected.merge(key, 1, Integer::sum);
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < map.size(); i++) {
+            assertEquals(expected.get(map.keyAt(i)).intValue(), map.countAt(i));
+            assertEquals(map.countAt(i), map.get(map.keyAt(i)));
+        }
+    }
+
+    @Test
+    void mergesCountsInOrder() {
+        final StringIntOpenHashMap first = new StringIntOpenHashMap();
+        first.increment("a");
+        first.increment("b");
+
+        final StringIntOpenHashMap second = new StringIntOpenHashMap();
+        second.add("c", 3);
+        second.add("a", 2);
+
+        first.merge(second);
+
+        assertEquals(3, first.size());
+        assertEquals(3, first.get("a"));
+        assertEquals(1, first.get("b"));
+        assertEquals(3, first.get("c"));
+        assertEquals("c", first.keyAt(2));
+    }
+
+    @Test
+    void countsTheEmptyString() {
+        final StringIntOpenHashMap map = new StringIntOpenHashMap();
+
+        map.increment("");
+
+        assertEquals(1, map.get(""));
+        assertEquals("", map.keyAt(0));
+    }
+}
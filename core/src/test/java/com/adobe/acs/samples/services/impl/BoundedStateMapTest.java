@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedStateMapTest {
+    private final List<String> evictions = new ArrayList<String>();
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() {
+        final BoundedStateMap map = map(2, 0);
+        map.put("a", "1");
+        map.put("b", "2");
+
+        // Reading a makes b the least recently used entry
+        assertEquals("1", map.get("a"));
+        map.put("c", "3");
+
+        assertEquals(2, map.size());
+        assertNull(map.get("b"));
+        assertEquals("1", map.get("a"));
+        assertEquals("3", map.get("c"));
+        assertEquals(1, map.getEvictionCount());
+        assertEquals(0, map.getExpirationCount());
+        assertEquals("b=2 SIZE", evictions.get(0));
+    }
+
+    @Test
+    void replacingAValueDoesNotEvict() {
+        final BoundedStateMap map = map(2, 0);
+        map.put("a", "1");
+        map.put("b", "2");
+        map.put("a", "3");
+
+        assertEquals(2, map.size());
+        assertEquals("3", map.get("a"));
+        assertTrue(evictions.isEmpty());
+    }
+
+    @Test
+    void nullValueRemovesTheKey() {
+        final BoundedStateMap map = map(2, 0);
+        map.put("a", "1");
+        map.put("a", null);
+
+        assertNull(map.get("a"));
+        assertEquals(0, map.size());
+        assertTrue(evictions.isEmpty());
+    }
+
+    @Test
+    void expiresEntriesWhenRead() throws InterruptedException {
+        final BoundedStateMap map = map(10, 20);
+        map.put("a", "1");
+        assertEquals("1", map.get("a"));
+
+        Thread.sleep(50);
+
+        assertNull(map.get("a"));
+        assertEquals(0, map.size());
+        assertEquals(1, map.getExpirationCount());
+        assertEquals("a=1 EXPIRED", evictions.get(0));
+    }
+
+    @Test
+    void countsAnExpiredEldestEntryAsExpired() throws InterruptedException {
+        final BoundedStateMap map = map(1, 20);
+        map.put("a", "1");
+
+        Thread.sleep(50);
+        map.put("b", "2");
+
+        assertEquals(0, map.getEvictionCount());
+        assertEquals(1, map.getExpirationCount());
+        assertEquals("a=1 EXPIRED", evictions.get(0));
+        assertEquals("2", map.get("b"));
+    }
+
+    @Test
+    void notifiesListenersOutsideTheLock() {
+        final List<Boolean> heldLock = new ArrayList<Boolean>();
+        final BoundedStateMap[] holder = new BoundedStateMap[1];
+
+        holder[0] = new BoundedStateMap(1, 0, (key, value, cause) -> heldLock.add(Thread.holdsLock(holder[0])));
+        holder[0].put("a", "1");
+        holder[0].put("b", "2");
+
+        assertEquals(1, heldLock.size());
+        assertFalse(heldLock.get(0));
+    }
+
+    @Test
+    void neverExceedsTheMaximumSizeUnderConcurrentPuts() throws InterruptedException {
+        final BoundedStateMap map = new BoundedStateMap(100, 0, (key, value, cause) -> { });
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 10000;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    map.put("key-" + (offset + i), "value");
+                }
+            }));
+        }
+
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(100, map.size());
+        assertEquals(40000 - 100, map.getEvictionCount());
+    }
+
+    private BoundedStateMap map(final int maxSize, final long ttl) {
+        return new BoundedStateMap(maxSize, ttl, (key, value, cause) -> evictions.add(key + "=" + value + " " + cause));
+    }
+}
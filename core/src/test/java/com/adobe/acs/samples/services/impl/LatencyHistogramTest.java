@@ -0,0 +1,90 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.services.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LatencyHistogramTest {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    void emptyHistogramHasNoLatency() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(50));
+    }
+
+    @Test
+    void bucketsDoubleInWidth() {
+        assertEquals(0, percentileOfOne(0));
+        assertEquals(0, percentileOfOne(999));
+        assertEquals(1, percentileOfOne(TimeUnit.MICROSECONDS.toNanos(1)));
+        assertEquals(3, percentileOfOne(TimeUnit.MICROSECONDS.toNanos(2)));
+        assertEquals(2047, percentileOfOne(TimeUnit.MICROSECONDS.toNanos(1500)));
+        assertEquals(2047, percentileOfOne(TimeUnit.MICROSECONDS.toNanos(2047)));
+        assertEquals(4095, percentileOfOne(TimeUnit.MICROSECONDS.toNanos(2048)));
+    }
+
+    @Test
+    void longLatenciesShareTheLastBucket() {
+        histogram.record(Long.MAX_VALUE, false);
+
+        assertEquals((1L << 40) - 1, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    void percentilesRankTheRecordedLatencies() {
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(1), false);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1), false);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getPercentileMicros(0));
+        assertEquals(1, histogram.getPercentileMicros(50));
+        assertEquals(1, histogram.getPercentileMicros(90));
+        assertEquals(1023, histogram.getPercentileMicros(91));
+        assertEquals(1023, histogram.getPercentileMicros(100));
+        assertEquals(1023, histogram.getPercentileMicros(250));
+    }
+
+    @Test
+    void countsFailuresAndTimeoutsSeparately() {
+        histogram.record(1000, true);
+        histogram.record(1000, false);
+        histogram.recordTimeout();
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(1, histogram.getFailureCount());
+        assertEquals(1, histogram.getTimeoutCount());
+    }
+
+    private long percentileOfOne(final long nanos) {
+        final LatencyHistogram single = new LatencyHistogram();
+        single.record(nanos, false);
+        return single.getPercentileMicros(50);
+    }
+}
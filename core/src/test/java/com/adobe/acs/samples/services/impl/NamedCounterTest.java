@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NamedCounterTest {
+
+    @Test
+    void countsAdditions() {
+        final NamedCounter counter = new NamedCounter(60);
+        counter.add(1);
+        counter.add(5);
+        counter.add(-2);
+
+        assertEquals(4, counter.get());
+    }
+
+    @Test
+    void snapshotAndResetStartsFromZero() {
+        final NamedCounter counter = new NamedCounter(60);
+        counter.add(3);
+
+        assertEquals(3, counter.snapshotAndReset());
+        assertEquals(0, counter.get());
+
+        counter.add(2);
+        assertEquals(2, counter.get());
+        assertEquals(2, counter.snapshotAndReset());
+        assertEquals(0, counter.snapshotAndReset());
+    }
+
+    @Test
+    void averagesTheRateOverTheWindow() {
+        final NamedCounter counter = new NamedCounter(10);
+        counter.add(50);
+
+        // All 50 increments fall into the current second, averaged over the 10 seconds of the window
+        assertEquals(5.0, counter.getRate(), 0.0);
+    }
+
+    @Test
+    void ratesExcludeIncrementsOutsideTheWindow() throws InterruptedException {
+        final NamedCounter counter = new NamedCounter(1);
+        counter.add(7);
+
+        Thread.sleep(1100);
+
+        assertEquals(0.0, counter.getRate(), 0.0);
+        assertEquals(7, counter.get());
+    }
+
+    @Test
+    void losesNoIncrementsUnderConcurrency() throws InterruptedException {
+        final NamedCounter counter = new NamedCounter(60);
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    counter.add(1);
+                }
+            }));
+        }
+
+        runAll(threads);
+
+        assertEquals(800000, counter.get());
+    }
+
+    @Test
+    void concurrentSnapshotsAddUpToTheTotal() throws InterruptedException {
+        final NamedCounter counter = new NamedCounter(60);
+        final LongAdder snapshots = new LongAdder();
+        final AtomicBoolean adding = new AtomicBoolean(true);
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    counter.add(1);
+                }
+            }));
+        }
+        for (int t = 0; t < 2; t++) {
+            threads.add(new Thread(() -> {
+                while (adding.get()) {
+                    snapshots.add(counter.snapshotAndReset());
+                }
+            }));
+        }
+
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads.subList(0, 4)) {
+            thread.join();
+        }
+        adding.set(false);
+        for (final Thread thread : threads.subList(4, 6)) {
+            thread.join();
+        }
+
+        snapshots.add(counter.snapshotAndReset());
+
+        // Every increment is reported by exactly one snapshot
+        assertEquals(400000, snapshots.sum());
+        assertTrue(counter.getRate() > 0);
+    }
+
+    private static void runAll(final List<Thread> threads) throws InterruptedException {
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
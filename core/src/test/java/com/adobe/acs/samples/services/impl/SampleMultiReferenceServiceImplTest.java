@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package com.adobe.acs.samples.services.impl;
+
+import com.adobe.acs.samples.services.SampleMultiReferenceService.LatencyStats;
+import com.adobe.acs.samples.services.SampleService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SampleMultiReferenceServiceImplTest {
+    // Released at the end of each test, so hung services do not outlive it
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final SampleMultiReferenceServiceImpl impl = new SampleMultiReferenceServiceImpl();
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        impl.deactivate();
+    }
+
+    @Test
+    void completesWhenAllServicesResponded() throws Exception {
+        activate(1);
+        bind("a", () -> "hello a");
+        bind("b", () -> "hello b");
+
+        // Far longer than the services take; completing at all within the wait means it did not wait for the timeout
+        final Map<String, String> results = impl.helloWorldsAsync(60000).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, results.size());
+        assertEquals("hello a", results.get("a"));
+        assertEquals("hello b", results.get("b"));
+        assertEquals(1, impl.getLatencyStats().get("a").getCount());
+    }
+
+    @Test
+    void completesWithPartialResultsAtTheTimeout() throws Exception {
+        activate(1);
+        bind("fast", () -> "hello fast");
+        bind("slow", this::hang);
+        bind("failing", () -> {
+            throw new IllegalStateException("failing");
+        });
+
+        final Map<String, String> results = impl.helloWorldsAsync(200).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonMap("fast", "hello fast"), results);
+
+        final Map<String, LatencyStats> stats = impl.getLatencyStats();
+        assertEquals(1, stats.get("fast").getCount());
+        assertEquals(0, stats.get("slow").getCount());
+        assertEquals(1, stats.get("slow").getTimeoutCount());
+        assertEquals(1, stats.get("failing").getFailureCount());
+    }
+
+    @Test
+    void hungServiceDoesNotTakeMoreThanItsCalls() throws Exception {
+        activate(1);
+        final AtomicInteger hungCalls = new AtomicInteger();
+        bind("hung", () -> {
+            hungCalls.incrementAndGet();
+            return hangUninterruptibly();
+        });
+        bind("healthy", () -> "hello healthy");
+
+        for (int i = 0; i < 3; i++) {
+            final Map<String, String> results = impl.helloWorldsAsync(100).get(5, TimeUnit.SECONDS);
+            assertEquals(Collections.singletonMap("healthy", "hello healthy"), results);
+        }
+
+        // The first call still holds the only permit (it ignored the interrupt), so the later ones were skipped
+        assertEquals(1, hungCalls.get());
+        assertEquals(3, impl.getLatencyStats().get("hung").getTimeoutCount());
+        assertEquals(3, impl.getLatencyStats().get("healthy").getCount());
+    }
+
+    @Test
+    void failsAfterDeactivation() {
+        activate(4);
+        bind("a", () -> "hello a");
+        impl.deactivate();
+
+        final CompletableFuture<Map<String, String>> future = impl.helloWorldsAsync(1000);
+
+        assertTrue(future.isCompletedExceptionally());
+        assertThrows(ExecutionException.class, future::get);
+    }
+
+    private void activate(final int callsPerService) {
+        final SampleMultiReferenceServiceImpl.Cfg cfg = mock(SampleMultiReferenceServiceImpl.Cfg.class);
+        when(cfg.threads()).thenReturn(8);
+        when(cfg.queue_size()).thenReturn(100);
+        when(cfg.calls_per_service()).thenReturn(callsPerService);
+        when(cfg.virtual_threads()).thenReturn(false);
+
+        impl.activate(cfg);
+    }
+
+    private void bind(final String name, final Supplier<String> helloWorld) {
+        final SampleService service = mock(SampleService.class);
+        when(service.helloWorld()).thenAnswer(invocation -> helloWorld.get());
+
+        impl.bindSampleService(service, Collections.<Object, Object>singletonMap(SampleService.PROP_NAME, name));
+    }
+
+    private String hang() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "too late";
+    }
+
+    private String hangUninterruptibly() {
+        while (true) {
+            try {
+                release.await();
+                return "too late";
+            } catch (InterruptedException e) {
+                // Ignored, as a badly behaved service would
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the SampleMutableStateServiceImpl map and list under contention, against the
+ * synchronized HashMap and Collections.synchronizedList(..) it used to be built on; at 1, 8 and 64 threads.
+ *
+ * The map is read 9 times for every write, over 1024 keys; its scores are operations per microsecond. The lists grow
+ * without limit, so rather than for a time, each thread appends a batch of LIST_BATCH items per iteration, after
+ * which the lists are replaced; their scores are milliseconds per batch.
+ *
+ * This is not run by the build; run the main method (from an IDE, or with the test classpath).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SampleMutableStateBenchmark {
+    private static final int KEYS = 1024;
+    private static final int LIST_BATCH = 100000;
+    private static final String[] KEY_NAMES = new String[KEYS];
+
+    static {
+        for (int i = 0; i < KEYS; i++) {
+            KEY_NAMES[i] = "key-" + i;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Synchronized {
+        private final Map<String, String> map = new HashMap<String, String>();
+        private List<String> list;
+
+        @Setup(Level.Trial)
+        public void fill() {
+            for (final String key : KEY_NAMES) {
+                map.put(key, key);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void resetList() {
+            list = Collections.synchronizedList(new ArrayList<String>());
+        }
+
+        String get(final String key) {
+            synchronized (map) {
+                return map.get(key);
+            }
+        }
+
+        void put(final String key, final String value) {
+            synchronized (map) {
+                map.put(key, value);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Concurrent {
+        private final SampleMutableStateServiceImpl map = new SampleMutableStateServiceImpl();
+        private SampleMutableStateServiceImpl list;
+
+        @Setup(Level.Trial)
+        public void fill() {
+            for (final String key : KEY_NAMES) {
+                map.addToMap(key, key);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void resetList() {
+            // Not activated, so unbounded
+            list = new SampleMutableStateServiceImpl();
+        }
+    }
+
+    @Benchmark
+    public String synchronizedMap(final Synchronized state) {
+        final String key = randomKey();
+        return isWrite() ? putAndReturn(state, key) : state.get(key);
+    }
+
+    @Benchmark
+    public String concurrentMap(final Concurrent state) {
+        final String key = randomKey();
+
+        if (isWrite()) {
+            state.map.addToMap(key, key);
+            return key;
+        }
+
+        return state.map.getFromMap(key);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = LIST_BATCH)
+    @Measurement(iterations = 10, batchSize = LIST_BATCH)
+    public void synchronizedList(final Synchronized state) {
+        state.list.add("value");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = LIST_BATCH)
+    @Measurement(iterations = 10, batchSize = LIST_BATCH)
+    public void concurrentList(final Concurrent state) {
+        state.list.addToList("value");
+    }
+
+    private static String putAndReturn(final Synchronized state, final String key) {
+        state.put(key, key);
+        return key;
+    }
+
+    private static String randomKey() {
+        return KEY_NAMES[ThreadLocalRandom.current().nextInt(KEYS)];
+    }
+
+    private static boolean isWrite() {
+        return ThreadLocalRandom.current().nextInt(10) == 0;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        for (final int threads : new int[]{ 1, 8, 64 }) {
+            new Runner(new OptionsBuilder()
+                    .include(SampleMutableStateBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SampleMutableStateServiceImplTest {
+    private final SampleMutableStateServiceImpl service = new SampleMutableStateServiceImpl();
+
+    @Test
+    void storesAndRemovesValues() {
+        service.addToMap("a", "1");
+        assertEquals("1", service.getFromMap("a"));
+
+        service.addToMap("a", null);
+        assertNull(service.getFromMap("a"));
+
+        assertEquals(1, service.getStats().getHitCount());
+        assertEquals(1, service.getStats().getMissCount());
+    }
+
+    @Test
+    void rejectsNullKeys() {
+        assertThrows(IllegalArgumentException.class, () -> service.addToMap(null, "1"));
+
+        assertNull(service.getFromMap(null));
+        assertEquals(1, service.getStats().getMissCount());
+    }
+
+    @Test
+    void countsListItems() {
+        service.addToList("a");
+        service.addToList("b");
+
+        assertEquals(2, service.getListLength());
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.services.impl;
+
+import com.adobe.acs.samples.services.SamplePageCountService;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SamplePageCountServiceImplTest {
+    private final ResourceResolverFactory resourceResolverFactory = mock(ResourceResolverFactory.class);
+    private final ResourceResolver resourceResolver = mock(ResourceResolver.class);
+
+    private SamplePageCountServiceImpl service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.deactivate();
+        }
+    }
+
+    @Test
+    void buildCountsDescendantPages() throws Exception {
+        final List<Resource> pages = Arrays.asList(
+                resource("/content/site/en", "cq:Page"),
+                resource("/content/site/en/about", "cq:Page"),
+                resource("/content/site/fr", "cq:Page"));
+        when(resourceResolver.findResources(anyString(), anyString())).thenReturn(pages.iterator());
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(resourceResolver);
+
+        service = activate(60);
+        awaitReady();
+
+        assertEquals(3, service.getDescendantPageCount("/content/site"));
+        assertEquals(1, service.getDescendantPageCount("/content/site/en"));
+        assertEquals(0, service.getDescendantPageCount("/content/site/fr"));
+        assertEquals(SamplePageCountService.UNKNOWN, service.getDescendantPageCount("/etc"));
+    }
+
+    @Test
+    void addedTreeCountsItsDescendantPages() throws Exception {
+        when(resourceResolver.findResources(anyString(), anyString())).thenReturn(Collections.<Resource>emptyIterator());
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(resourceResolver);
+
+        // A copied tree, reported as a single ADDED event for its root
+        final Resource en = resource("/content/site/en", "cq:Page");
+        final Resource content = resource("/content/site/en/jcr:content", "cq:PageContent");
+        final Resource folder = resource("/content/site/en/folder", "sling:Folder");
+        final Resource about = resource("/content/site/en/folder/about", "cq:Page");
+        children(en, content, folder);
+        children(folder, about);
+        when(resourceResolver.getResource("/content/site/en")).thenReturn(en);
+
+        service = activate(60);
+        awaitReady();
+        service.onChange(Collections.singletonList(change(ResourceChange.ChangeType.ADDED, "/content/site/en")));
+
+        assertEquals(2, service.getDescendantPageCount("/content/site"));
+        assertEquals(1, service.getDescendantPageCount("/content/site/en"));
+        assertEquals(1, service.getDescendantPageCount("/content/site/en/folder"));
+
+        service.onChange(Collections.singletonList(change(ResourceChange.ChangeType.REMOVED, "/content/site/en/folder")));
+
+        assertEquals(1, service.getDescendantPageCount("/content/site"));
+        assertEquals(0, service.getDescendantPageCount("/content/site/en"));
+    }
+
+    @Test
+    void removedTreeIsLeftWithoutCounts() throws Exception {
+        final List<Resource> pages = Arrays.asList(
+                resource("/content/site/en", "cq:Page"),
+                resource("/content/site/en/about", "cq:Page"),
+                resource("/content/site/fr", "cq:Page"));
+        when(resourceResolver.findResources(anyString(), anyString())).thenReturn(pages.iterator());
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(resourceResolver);
+
+        service = activate(60);
+        awaitReady();
+        service.onChange(Collections.singletonList(change(ResourceChange.ChangeType.REMOVED, "/content/site")));
+
+        assertEquals(0, service.getDescendantPageCount("/content"));
+        assertTrue(counts().isEmpty(), "counts " + counts());
+    }
+
+    @Test
+    void pageRemovedWhileTheBuildRunsIsNotAddedBack() throws Exception {
+        final List<Resource> pages = Arrays.asList(
+                resource("/content/site/en", "cq:Page"),
+                resource("/content/site/en/about", "cq:Page"),
+                resource("/content/site/fr", "cq:Page"));
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(resourceResolver);
+        when(resourceResolver.findResources(anyString(), anyString())).thenAnswer(invocation -> {
+            // The query read the pages before /content/site/en was removed
+            service.onChange(Collections.singletonList(change(ResourceChange.ChangeType.REMOVED, "/content/site/en")));
+            return pages.iterator();
+        });
+
+        service = activate(60);
+        awaitReady();
+
+        assertEquals(1, service.getDescendantPageCount("/content/site"));
+        assertEquals(0, service.getDescendantPageCount("/content/site/en"));
+    }
+
+    @Test
+    void failedBuildIsRetried() throws Exception {
+        final Iterator<Resource> pages = Collections.singletonList(resource("/content/site/en", "cq:Page")).iterator();
+        when(resourceResolver.findResources(anyString(), anyString())).thenReturn(pages);
+        when(resourceResolverFactory.getServiceResourceResolver(any()))
+                .thenThrow(new LoginException("not yet"))
+                .thenReturn(resourceResolver);
+
+        service = activate(1);
+
+        // The first build failed, and scheduled its retry
+        awaitBuild(0);
+        assertEquals(SamplePageCountService.UNKNOWN, service.getDescendantPageCount("/content/site"));
+
+        awaitBuild(1);
+        assertEquals(1, service.getDescendantPageCount("/content/site"));
+    }
+
+    @Test
+    void buildFinishingAfterDeactivateIsNotReady() throws Exception {
+        final Iterator<Resource> pages = Collections.singletonList(resource("/content/site/en", "cq:Page")).iterator();
+        when(resourceResolverFactory.getServiceResourceResolver(any())).thenReturn(resourceResolver);
+        when(resourceResolver.findResources(anyString(), anyString())).thenAnswer(invocation -> {
+            // The component is deactivated while the build's query runs
+            service.deactivate();
+            return pages;
+        });
+
+        service = activate(60);
+
+        // deactivate() shut the executor down, so it terminates once the build has finished
+        assertTrue(executor().awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(SamplePageCountService.UNKNOWN, service.getDescendantPageCount("/content/site"));
+    }
+
+    private SamplePageCountServiceImpl activate(final long retryDelay) throws Exception {
+        final SamplePageCountServiceImpl.Cfg cfg = mock(SamplePageCountServiceImpl.Cfg.class);
+        when(cfg.resource_paths()).thenReturn(new String[] { "/content" });
+        when(cfg.build_retry_delay()).thenReturn(retryDelay);
+
+        final SamplePageCountServiceImpl impl = new SamplePageCountServiceImpl();
+        final java.lang.reflect.Field field = SamplePageCountServiceImpl.class.getDeclaredField("resourceResolverFactory");
+        field.setAccessible(true);
+        field.set(impl, resourceResolverFactory);
+
+        // Set before activating, as the build's stubs may use it; submitting the build orders it after this write
+        service = impl;
+        impl.activate(cfg);
+        return impl;
+    }
+
+    private void awaitReady() throws Exception {
+        awaitBuild(0);
+        assertTrue(service.getDescendantPageCount("/content") != SamplePageCountService.UNKNOWN, "not ready");
+    }
+
+    /**
+     * The build runs on the service's single thread executor, which runs tasks in the order they are due; so a task
+     * due after the build (or its retry, due after the retry delay) completes once the build has.
+     */
+    private void awaitBuild(final long delaySeconds) throws Exception {
+        executor().schedule(() -> { }, delaySeconds, TimeUnit.SECONDS).get(delaySeconds + 5, TimeUnit.SECONDS);
+    }
+
+    private ScheduledExecutorService executor() throws Exception {
+        return (ScheduledExecutorService) field("executor").get(service);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> counts() throws Exception {
+        return (Map<String, ?>) field("counts").get(service);
+    }
+
+    private static java.lang.reflect.Field field(final String name) throws NoSuchFieldException {
+        final java.lang.reflect.Field field = SamplePageCountServiceImpl.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    private static Resource resource(final String path, final String primaryType) {
+        final Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn(path);
+        when(resource.getName()).thenReturn(path.substring(path.lastIndexOf('/') + 1));
+        when(resource.getValueMap()).thenReturn(new ValueMapDecorator(
+                Collections.<String, Object>singletonMap("jcr:primaryType", primaryType)));
+        when(resource.getChildren()).thenReturn(Collections.<Resource>emptyList());
+        return resource;
+    }
+
+    private static void children(final Resource parent, final Resource... children) {
+        when(parent.getChildren()).thenReturn(new ArrayList<Resource>(Arrays.asList(children)));
+    }
+
+    private static ResourceChange change(final ResourceChange.ChangeType type, final String path) {
+        final ResourceChange change = mock(ResourceChange.class);
+        when(change.getType()).thenReturn(type);
+        when(change.getPath()).thenReturn(path);
+        return change;
+    }
+}
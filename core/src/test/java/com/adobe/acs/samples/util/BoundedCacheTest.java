@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * ACS AEM Samples
+ * %%
+ * Copyright (C) 2015 Adobe
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+package com.adobe.acs.samples.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedCacheTest {
+
+    @Test
+    void getReturnsPutValue() {
+        final BoundedCache<String, String> cache = new BoundedCache<String, String>(10, 0);
+
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+
+        assertEquals("1", cache.get("a"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        final BoundedCache<String, String> cache = new BoundedCache<String, String>(2, 0, 1);
+
+        cache.put("a", "1");
+        cache.put("b", "2");
+        // Reading "a" makes "b" the least recently used
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void staysBoundedAcrossSegments() {
+        final BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(100, 0, 8);
+
+        for (int i = 0; i < 10000; i++) {
+            cache.put(i, i);
+        }
+
+        // Up to one extra entry per segment
+        assertTrue(cache.size() <= 108, "size " + cache.size());
+        assertEquals(10000 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    void expiresEntries() throws InterruptedException {
+        final BoundedCache<String, String> cache = new BoundedCache<String, String>(10, 20);
+
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+
+        Thread.sleep(40);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    void removesExpiredEldestEntryOnPut() throws InterruptedException {
+        final BoundedCache<String, String> cache = new BoundedCache<String, String>(10, 20, 1);
+
+        cache.put("a", "1");
+        Thread.sleep(40);
+        // The segment is far from full, but its least recently used entry has expired
+        cache.put("b", "2");
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    void removeOnlyRemovesMatchingValue() {
+        final BoundedCache<String, String> cache = new BoundedCache<String, String>(10, 0);
+        final String first = new String("1");
+        final String second = new String("1");
+
+        cache.put("a", first);
+
+        assertFalse(cache.remove("a", second));
+        assertTrue(cache.remove("a", first));
+        assertNull(cache.remove("a"));
+    }
+
+    @Test
+    void removeIfRemovesMatchingEntries() {
+        final BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(100, 0);
+
+        for (int i = 0; i < 50; i++) {
+            cache.put("key-" + i, i);
+        }
+
+        assertEquals(25, cache.removeIf((key, value) -> value % 2 == 0));
+        assertEquals(25, cache.size());
+        assertNull(cache.get("key-2"));
+        assertEquals(Integer.valueOf(3), cache.get("key-3"));
+        assertEquals(25, cache.getEvictionCount());
+    }
+
+    @Test
+    void clearRemovesEverything() {
+        final BoundedCache<String, String> cache = new BoundedCache<String, String>(10, 0);
+
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void concurrentUseStaysConsistent() throws Exception {
+        final BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(1000, 0);
+        final int threads = 8;
+        final int operations = 20000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * 500;
+
+                futures.add(executor.submit(() -> {
+                    start.await();
+
+                    for (int i = 0; i < operations; i++) {
+                        final Integer key = (offset + i) % 2000;
+                        final Integer value = cache.get(key);
+
+                        if (value == null) {
+                            cache.put(key, key);
+                        } else {
+                            assertEquals(key, value);
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals((long) threads * operations, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.size() <= 1000 + 16);
+    }
+}